@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipOutputStream;
+import com.google.common.io.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the garbage each archive leaves behind per file. Run with
+ * {@code -prof gc}: {@code gc.alloc.rate.norm} is then the number of bytes
+ * allocated for each file written, including its share of opening and
+ * finishing the archive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(ArchiveAllocationBenchmark.FILES)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArchiveAllocationBenchmark {
+    static final int FILES = 1000;
+    private static final int FILE_SIZE = 16 << 10;
+    private static final long PIPELINE_MEMORY = 8 << 20;
+
+    private final byte[] data = new byte[FILE_SIZE];
+    private final InputSupplier<ByteArrayInputStream> input =
+            ByteStreams.newInputStreamSupplier(data);
+    private DeflaterPool deflaters;
+    private BufferPool buffers;
+    private CompressionPolicy policy;
+    private ExecutorService executor;
+    private int threads;
+
+    @Setup
+    public void setUp() {
+        deflaters = new DeflaterPool();
+        buffers = new BufferPool(PIPELINE_MEMORY);
+        policy = new CompressionPolicy(CompressionLevel.FASTEST, true,
+                deflaters, buffers);
+        threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void zipArchive() throws ArchiveException {
+        writeFiles(new ZipArchive(new ZipOutputStream(new NullOutputStream()),
+                policy, buffers));
+    }
+
+    @Benchmark
+    public void parallelZipArchive() throws ArchiveException {
+        writeFiles(new ParallelZipArchive(executor,
+                new ZipWriter(new NullOutputStream()), policy, deflaters,
+                buffers, threads));
+    }
+
+    @Benchmark
+    public void pipelinedZipArchive() throws ArchiveException {
+        writeFiles(new PipelinedZipArchive(Executors.defaultThreadFactory(),
+                new ZipWriter(new NullOutputStream()), policy, deflaters,
+                buffers, PIPELINE_MEMORY));
+    }
+
+    private void writeFiles(final Archive archive) throws ArchiveException {
+        try {
+            for (int i = 0; i < FILES; ++i) {
+                archive.write("players/player" + i + ".dat", 0, input);
+            }
+            archive.finish();
+        } finally {
+            archive.close();
+        }
+    }
+}
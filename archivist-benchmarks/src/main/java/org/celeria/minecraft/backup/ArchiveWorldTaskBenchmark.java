@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipOutputStream;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.bukkit.World;
+import org.celeria.minecraft.backup.MemoryStaging.StagedWorld;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Measures a whole {@link ArchiveWorldTask#run} on a synthetic world on
+ * disk, from saving the world to finishing its archive. The staging mirror
+ * is kept between invocations, as it is between backups, so this measures
+ * the usual case of a world that has not changed since its last backup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class ArchiveWorldTaskBenchmark {
+    private static final long SEED = 1L;
+    private static final String WORLD_NAME = "world";
+    private static final long TICK_BUDGET = 50;
+
+    @Param({"PLAYER_DATA", "REGIONS", "MIXED"})
+    public String shape;
+
+    @Param({"DEFAULT", "FASTEST"})
+    public String compressionLevel;
+
+    /** As in the configuration, zero archives without a pipeline. */
+    @Param({"0", "8388608"})
+    public long pipelineMemory;
+
+    /**
+     * Whether dirty regions are tracked, in which case the staging mirror
+     * skips every region file since none have been marked.
+     */
+    @Param({"false", "true"})
+    public boolean trackDirtyRegions;
+
+    /** Whether files are archived straight from the world, unstaged. */
+    @Param({"false", "true"})
+    public boolean archiveDirectly;
+
+    /**
+     * As in the configuration, zero stages the world on disk; otherwise, the
+     * world is captured in memory up to this many bytes on every run.
+     */
+    @Param({"0", "1073741824"})
+    public long stagingMemory;
+
+    private File folder;
+    private LocLogger log;
+    private FileObject worldFolder;
+    private FileObject stagingFolder;
+    private FileObject backupFile;
+    private World world;
+    private StagingMirror mirror;
+    private DirtyRegionTracker tracker;
+    private MemoryStaging memory;
+    private IoThrottle throttle;
+    private DeflaterPool deflaters;
+    private BufferPool buffers;
+    private CompressionPolicy policy;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDir();
+        final File localWorldFolder = new File(folder, WORLD_NAME);
+        WorldShape.valueOf(shape).writeTo(localWorldFolder, SEED);
+        final FileSystemManager fileSystem = Benchmarks.fileSystemManager();
+        worldFolder = fileSystem.toFileObject(localWorldFolder);
+        stagingFolder = fileSystem.toFileObject(new File(folder, "staging"));
+        backupFile = fileSystem.toFileObject(new File(folder, "backup.zip"));
+        log = Benchmarks.logger();
+        world = Benchmarks.world(WORLD_NAME);
+        throttle = new IoThrottle(TICK_BUDGET, 0);
+        mirror = new StagingMirror(false, false, throttle);
+        tracker = new DirtyRegionTracker();
+        memory = new MemoryStaging(stagingMemory, mirror, throttle);
+        deflaters = new DeflaterPool();
+        buffers = new BufferPool(pipelineMemory);
+        policy = new CompressionPolicy(
+                CompressionLevel.valueOf(compressionLevel), true, deflaters,
+                buffers);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        LocalFiles.delete(folder);
+    }
+
+    @Benchmark
+    public void run() throws IOException {
+        if (!trackDirtyRegions) {
+            tracker.forget(WORLD_NAME);
+        }
+        new ArchiveWorldTask(log, Benchmarks.scheduler(), worldFolder,
+                stagingFolder, mirror, tracker, archive(), throttle,
+                new BackupRun(), new WorldStatistics(), archiveDirectly,
+                stagedWorld(), world).run();
+    }
+
+    private Optional<StagedWorld> stagedWorld() {
+        if (!memory.isEnabled()) {
+            return Optional.absent();
+        }
+        return Optional.of(memory.newStagedWorld());
+    }
+
+    private Archive archive() throws FileSystemException {
+        final OutputStream output = new BufferedOutputStream(
+                backupFile.getContent().getOutputStream());
+        if (pipelineMemory > 0) {
+            return new PipelinedZipArchive(Executors.defaultThreadFactory(),
+                    new ZipWriter(output), policy, deflaters, buffers,
+                    pipelineMemory);
+        }
+        return new ZipArchive(new ZipOutputStream(output), policy, buffers);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipOutputStream;
+import com.google.common.io.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how long {@link Archive#write} takes to archive a whole world
+ * held in memory, so that only compression and the archive format count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArchiveWriteBenchmark {
+    private static final long SEED = 1L;
+    private static final long PIPELINE_MEMORY = 8 << 20;
+
+    @Param({"PLAYER_DATA", "REGIONS", "MIXED"})
+    public String shape;
+
+    @Param({"DEFAULT", "NONE", "FASTEST", "BEST"})
+    public String compressionLevel;
+
+    @Param({"true", "false"})
+    public boolean adaptiveCompression;
+
+    private SortedMap<String, byte[]> files;
+    private DeflaterPool deflaters;
+    private BufferPool buffers;
+    private CompressionPolicy policy;
+    private ExecutorService executor;
+    private int threads;
+
+    @Setup
+    public void setUp() throws IOException {
+        files = WorldShape.valueOf(shape).generate(SEED);
+        deflaters = new DeflaterPool();
+        buffers = new BufferPool(PIPELINE_MEMORY);
+        policy = new CompressionPolicy(
+                CompressionLevel.valueOf(compressionLevel),
+                adaptiveCompression, deflaters, buffers);
+        threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void zipArchive() throws ArchiveException {
+        writeWorld(new ZipArchive(new ZipOutputStream(new NullOutputStream()),
+                policy, buffers));
+    }
+
+    @Benchmark
+    public void parallelZipArchive() throws ArchiveException {
+        writeWorld(new ParallelZipArchive(executor,
+                new ZipWriter(new NullOutputStream()), policy, deflaters,
+                buffers, threads));
+    }
+
+    @Benchmark
+    public void pipelinedZipArchive() throws ArchiveException {
+        writeWorld(new PipelinedZipArchive(Executors.defaultThreadFactory(),
+                new ZipWriter(new NullOutputStream()), policy, deflaters,
+                buffers, PIPELINE_MEMORY));
+    }
+
+    private void writeWorld(final Archive archive) throws ArchiveException {
+        try {
+            for (final Map.Entry<String, byte[]> file : files.entrySet()) {
+                archive.write(file.getKey(), 0,
+                        ByteStreams.newInputStreamSupplier(file.getValue()));
+            }
+            archive.finish();
+        } finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.Locale;
+import ch.qos.cal10n.MessageConveyor;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.bukkit.*;
+import org.celeria.minecraft.guice.TaskScheduler;
+import org.slf4j.cal10n.*;
+
+/** What the benchmarks need to run the plugin's tasks outside a server. */
+final class Benchmarks {
+    private Benchmarks() {}
+
+    static LocLogger logger() {
+        return new LocLoggerFactory(new MessageConveyor(Locale.US))
+                .getLocLogger(Benchmarks.class.getName());
+    }
+
+    /** Returns a file system manager set up as the plugin sets it up. */
+    static FileSystemManager fileSystemManager() throws FileSystemException {
+        return new FileSystemManagerProvider(new DefaultFileSystemManager(),
+                new DefaultLocalFileProvider(), new DefaultFilesCache()).get();
+    }
+
+    static FileProvider<FileObject> fileProvider(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+
+    /** Runs synchronous tasks on the calling thread, as if it were ticking. */
+    static TaskScheduler scheduler() {
+        return new TaskScheduler() {
+            @Override
+            public void cancelTasks() {}
+
+            @Override
+            public void repeatAsynchronousTask(final Runnable task,
+                    final long period) {}
+
+            @Override
+            public void repeatSynchronousTask(final Runnable task,
+                    final long delay, final long period) {}
+
+            @Override
+            public void runAsynchronousTask(final Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void runSynchronousTask(final Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    /** Returns a world with the given name that does nothing else. */
+    static World world(final String name) {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(),
+                new Class<?>[] {World.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] arguments) {
+                        if (method.getName().equals("getName")) {
+                            return name;
+                        }
+                        if (method.getName().equals("getLoadedChunks")) {
+                            return new Chunk[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+}
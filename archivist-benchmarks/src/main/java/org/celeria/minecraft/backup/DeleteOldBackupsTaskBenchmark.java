@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServerFactory;
+import com.google.common.io.Files;
+import com.google.inject.Provider;
+import org.apache.commons.vfs2.*;
+import org.joda.time.*;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Measures {@link DeleteOldBackupsTask#run} on a backup folder holding
+ * thousands of backups, of which only the few that have aged since the
+ * last run are due for deletion, as happens on every run of a server that
+ * keeps a long history. The catalog is rebuilt from the folder once; before
+ * each invocation the clock moves on and new backups are added to it the
+ * way finished backups would be.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DeleteOldBackupsTaskBenchmark {
+    private static final int EXPIRED_BACKUPS = 10;
+    private static final Duration DURATION_TO_KEEP_BACKUPS =
+            Duration.standardDays(3);
+    private static final Period KEEP_HOURLY_BACKUPS_FOR = Period.days(7);
+    private static final Period KEEP_DAILY_BACKUPS_FOR = Period.weeks(4);
+    private static final Period KEEP_WEEKLY_BACKUPS_FOR = Period.months(6);
+    private static final long BACKUP_SIZE = 1024;
+
+    @Param({"1000", "5000", "20000"})
+    public int backups;
+
+    @Param({"AGE", "TIERED"})
+    public String retention;
+
+    private File folder;
+    private File stateFolder;
+    private BackupCatalog catalog;
+    private Instant now;
+    private long interval;
+    private int next;
+    private DeleteOldBackupsTask task;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDir();
+        stateFolder = Files.createTempDir();
+        now = Instant.now();
+        interval = DURATION_TO_KEEP_BACKUPS.getMillis() / backups;
+        for (next = 0; next < backups; ++next) {
+            createBackup(next, now.minus(interval * next));
+        }
+        final LocLogger log = Benchmarks.logger();
+        final FileSystemManager fileSystem = Benchmarks.fileSystemManager();
+        final FileProvider<FileObject> backupFolder = Benchmarks.fileProvider(
+                fileSystem.toFileObject(folder));
+        catalog = new BackupCatalog(log, backupFolder,
+                Benchmarks.fileProvider(fileSystem.toFileObject(stateFolder)));
+        catalog.backups();
+        task = new DeleteOldBackupsTask(log, catalog,
+                new BackupDeleter(log, backupFolder, catalog),
+                new PackFileRepository(backupFolder, CompressionLevel.DEFAULT),
+                DURATION_TO_KEEP_BACKUPS, new Provider<Instant>() {
+                    @Override
+                    public Instant get() {
+                        return now;
+                    }
+                }, new BackupStatistics(log,
+                        MBeanServerFactory.newMBeanServer()),
+                RetentionScheme.valueOf(retention),
+                new TieredRetention(
+                        DURATION_TO_KEEP_BACKUPS.toPeriod(),
+                        KEEP_HOURLY_BACKUPS_FOR, KEEP_DAILY_BACKUPS_FOR,
+                        KEEP_WEEKLY_BACKUPS_FOR), false);
+        task.run();
+    }
+
+    /**
+     * Moves the clock on far enough for the oldest few backups to age, and
+     * adds the backups that would have been made in the meantime.
+     */
+    @Setup(Level.Invocation)
+    public void createNewBackups() throws IOException {
+        for (int i = 0; i < EXPIRED_BACKUPS; ++i) {
+            now = now.plus(interval);
+            catalog.add(new BackupCatalog.Backup(createBackup(next++, now),
+                    "world", now.getMillis(), BACKUP_SIZE, 0, 0, ""));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        LocalFiles.delete(folder);
+        LocalFiles.delete(stateFolder);
+    }
+
+    @Benchmark
+    public void run() {
+        task.run();
+    }
+
+    private String createBackup(final int number, final Instant time)
+            throws IOException {
+        final String name = "world_" + number + ".zip";
+        final File backup = new File(folder, name);
+        final RandomAccessFile file = new RandomAccessFile(backup, "rw");
+        try {
+            file.setLength(BACKUP_SIZE);
+        } finally {
+            file.close();
+        }
+        if (!backup.setLastModified(time.getMillis())) {
+            throw new IOException("Could not date " + backup);
+        }
+        return name;
+    }
+}
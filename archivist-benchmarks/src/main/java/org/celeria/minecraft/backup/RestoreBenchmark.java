@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Measures {@link BackupRestorer#restore} of a synthetic world's backup,
+ * either whole or a single region file, with one thread and with several.
+ * A whole restore should scale with the threads, and restoring one region
+ * should cost little no matter how large the backup is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class RestoreBenchmark {
+    private static final long SEED = 1L;
+    private static final String BACKUP_NAME = "world_1.zip";
+    private static final String REGION = "r.0.0.mcr";
+
+    @Param({"REGIONS", "MIXED"})
+    public String shape;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean oneRegion;
+
+    private File folder;
+    private File target;
+    private ExecutorService executor;
+    private BackupRestorer restorer;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDir();
+        final File backupFolder = new File(folder, "backups");
+        final File stateFolder = new File(folder, "state");
+        LocalFiles.createFolder(backupFolder);
+        LocalFiles.createFolder(stateFolder);
+        writeBackup(new File(backupFolder, BACKUP_NAME));
+        final LocLogger log = Benchmarks.logger();
+        final FileSystemManager fileSystem = Benchmarks.fileSystemManager();
+        final FileProvider<FileObject> backupFolderProvider =
+                Benchmarks.fileProvider(fileSystem.toFileObject(backupFolder));
+        executor = Executors.newFixedThreadPool(threads);
+        restorer = new BackupRestorer(backupFolderProvider,
+                new BackupCatalog(log, backupFolderProvider,
+                        Benchmarks.fileProvider(
+                                fileSystem.toFileObject(stateFolder))),
+                executor);
+    }
+
+    private void writeBackup(final File file) throws IOException {
+        final ZipOutputStream output = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (final Map.Entry<String, byte[]> entry
+                    : WorldShape.valueOf(shape).generate(SEED).entrySet()) {
+                output.putNextEntry(new ZipEntry(entry.getKey()));
+                output.write(entry.getValue());
+                output.closeEntry();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTarget() {
+        target = new File(folder, "target");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        LocalFiles.delete(target);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        LocalFiles.delete(folder);
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        return restorer.restore(BACKUP_NAME, target, oneRegion
+                ? ChunkSelection.ofRegions(ImmutableList.of(REGION))
+                : ChunkSelection.everything());
+    }
+}
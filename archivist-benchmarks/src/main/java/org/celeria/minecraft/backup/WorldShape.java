@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * The shapes of the synthetic worlds that the benchmarks archive. Region
+ * files hold chunks that are already compressed, as they are in a real
+ * world, and the other files are small and compress well, like player data.
+ */
+enum WorldShape {
+    /** Thousands of small files, like a world's player data and stats. */
+    PLAYER_DATA(4000, 0),
+    /** A few dozen large region files. */
+    REGIONS(0, 32),
+    /** Both, in roughly the proportion of a long-running server's world. */
+    MIXED(1000, 16);
+
+    private static final int SMALL_FILE_SIZE = 2 << 10;
+    private static final int REGION_ENTRIES = 1024;
+    private static final int CHUNKS_PER_REGION = 256;
+    private static final int MINIMUM_CHUNK_SIZE = 4 << 10;
+    private static final int MAXIMUM_CHUNK_SIZE = 32 << 10;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+    private static final byte ZLIB = 2;
+    private static final String WORDS = "abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private final int smallFiles;
+    private final int regionFiles;
+
+    WorldShape(final int smallFiles, final int regionFiles) {
+        this.smallFiles = smallFiles;
+        this.regionFiles = regionFiles;
+    }
+
+    /** Returns the contents of each file, keyed by its relative name. */
+    SortedMap<String, byte[]> generate(final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final SortedMap<String, byte[]> files = Maps.newTreeMap();
+        files.put("level.dat", compressibleBytes(random, SMALL_FILE_SIZE));
+        for (int i = 0; i < smallFiles; ++i) {
+            files.put("players/player" + i + ".dat",
+                    compressibleBytes(random, SMALL_FILE_SIZE));
+        }
+        for (int i = 0; i < regionFiles; ++i) {
+            files.put("region/r." + i + ".0.mcr", regionFile(random));
+        }
+        return files;
+    }
+
+    void writeTo(final File folder, final long seed) throws IOException {
+        for (final Map.Entry<String, byte[]> file
+                : generate(seed).entrySet()) {
+            final File target = new File(folder, file.getKey());
+            Files.createParentDirs(target);
+            Files.write(file.getValue(), target);
+        }
+    }
+
+    /** Text drawn from a small vocabulary compresses about as well as NBT. */
+    private static byte[] compressibleBytes(final Random random,
+            final int size) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            bytes[i] = (byte) WORDS.charAt(random.nextInt(
+                    1 + random.nextInt(WORDS.length())));
+        }
+        return bytes;
+    }
+
+    private static byte[] regionFile(final Random random) throws IOException {
+        final ByteArrayOutputStream region = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(region);
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        int sector = HEADER_SIZE / SECTOR_SIZE;
+        for (int i = 0; i < CHUNKS_PER_REGION; ++i) {
+            final byte[] chunk = chunk(random);
+            final int sectors = chunk.length / SECTOR_SIZE;
+            header.writeInt(sector << 8 | sectors);
+            sector += sectors;
+            chunks.add(chunk);
+        }
+        header.write(new byte[(REGION_ENTRIES - CHUNKS_PER_REGION) * 4]);
+        for (int i = 0; i < REGION_ENTRIES; ++i) {
+            header.writeInt(i < CHUNKS_PER_REGION ? random.nextInt() : 0);
+        }
+        for (final byte[] chunk : chunks) {
+            region.write(chunk);
+        }
+        return region.toByteArray();
+    }
+
+    /** Returns a deflated chunk, with its header, padded to a sector. */
+    private static byte[] chunk(final Random random) throws IOException {
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        final DeflaterOutputStream output =
+                new DeflaterOutputStream(deflated);
+        output.write(compressibleBytes(random, MINIMUM_CHUNK_SIZE
+                + random.nextInt(MAXIMUM_CHUNK_SIZE - MINIMUM_CHUNK_SIZE)));
+        output.close();
+        final int length = deflated.size() + 1;
+        final int paddedLength = (length + 4 + SECTOR_SIZE - 1)
+                / SECTOR_SIZE * SECTOR_SIZE;
+        final ByteArrayOutputStream chunk =
+                new ByteArrayOutputStream(paddedLength);
+        final DataOutputStream data = new DataOutputStream(chunk);
+        data.writeInt(length);
+        data.writeByte(ZLIB);
+        deflated.writeTo(data);
+        data.write(new byte[paddedLength - chunk.size()]);
+        return chunk.toByteArray();
+    }
+}
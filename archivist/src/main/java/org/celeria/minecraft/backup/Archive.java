@@ -17,66 +17,22 @@
 package org.celeria.minecraft.backup;
 
 import java.io.*;
-import java.util.zip.*;
-import javax.annotation.concurrent.Immutable;
-import com.google.common.io.*;
-import com.google.inject.Inject;
-import org.apache.commons.vfs2.*;
+import com.google.common.io.InputSupplier;
+import org.apache.commons.vfs2.FileContent;
 
-@Immutable
-class Archive implements Closeable {
-    private final ZipOutputStream output;
+interface Archive extends Closeable {
+    void write(String name, FileContent content) throws ArchiveException;
 
-    @Inject
-    Archive(final ZipOutputStream output) {
-        this.output = output;
-    }
+    void write(String name, long time,
+            InputSupplier<? extends InputStream> input)
+            throws ArchiveException;
 
-    @Override
-    public void close() throws ArchiveException {
-        try {
-            output.close();
-        } catch (final IOException e) {
-            throw new ArchiveException("Could not close archive.", e);
-        }
-    }
-
-    public void write(final String name, final FileContent content)
-            throws ArchiveException {
-        try {
-            writeEntry(name, content);
-        } catch (final IOException e) {
-            throw new ArchiveException("Could not write file to archive.", e);
-        }
-    }
-
-    private void writeEntry(final String name, final FileContent content)
-            throws IOException {
-        output.putNextEntry(entryFor(name, content));
-        writeToEntry(content);
-        output.closeEntry();
-    }
+    /**
+     * Writes anything still pending, leaving a complete archive. An archive
+     * that is closed without being finished is considered incomplete.
+     */
+    void finish() throws ArchiveException;
 
-    private ZipEntry entryFor(final String name, final FileContent content)
-            throws FileSystemException {
-        final ZipEntry entry = new ZipEntry(name);
-        entry.setTime(content.getLastModifiedTime());
-        return entry;
-    }
-
-    private void writeToEntry(final FileContent content) throws IOException {
-        final InputStream input = inputStreamFrom(content);
-        boolean threw = true;
-        try {
-            ByteStreams.copy(input, output);
-            threw = false;
-        } finally {
-            Closeables.close(input, threw);
-        }
-    }
-
-    private InputStream inputStreamFrom(final FileContent content)
-            throws FileSystemException {
-        return content.getInputStream();
-    }
+    @Override
+    void close() throws ArchiveException;
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.*;
+
+/**
+ * Keeps the central directories of the most recently browsed archives in
+ * memory, so looking up or reading one entry does not mean scanning the
+ * whole zip again. An archive that changed on disk is reloaded.
+ */
+@ThreadSafe
+class ArchiveDirectoryCache {
+    private final int capacity;
+    @GuardedBy("this") private final Map<File, ArchiveDirectory> directories;
+
+    ArchiveDirectoryCache(final int capacity) {
+        this.capacity = capacity;
+        this.directories = new LinkedHashMap<File, ArchiveDirectory>(
+                capacity, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<File, ArchiveDirectory> eldest) {
+                if (size() <= ArchiveDirectoryCache.this.capacity) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    synchronized ArchiveDirectory directoryOf(final File archive)
+            throws IOException {
+        final ArchiveDirectory cached = directories.get(archive);
+        if (cached != null && cached.isCurrent()) {
+            return cached;
+        }
+        if (cached != null) {
+            directories.remove(archive);
+            cached.evict();
+        }
+        final ArchiveDirectory directory = new ArchiveDirectory(archive);
+        directories.put(archive, directory);
+        return directory;
+    }
+
+    synchronized int size() {
+        return directories.size();
+    }
+
+    /**
+     * An open archive and the folder tree implied by its entry names. The
+     * archive stays open until it has been evicted and the last stream
+     * reading from it is closed.
+     */
+    @ThreadSafe
+    static final class ArchiveDirectory {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final ZipFile archive;
+        private final Map<String, ZipEntry> files = Maps.newHashMap();
+        private final Set<String> folders = Sets.newHashSet("");
+        private final SortedSetMultimap<String, String> children =
+                TreeMultimap.create();
+        @GuardedBy("this") private int readers;
+        @GuardedBy("this") private boolean evicted;
+
+        ArchiveDirectory(final File file) throws IOException {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.archive = new ZipFile(file);
+            final Enumeration<? extends ZipEntry> entries = archive.entries();
+            while (entries.hasMoreElements()) {
+                add(entries.nextElement());
+            }
+        }
+
+        /**
+         * Folders are not always stored as entries of their own, so every
+         * parent of an entry is added as a folder.
+         */
+        private void add(final ZipEntry entry) {
+            String path = entry.getName();
+            if (entry.isDirectory()) {
+                path = path.substring(0, path.length() - 1);
+                folders.add(path);
+            } else {
+                files.put(path, entry);
+            }
+            int slash = path.lastIndexOf('/');
+            while (!path.isEmpty()) {
+                final String parent = slash < 0 ? "" : path.substring(0, slash);
+                folders.add(parent);
+                if (!children.put(parent, path.substring(slash + 1))) {
+                    return;
+                }
+                path = parent;
+                slash = path.lastIndexOf('/');
+            }
+        }
+
+        private boolean isCurrent() {
+            return file.length() == length
+                    && file.lastModified() == lastModified;
+        }
+
+        boolean isFolder(final String path) {
+            return folders.contains(path);
+        }
+
+        ZipEntry entry(final String path) {
+            return files.get(path);
+        }
+
+        String[] childrenOf(final String path) {
+            final Set<String> names = children.get(path);
+            return names.toArray(new String[names.size()]);
+        }
+
+        long lastModified() {
+            return lastModified;
+        }
+
+        InputStream open(final ZipEntry entry) throws IOException {
+            acquire();
+            boolean threw = true;
+            try {
+                final InputStream input = new FilterInputStream(
+                        archive.getInputStream(entry)) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (closed) {
+                            return;
+                        }
+                        closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            release();
+                        }
+                    }
+                };
+                threw = false;
+                return input;
+            } finally {
+                if (threw) {
+                    release();
+                }
+            }
+        }
+
+        private synchronized void acquire() throws IOException {
+            if (evicted) {
+                throw new IOException(file + " is no longer open.");
+            }
+            ++readers;
+        }
+
+        private synchronized void release() throws IOException {
+            --readers;
+            closeIfUnused();
+        }
+
+        private synchronized void evict() {
+            evicted = true;
+            try {
+                closeIfUnused();
+            } catch (final IOException e) {
+                // Nothing is reading from it, so there is nothing to lose.
+            }
+        }
+
+        @GuardedBy("this")
+        private void closeIfUnused() throws IOException {
+            if (evicted && readers == 0) {
+                archive.close();
+            }
+        }
+    }
+}
@@ -23,6 +23,10 @@ import javax.annotation.concurrent.Immutable;
 class ArchiveException extends IOException {
     private static final long serialVersionUID = 7704356508523320198L;
 
+    ArchiveException(final String message) {
+        super(message);
+    }
+
     ArchiveException(final String message, final Throwable cause) {
         super(message, cause);
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Checks an archive against its manifest in a single sequential read:
+ * every entry is inflated and its CRC-32 and size compared with the ones
+ * recorded while it was read from the world, and the checksum and size of
+ * the whole file are compared as it goes by. The world is not read again.
+ * Archives written before manifests existed can only be checked against the
+ * CRC and size each entry records for itself.
+ */
+@Immutable
+class ArchiveVerifier {
+    private final Provider<Checksum> checksums;
+    private final BufferPool buffers;
+
+    @Inject
+    ArchiveVerifier(final Provider<Checksum> checksums,
+            final BufferPool buffers) {
+        this.checksums = checksums;
+        this.buffers = buffers;
+    }
+
+    void verify(final FileObject archive, final IntegrityManifest manifest)
+            throws IOException {
+        final InputStream stream = archive.getContent().getInputStream();
+        boolean threw = true;
+        try {
+            verify(stream, manifest);
+            threw = false;
+        } finally {
+            Closeables.close(stream, threw);
+        }
+    }
+
+    /** Reads the stream to its end, but leaves closing it to the caller. */
+    void verify(final InputStream stream, final IntegrityManifest manifest)
+            throws IOException {
+        final Checksum checksum = checksums.get();
+        final CountingInputStream counted = new CountingInputStream(
+                new CheckedInputStream(new BufferedInputStream(stream),
+                        checksum));
+        final byte[] buffer = buffers.acquire();
+        try {
+            verifyEntries(new ZipInputStream(counted), manifest, buffer);
+            while (counted.read(buffer) > 0) {
+                continue;
+            }
+        } catch (final ZipException e) {
+            throw new ArchiveException("Archive is malformed.", e);
+        } finally {
+            buffers.release(buffer);
+        }
+        if (counted.getCount() != manifest.archiveSize()
+                || checksum.getValue() != manifest.archiveChecksum()) {
+            throw new ArchiveException(
+                    "Archive does not match its recorded checksum.");
+        }
+    }
+
+    /** Reads the stream to its end, but leaves closing it to the caller. */
+    void verify(final InputStream stream) throws IOException {
+        final ZipInputStream zip = new ZipInputStream(
+                new BufferedInputStream(stream));
+        final byte[] buffer = buffers.acquire();
+        try {
+            if (zip.getNextEntry() == null) {
+                throw new ArchiveException("Archive has no entries.");
+            }
+            do {
+                while (zip.read(buffer) > 0) {
+                    continue;
+                }
+            } while (zip.getNextEntry() != null);
+        } catch (final ZipException e) {
+            throw new ArchiveException("Archive is malformed.", e);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    private static void verifyEntries(final ZipInputStream zip,
+            final IntegrityManifest manifest, final byte[] buffer)
+            throws IOException {
+        int entries = 0;
+        for (ZipEntry entry = zip.getNextEntry(); entry != null;
+                entry = zip.getNextEntry()) {
+            verifyEntry(zip, entry.getName(), manifest, buffer);
+            ++entries;
+        }
+        if (entries != manifest.entries().size()) {
+            throw new ArchiveException("Archive is missing entries.");
+        }
+    }
+
+    private static void verifyEntry(final InputStream zip, final String name,
+            final IntegrityManifest manifest, final byte[] buffer)
+            throws IOException {
+        final IntegrityManifest.Entry expected = manifest.entryFor(name);
+        if (expected == null) {
+            throw new ArchiveException("Entry \"" + name
+                    + "\" is not in the manifest.");
+        }
+        final CRC32 crc = new CRC32();
+        long size = 0;
+        for (int read = zip.read(buffer); read > 0; read = zip.read(buffer)) {
+            crc.update(buffer, 0, read);
+            size += read;
+        }
+        if (size != expected.size() || crc.getValue() != expected.crc()) {
+            throw new ArchiveException("Entry \"" + name
+                    + "\" does not match the manifest.");
+        }
+    }
+}
@@ -20,10 +20,18 @@ import static java.lang.annotation.ElementType.*;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import java.io.*;
 import java.lang.annotation.*;
+import java.util.concurrent.*;
 import javax.annotation.concurrent.Immutable;
+import com.google.common.base.*;
+import com.google.common.io.*;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.*;
 import org.apache.commons.vfs2.*;
 import org.bukkit.World;
+import org.celeria.minecraft.backup.BackupRun.Phase;
+import org.celeria.minecraft.backup.MemoryStaging.*;
+import org.celeria.minecraft.backup.OptimisticCopy.Capture;
+import org.celeria.minecraft.guice.TaskScheduler;
 import org.slf4j.cal10n.LocLogger;
 
 @Immutable
@@ -33,34 +41,62 @@ class ArchiveWorldTask implements WorldTask {
     @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
     public @interface TemporaryFolder {}
     @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
-    public @interface TemporaryWorldFolder {}
+    public @interface StagingFolder {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface StagingWorldFolder {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface ArchiveDirectly {}
 
+    private static final long SAVE_TIMEOUT_MINUTES = 5;
     private final LocLogger log;
+    private final TaskScheduler scheduler;
     private final World world;
     private final FileObject worldFolder;
-    private final FileObject temporaryWorldFolder;
+    private final FileObject stagingWorldFolder;
+    private final StagingMirror mirror;
+    private final DirtyRegionTracker tracker;
     private final Archive archive;
+    private final IoThrottle throttle;
+    private final BackupRun run;
+    private final WorldStatistics statistics;
+    private final boolean archiveDirectly;
+    private final Optional<StagedWorld> stagedWorld;
 
     @Inject
-    ArchiveWorldTask(final LocLogger log,
+    ArchiveWorldTask(final LocLogger log, final TaskScheduler scheduler,
             @WorldFolder final FileObject worldFolder,
-            @TemporaryWorldFolder final FileObject temporaryWorldFolder,
-            final Archive archiver, final World world) {
+            @StagingWorldFolder final FileObject stagingWorldFolder,
+            final StagingMirror mirror, final DirtyRegionTracker tracker,
+            final Archive archiver, final IoThrottle throttle,
+            final BackupRun run, final WorldStatistics statistics,
+            @ArchiveDirectly final boolean archiveDirectly,
+            final Optional<StagedWorld> stagedWorld, final World world) {
         this.log = log;
+        this.scheduler = scheduler;
         this.world = world;
         this.worldFolder = worldFolder;
-        this.temporaryWorldFolder = temporaryWorldFolder;
+        this.stagingWorldFolder = stagingWorldFolder;
+        this.mirror = mirror;
+        this.tracker = tracker;
         this.archive = archiver;
+        this.throttle = throttle;
+        this.run = run;
+        this.statistics = statistics;
+        this.archiveDirectly = archiveDirectly;
+        this.stagedWorld = stagedWorld;
     }
 
     @Override
     public final void run() {
+        boolean succeeded = false;
         try {
             archiveWorld();
+            succeeded = true;
         } catch (final IOException e) {
             log.error(ErrorMessage.TASK_FAILED, e);
         } finally {
             closeArchive();
+            statistics.record(run, succeeded);
         }
     }
 
@@ -74,36 +110,214 @@ class ArchiveWorldTask implements WorldTask {
         }
     }
 
+    /**
+     * The world is saved on the main thread, and autosave stays off only
+     * until its files have been captured in the staging mirror; archiving
+     * the mirror happens with autosave back on. An optimistic mirror copes
+     * with files saved while it copies them, so autosave is left alone.
+     * Should the dirty regions not make it into the mirror, the next backup
+     * checks every region. Autosave is turned back on even if the save fails
+     * or times out, and since that is done on the main thread as well, it
+     * is never turned back on before the save has turned it off.
+     */
     private void archiveWorld() throws IOException {
-        createTemporaryFolder();
-        saveAndCopyWorld();
-        archiveCopiedWorld();
-        deleteCopiedWorld();
+        if (archiveDirectly) {
+            saveWorld();
+            archiveWorld(worldFolder);
+            return;
+        }
+        if (stagedWorld.isPresent()) {
+            archiveStagedWorld(stagedWorld.get());
+            return;
+        }
+        boolean staged = false;
+        try {
+            try {
+                synchronizeStagedWorld(saveWorld());
+                staged = true;
+            } finally {
+                if (pausesSaves()) {
+                    resumeAutoSave();
+                }
+            }
+        } finally {
+            if (!staged) {
+                tracker.forget(world.getName());
+            }
+        }
+        archiveWorld(stagingWorldFolder);
     }
 
-    private void saveAndCopyWorld() throws FileSystemException {
-        world.setAutoSave(false);
-        world.save();
-        copyWorldToTemporaryFolder();
-        world.setAutoSave(true);
+    /**
+     * A world staged in memory is captured while autosave is off, just as
+     * the mirror would be, and the memory it takes is given back once it is
+     * archived.
+     */
+    private void archiveStagedWorld(final StagedWorld staged)
+            throws IOException {
+        try {
+            try {
+                saveWorld();
+                stageWorldInMemory(staged);
+            } finally {
+                if (pausesSaves()) {
+                    resumeAutoSave();
+                }
+            }
+            archiveWorld(staged);
+        } finally {
+            staged.close();
+        }
+    }
+
+    /**
+     * Saves are paused unless every file is captured in a way that copes
+     * with it being saved at the same time.
+     */
+    private boolean pausesSaves() {
+        return !archiveDirectly && !mirror.isOptimistic();
     }
 
-    private void createTemporaryFolder() throws FileSystemException {
-        temporaryWorldFolder.createFolder();
+    /**
+     * Returns the regions written since the last backup, collected on the
+     * main thread right after the save so that none slip between the two.
+     * When archiving directly or staging in memory, the staged copy is not
+     * kept up to date, so the regions are left to pile up for when it is
+     * again.
+     */
+    private DirtyRegions saveWorld() throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        final FutureTask<DirtyRegions> save = new FutureTask<DirtyRegions>(
+                new Callable<DirtyRegions>() {
+            @Override
+            public DirtyRegions call() {
+                if (pausesSaves()) {
+                    world.setAutoSave(false);
+                }
+                world.save();
+                return archiveDirectly || stagedWorld.isPresent() ? null
+                        : tracker.drain(world);
+            }
+        });
+        scheduler.runSynchronousTask(save);
+        final DirtyRegions dirty;
+        try {
+            dirty = Uninterruptibles.getUninterruptibly(save,
+                    SAVE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (final ExecutionException e) {
+            throw new IOException("Could not save world.", e.getCause());
+        } catch (final TimeoutException e) {
+            save.cancel(false);
+            throw new IOException("Timed out waiting to save world.", e);
+        }
+        run.phaseTook(Phase.SAVE, stopwatch.elapsedMillis());
+        log.info(LogMessage.SAVED_WORLD, world.getName(),
+                stopwatch.elapsedMillis());
+        return dirty;
     }
 
-    private void copyWorldToTemporaryFolder() throws FileSystemException {
-        temporaryWorldFolder.copyFrom(worldFolder, Selectors.SELECT_ALL);
+    /**
+     * The staged copy is kept between backups, so only the files that
+     * changed since the last one are copied while autosave is off. If the
+     * world's dirty regions are known, no other region file is looked at.
+     */
+    private void synchronizeStagedWorld(final DirtyRegions dirty)
+            throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        final int copied = mirror.synchronize(worldFolder, stagingWorldFolder,
+                dirty);
+        run.phaseTook(Phase.STAGE, stopwatch.elapsedMillis());
+        run.filesStaged(copied);
+        log.info(LogMessage.STAGED_WORLD, copied, world.getName(),
+                stopwatch.elapsedMillis());
     }
 
-    private void archiveCopiedWorld() throws IOException {
-        archiveFolder(temporaryWorldFolder, temporaryWorldFolder);
+    private void stageWorldInMemory(final StagedWorld staged)
+            throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        staged.capture(LocalFiles.toFile(worldFolder),
+                LocalFiles.toFile(stagingWorldFolder));
+        run.phaseTook(Phase.STAGE, stopwatch.elapsedMillis());
+        run.filesStaged(staged.files().size());
+        log.info(LogMessage.STAGED_WORLD_IN_MEMORY, staged.filesInMemory(),
+                world.getName(), staged.filesSpilled(),
+                stopwatch.elapsedMillis());
+    }
+
+    private void resumeAutoSave() {
+        scheduler.runSynchronousTask(new Runnable() {
+            @Override
+            public void run() {
+                world.setAutoSave(true);
+            }
+        });
+    }
+
+    private void archiveWorld(final FileObject folder) throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        archiveFiles(folder);
+        finishArchive(stopwatch);
+    }
+
+    private void archiveWorld(final StagedWorld staged) throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        for (final StagedFile file : staged.files()) {
+            run.fileArchived(file.length());
+            archive.write(file.name(), file.lastModified(),
+                    file.newInputStreamSupplier());
+        }
+        finishArchive(stopwatch);
+    }
+
+    private void finishArchive(final Stopwatch stopwatch)
+            throws IOException {
+        run.phaseTook(Phase.ARCHIVE, stopwatch.elapsedMillis());
+        final Stopwatch finishStopwatch = new Stopwatch().start();
+        archive.finish();
+        run.phaseTook(Phase.FINISH, finishStopwatch.elapsedMillis());
+        log.info(LogMessage.ARCHIVED_WORLD, world.getName(),
+                stopwatch.elapsedMillis());
+    }
+
+    /**
+     * Files archived straight from the world are first read into memory
+     * whole, so that a file saved while it is read can be read again.
+     * Only a local world can be archived this way.
+     */
+    private void archiveFiles(final FileObject folder) throws IOException {
+        final File localFolder = LocalFiles.toFile(folder);
+        if (localFolder != null) {
+            archiveFolder(localFolder, "");
+            return;
+        }
+        if (archiveDirectly) {
+            throw new IOException(
+                    "Only local worlds can be archived directly.");
+        }
+        archiveFolder(folder, folder);
+    }
+
+    private void archiveFolder(final File folder, final String path)
+            throws IOException {
+        for (final File file : LocalFiles.listFiles(folder)) {
+            final String name = path + file.getName();
+            if (file.isDirectory()) {
+                archiveFolder(file, name + "/");
+            } else if (archiveDirectly) {
+                archiveCapture(name, OptimisticCopy.read(file, throttle));
+            } else {
+                run.fileArchived(file.length());
+                archive.write(name, file.lastModified(),
+                        throttle.throttle(Files.newInputStreamSupplier(file)));
+            }
+        }
     }
 
-    private void deleteCopiedWorld() throws FileSystemException {
-        // TODO: do I really need to call both of these?
-        temporaryWorldFolder.delete(Selectors.SELECT_ALL);
-        temporaryWorldFolder.delete();
+    private void archiveCapture(final String name, final Capture capture)
+            throws IOException {
+        run.fileArchived(capture.contents().remaining());
+        archive.write(name, capture.lastModified(),
+                capture.newInputStreamSupplier());
     }
 
     private void archiveFolder(final FileObject baseFolder,
@@ -128,7 +342,11 @@ class ArchiveWorldTask implements WorldTask {
 
     private void archiveFile(final FileObject baseFolder,
             final FileObject file) throws IOException {
-        archive.write(relativeNameOf(baseFolder, file), file.getContent());
+        final FileContent content = file.getContent();
+        run.fileArchived(content.getSize());
+        archive.write(relativeNameOf(baseFolder, file),
+                content.getLastModifiedTime(),
+                throttle.throttle(new FileContentSupplier(content)));
     }
 
     private String relativeNameOf(final FileObject baseFolder,
@@ -17,83 +17,361 @@
 package org.celeria.minecraft.backup;
 
 import java.io.*;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import javax.annotation.concurrent.Immutable;
-import com.google.inject.Inject;
+import com.google.common.base.Optional;
+import com.google.inject.*;
 import org.apache.commons.vfs2.*;
 import org.bukkit.World;
-import org.celeria.minecraft.backup.ArchiveWorldTask.TemporaryFolder;
-import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.celeria.minecraft.backup.ArchiveWorldTask.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.*;
+import org.celeria.minecraft.backup.ChangeDetector.SkipUnchangedWorlds;
+import org.celeria.minecraft.backup.IncrementalArchive.IncrementalBackups;
+import org.celeria.minecraft.backup.ManifestArchive.VerifyBackups;
+import org.celeria.minecraft.backup.MemoryStaging.StagedWorld;
+import org.celeria.minecraft.backup.ParallelZipArchive.*;
+import org.celeria.minecraft.backup.PipelinedZipArchive.*;
+import org.celeria.minecraft.guice.TaskScheduler;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.cal10n.LocLogger;
 
 @Immutable
 class ArchiveWorldTaskFactory implements WorldTaskFactory {
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String STATE_EXTENSION = ".incremental";
     private final LocLogger log;
-    private final Checksum checksum;
-    private final CompressionLevel compressionLevel;
+    private final TaskScheduler scheduler;
+    private final Provider<Checksum> checksums;
+    private final ArchiveVerifier verifier;
+    private final boolean verifyBackups;
+    private final BackupCatalog catalog;
+    private final BackupQuota quota;
+    private final ChangeDetector changeDetector;
+    private final boolean skipUnchangedWorlds;
+    private final CompressionPolicy compressionPolicy;
+    private final DeflaterPool deflaters;
+    private final BufferPool buffers;
+    private final int compressionThreads;
+    private final ExecutorService compressionExecutor;
+    private final ThreadFactory pipelineThreads;
+    private final long pipelineMemory;
+    private final int incrementalBackups;
+    private final Storage storage;
+    private final BlockRepository repository;
+    private final StagingMirror mirror;
+    private final DirtyRegionTracker tracker;
+    private final boolean archiveDirectly;
+    private final MemoryStaging memory;
+    private final IoThrottle throttle;
+    private final BackupStatistics statistics;
     private final DateTimeFormatter dateTimeFormatter;
     private final FileProvider<FileSystemManager> fileSystemProvider;
-    private final FileProvider<FileObject> temporaryFolderProvider;
+    private final FileProvider<FileObject> stagingFolderProvider;
     private final FileProvider<FileObject> backupFolderProvider;
+    private final FileProvider<FileObject> stateFolderProvider;
 
     @Inject
     ArchiveWorldTaskFactory(
-            final LocLogger log,
-            final Checksum checksum,
-            final CompressionLevel compressionLevel,
+            final LocLogger log, final TaskScheduler scheduler,
+            final Provider<Checksum> checksums,
+            final ArchiveVerifier verifier,
+            @VerifyBackups final boolean verifyBackups,
+            final BackupCatalog catalog, final BackupQuota quota,
+            final ChangeDetector changeDetector,
+            @SkipUnchangedWorlds final boolean skipUnchangedWorlds,
+            final CompressionPolicy compressionPolicy,
+            final DeflaterPool deflaters, final BufferPool buffers,
+            @CompressionThreads final int compressionThreads,
+            @CompressionExecutor final ExecutorService compressionExecutor,
+            @PipelineThreads final ThreadFactory pipelineThreads,
+            @PipelineMemory final long pipelineMemory,
+            @IncrementalBackups final int incrementalBackups,
+            final Storage storage, final BlockRepository repository,
+            final StagingMirror mirror, final DirtyRegionTracker tracker,
+            @ArchiveDirectly final boolean archiveDirectly,
+            final MemoryStaging memory, final IoThrottle throttle,
+            final BackupStatistics statistics,
             final DateTimeFormatter dateFormatter,
             final FileProvider<FileSystemManager> fileSystemProvider,
-            @TemporaryFolder
-            final FileProvider<FileObject> temporaryFolderProvider,
-            @BackupFolder final FileProvider<FileObject> backupFolderProvider) {
+            @StagingFolder final FileProvider<FileObject> stagingFolderProvider,
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            @StateFolder final FileProvider<FileObject> stateFolderProvider) {
         this.log = log;
-        this.checksum = checksum;
-        this.compressionLevel = compressionLevel;
+        this.scheduler = scheduler;
+        this.checksums = checksums;
+        this.verifier = verifier;
+        this.verifyBackups = verifyBackups;
+        this.catalog = catalog;
+        this.quota = quota;
+        this.changeDetector = changeDetector;
+        this.skipUnchangedWorlds = skipUnchangedWorlds;
+        this.compressionPolicy = compressionPolicy;
+        this.deflaters = deflaters;
+        this.buffers = buffers;
+        this.compressionThreads = compressionThreads;
+        this.compressionExecutor = compressionExecutor;
+        this.pipelineThreads = pipelineThreads;
+        this.pipelineMemory = pipelineMemory;
+        this.incrementalBackups = incrementalBackups;
+        this.storage = storage;
+        this.repository = repository;
+        this.mirror = mirror;
+        this.tracker = tracker;
+        this.archiveDirectly = archiveDirectly;
+        this.memory = memory;
+        this.throttle = throttle;
+        this.statistics = statistics;
         this.dateTimeFormatter = dateFormatter;
         this.fileSystemProvider = fileSystemProvider;
-        this.temporaryFolderProvider = temporaryFolderProvider;
+        this.stagingFolderProvider = stagingFolderProvider;
         this.backupFolderProvider = backupFolderProvider;
+        this.stateFolderProvider = stateFolderProvider;
     }
 
     @Override
-    public WorldTask create(final World world) throws IOException {
+    public WorldTask create(final World world) {
+        return new PendingWorldTask(world);
+    }
+
+    /**
+     * Decides what to do with a world only once its task runs, off the
+     * main thread, since fingerprinting the world reads every region file
+     * and creating its archive may evict backups under the quota, load the
+     * catalog or read incremental state. A task that never runs has then
+     * opened and reserved nothing.
+     */
+    @Immutable
+    private final class PendingWorldTask implements WorldTask {
+        private final World world;
+
+        PendingWorldTask(final World world) {
+            this.world = world;
+        }
+
+        @Override
+        public void run() {
+            final WorldTask task;
+            try {
+                task = taskFor(world);
+            } catch (final IOException e) {
+                log.error(ErrorMessage.TASK_FAILED, e);
+                return;
+            }
+            task.run();
+        }
+    }
+
+    private WorldTask taskFor(final World world) throws IOException {
         final String worldName = world.getName();
         final FileSystemManager fileSystem = fileSystemProvider.get();
         final FileObject worldFolder = fileSystem.resolveFile(worldName);
-        return new ArchiveWorldTask(log, worldFolder,
-                temporaryFolderFor(worldName, fileSystem),
-                archiveFor(world, fileSystem), world);
+        final String lastBackup = unchangedSince(worldName, worldFolder);
+        if (lastBackup != null) {
+            return new UnchangedWorldTask(log, worldName, lastBackup,
+                    statistics.forWorld(worldName));
+        }
+        final FileObject stagingFolder =
+                stagingFolderFor(worldName, fileSystem);
+        final Optional<StagedWorld> stagedWorld =
+                stagedWorldFor(worldFolder, stagingFolder);
+        final BackupRun run = new BackupRun();
+        return new ArchiveWorldTask(log, scheduler, worldFolder,
+                stagingFolder, mirror, tracker,
+                archiveFor(world, fingerprintSourceFor(archiveDirectly
+                        ? worldFolder : stagingFolder, stagedWorld),
+                        fileSystem, run), throttle,
+                run, statistics.forWorld(worldName), archiveDirectly,
+                stagedWorld, world);
+    }
+
+    /**
+     * A world is staged in memory only if both it and the staging folder
+     * that takes whatever does not fit are local.
+     */
+    private Optional<StagedWorld> stagedWorldFor(final FileObject worldFolder,
+            final FileObject stagingFolder) throws FileSystemException {
+        if (archiveDirectly || !memory.isEnabled()
+                || LocalFiles.toFile(worldFolder) == null
+                || LocalFiles.toFile(stagingFolder) == null) {
+            return Optional.absent();
+        }
+        return Optional.of(memory.newStagedWorld());
+    }
+
+    /**
+     * Returns what a backup's fingerprint is taken of, or {@code null} if
+     * the folder files are archived from is not local.
+     */
+    private WorldFingerprint.Source fingerprintSourceFor(
+            final FileObject sourceFolder,
+            final Optional<StagedWorld> stagedWorld)
+            throws FileSystemException {
+        if (stagedWorld.isPresent()) {
+            return stagedWorld.get();
+        }
+        final File localFolder = LocalFiles.toFile(sourceFolder);
+        return localFolder == null ? null
+                : WorldFingerprint.sourceOf(localFolder);
     }
 
-    private FileObject temporaryFolderFor(final String worldName,
+    /**
+     * Only zip backups are skipped, since only they are in the catalog that
+     * tells whether the last backup of a world is still around.
+     */
+    private String unchangedSince(final String worldName,
+            final FileObject worldFolder) throws IOException {
+        if (!skipUnchangedWorlds || storage == Storage.REPOSITORY) {
+            return null;
+        }
+        final File localFolder = LocalFiles.toFile(worldFolder);
+        if (localFolder == null || !localFolder.isDirectory()) {
+            return null;
+        }
+        return changeDetector.unchangedSince(worldName, localFolder);
+    }
+
+    private FileObject stagingFolderFor(final String worldName,
             final FileSystemManager fileSystem) throws FileSystemException {
-        return fileSystem.resolveFile(temporaryFolderProvider.get(), worldName);
+        return fileSystem.resolveFile(stagingFolderProvider.get(), worldName);
     }
 
     private Archive archiveFor(final World world,
-            final FileSystemManager fileSystem) throws FileSystemException {
-        return archiveFor(fileFor(world, fileSystem));
+            final WorldFingerprint.Source fingerprintSource,
+            final FileSystemManager fileSystem, final BackupRun run)
+            throws IOException {
+        if (storage == Storage.REPOSITORY) {
+            return new RepositoryArchive(repository, baseNameFor(world));
+        }
+        if (!quota.isEnabled()) {
+            return fingerprintedArchiveFor(world, fingerprintSource,
+                    fileSystem, run);
+        }
+        quota.reserveFor(world.getName());
+        boolean threw = true;
+        try {
+            final Archive archive = new QuotaArchive(
+                    fingerprintedArchiveFor(world, fingerprintSource,
+                            fileSystem, run), quota, world.getName());
+            threw = false;
+            return archive;
+        } finally {
+            if (threw) {
+                quota.release(world.getName());
+            }
+        }
     }
 
-    private Archive archiveFor(final FileObject file)
+    private Archive fingerprintedArchiveFor(final World world,
+            final WorldFingerprint.Source fingerprintSource,
+            final FileSystemManager fileSystem, final BackupRun run)
+            throws IOException {
+        if (!skipUnchangedWorlds || fingerprintSource == null) {
+            return zipBackupFor(world, fileSystem, run);
+        }
+        return new FingerprintArchive(log,
+                zipBackupFor(world, fileSystem, run), changeDetector,
+                world.getName(), fingerprintSource);
+    }
+
+    private Archive zipBackupFor(final World world,
+            final FileSystemManager fileSystem, final BackupRun run)
+            throws IOException {
+        if (incrementalBackups == 0) {
+            return archiveFor(world, fileFor(fileNameFor(world), fileSystem),
+                    run, "");
+        }
+        return incrementalArchiveFor(world, fileSystem, run);
+    }
+
+    private Archive incrementalArchiveFor(final World world,
+            final FileSystemManager fileSystem, final BackupRun run)
+            throws IOException {
+        final FileObject stateFile = fileSystem.resolveFile(
+                stateFolderProvider.get(), world.getName() + STATE_EXTENSION);
+        final IncrementalState state = IncrementalState.readFrom(stateFile);
+        final boolean full = state.isEmpty()
+                || state.chain().size() > incrementalBackups
+                || !isCatalogued(state.chain());
+        final String fileName = unchainedFileNameFor(world, state);
+        final String parent = full ? ""
+                : state.chain().get(state.chain().size() - 1);
+        return new IncrementalArchive(
+                archiveFor(world, fileFor(fileName, fileSystem), run, parent),
+                fileName, state, full, stateFile);
+    }
+
+    /**
+     * A backup of the chain may have been deleted, such as by the quota or
+     * by retention after a rebuilt catalog forgot what depends on what, in
+     * which case the next backup starts a new chain.
+     */
+    private boolean isCatalogued(final List<String> chain)
+            throws IOException {
+        for (final String backup : chain) {
+            if (catalog.backup(backup) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * File names only go down to the hour, so make sure a backup never
+     * overwrites one that it depends on.
+     */
+    private String unchainedFileNameFor(final World world,
+            final IncrementalState state) {
+        final String baseName = baseNameFor(world);
+        String fileName = baseName + ZIP_EXTENSION;
+        for (int counter = 1; state.chain().contains(fileName); ++counter) {
+            fileName = baseName + "-" + counter + ZIP_EXTENSION;
+        }
+        return fileName;
+    }
+
+    /**
+     * The checksum of the archive file is kept in the manifest written
+     * beside it and in the catalog.
+     */
+    private Archive archiveFor(final World world, final FileObject file,
+            final BackupRun run, final String parent)
             throws FileSystemException {
-        final ZipOutputStream stream = zipStreamFor(file);
-        stream.setLevel(compressionLevel.asInteger());
-        return new Archive(stream);
+        final Checksum checksum = checksums.get();
+        final OutputStream output = checkedStreamFor(file, run, checksum);
+        return new ManifestArchive(log, zipArchiveFor(output), file,
+                checksum, verifier, verifyBackups, catalog, world.getName(),
+                parent);
     }
 
-    private FileObject fileFor(final World world,
+    private Archive zipArchiveFor(final OutputStream output) {
+        if (compressionThreads > 1) {
+            return new ParallelZipArchive(compressionExecutor,
+                    new ZipWriter(output), compressionPolicy, deflaters,
+                    buffers, compressionThreads);
+        }
+        if (pipelineMemory > 0) {
+            return new PipelinedZipArchive(pipelineThreads,
+                    new ZipWriter(output), compressionPolicy, deflaters,
+                    buffers, pipelineMemory);
+        }
+        return new ZipArchive(new ZipOutputStream(output), compressionPolicy,
+                buffers);
+    }
+
+    private FileObject fileFor(final String fileName,
             final FileSystemManager fileSystem) throws FileSystemException {
-        return fileSystem.resolveFile(getBackupFolder(), fileNameFor(world));
+        return fileSystem.resolveFile(getBackupFolder(), fileName);
     }
 
-    private ZipOutputStream zipStreamFor(final FileObject archiveFile)
+    private OutputStream checkedStreamFor(final FileObject archiveFile,
+            final BackupRun run, final Checksum checksum)
             throws FileSystemException {
         final OutputStream checkedStream = new CheckedOutputStream(
-                streamFor(archiveFile), checksum);
-        return new ZipOutputStream(new BufferedOutputStream(checkedStream));
+                run.countWritten(streamFor(archiveFile)), checksum);
+        return new BufferedOutputStream(checkedStream);
     }
 
     private FileObject getBackupFolder() throws FileSystemException {
@@ -101,8 +379,11 @@ class ArchiveWorldTaskFactory implements WorldTaskFactory {
     }
 
     private String fileNameFor(final World world) {
-        return world.getName() + "_" + dateTimeFormatter.print(DateTime.now())
-                + ".zip";
+        return baseNameFor(world) + ZIP_EXTENSION;
+    }
+
+    private String baseNameFor(final World world) {
+        return world.getName() + "_" + dateTimeFormatter.print(DateTime.now());
     }
 
     private OutputStream streamFor(final FileObject file)
@@ -25,27 +25,42 @@ import org.slf4j.cal10n.LocLogger;
 
 @Immutable
 class Archivist implements BukkitPlugin {
+    private static final long SCRUB_PERIOD_TICKS = 60 * 20;
     private final LocLogger log;
     private final TaskScheduler scheduler;
+    private final TaskQueue queue;
+    private final BackupStatistics statistics;
     private final PluginCommand pluginCommand;
     private final CommandExecutor manualBackUpExecutor;
     private final Runnable cleanBackupsTask;
+    private final Runnable scrubBackupsTask;
     private final Runnable backUpTask;
+    private final Runnable tickMonitor;
+    private final DirtyRegionListener dirtyRegionListener;
     private final Period backUpPeriod;
 
     @Inject
     Archivist(final LocLogger log, final TaskScheduler scheduler,
+            final TaskQueue queue, final BackupStatistics statistics,
             final PluginCommand pluginCommand,
             final DeleteOldBackupsTask deleteOldBackupsTask,
+            final ScrubBackupsTask scrubBackupsTask,
             final CommandExecutor manualBackUpExecutor,
             final BackUpWorldsTask backUpTask,
+            final TickMonitor tickMonitor,
+            final DirtyRegionListener dirtyRegionListener,
             final Period backUpPeriod) {
         this.log = log;
         this.scheduler = scheduler;
+        this.queue = queue;
+        this.statistics = statistics;
         this.pluginCommand = pluginCommand;
         this.cleanBackupsTask = deleteOldBackupsTask;
+        this.scrubBackupsTask = scrubBackupsTask;
         this.manualBackUpExecutor = manualBackUpExecutor;
         this.backUpTask = backUpTask;
+        this.tickMonitor = tickMonitor;
+        this.dirtyRegionListener = dirtyRegionListener;
         this.backUpPeriod = backUpPeriod;
     }
 
@@ -54,11 +69,13 @@ class Archivist implements BukkitPlugin {
         log.info(LogMessage.PLUGIN_ENABLED);
         resetTasks();
         enableManualBackupCommand();
+        dirtyRegionListener.register();
         scheduleTasks();
     }
 
     private void resetTasks() {
         scheduler.cancelTasks();
+        queue.cancelQueuedTasks();
     }
 
     private void enableManualBackupCommand() {
@@ -67,7 +84,9 @@ class Archivist implements BukkitPlugin {
 
     private void scheduleTasks() {
         scheduleBackUpCleaner();
+        scheduleBackUpScrubber();
         scheduleBackUpTask();
+        scheduleTickMonitor();
     }
 
     // TODO: create generic task (value) object.
@@ -77,14 +96,24 @@ class Archivist implements BukkitPlugin {
                 2 * backUpPeriod.getMillis());
     }
 
+    /** Each run checks one archive, so it is kept short and frequent. */
+    private void scheduleBackUpScrubber() {
+        scheduler.repeatAsynchronousTask(scrubBackupsTask, SCRUB_PERIOD_TICKS);
+    }
+
     private void scheduleBackUpTask() {
         scheduler.repeatSynchronousTask(backUpTask, backUpPeriod.getMillis(),
                 backUpPeriod.getMillis());
     }
 
+    private void scheduleTickMonitor() {
+        scheduler.repeatSynchronousTask(tickMonitor, 1, 1);
+    }
+
     @Override
     public void stop() {
         resetTasks();
+        statistics.unregisterAll();
         log.info(LogMessage.PLUGIN_DISABLED);
     }
 }
@@ -17,22 +17,31 @@
 package org.celeria.minecraft.backup;
 
 import static org.joda.time.DateTimeFieldType.*;
+import java.lang.management.ManagementFactory;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import javax.annotation.concurrent.Immutable;
+import javax.management.MBeanServer;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.*;
 import com.google.inject.throwingproviders.*;
 import org.apache.commons.vfs2.*;
 import org.bukkit.*;
 import org.bukkit.command.*;
 import org.celeria.minecraft.backup.ArchiveWorldTask.TemporaryFolder;
+import org.celeria.minecraft.backup.BackupRestorer.*;
+import org.celeria.minecraft.backup.ParallelZipArchive.*;
+import org.celeria.minecraft.backup.PipelinedZipArchive.PipelineThreads;
 import org.celeria.minecraft.guice.BukkitPlugin;
 import org.joda.time.*;
 import org.joda.time.format.*;
 
 @Immutable
 class ArchivistModule extends AbstractModule {
+    private static final long IDLE_THREAD_SECONDS = 60;
+
     @Override
     protected void configure() {
         bindImplementations();
@@ -42,6 +51,7 @@ class ArchivistModule extends AbstractModule {
 
     private void bindImplementations() {
         bind(BukkitPlugin.class).to(Archivist.class);
+        bind(BlockRepository.class).to(PackFileRepository.class);
         bind(Checksum.class).to(Adler32.class);
         bind(CommandExecutor.class).to(ManualBackUpExecutor.class);
         bind(WorldTaskFactory.class).to(ArchiveWorldTaskFactory.class);
@@ -55,10 +65,15 @@ class ArchivistModule extends AbstractModule {
                 .in(Singleton.class);
         ThrowingProviderBinder.create(binder())
                 .bind(FileProvider.class, FileSystemManager.class)
-                .to(TemporaryFolderProvider.class)
+                .to(FileSystemManagerProvider.class)
                 .in(Singleton.class);
     }
 
+    @Provides @Singleton
+    public MBeanServer provideMBeanServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
     @Provides @Singleton
     public PluginCommand providePluginCommand(final Server server) {
         return server.getPluginCommand("backup");
@@ -72,6 +87,39 @@ class ArchivistModule extends AbstractModule {
         return ISODateTimeFormat.forFields(fields, true, true);
     }
 
+    @Provides @CompressionExecutor @Singleton
+    public ExecutorService provideCompressionExecutor(
+            @CompressionThreads final int threads) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("Archivist compression %d")
+                .setDaemon(true).build();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Provides @RestoreExecutor @Singleton
+    public ExecutorService provideRestoreExecutor(
+            @RestoreThreads final int threads) {
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("Archivist restore %d")
+                .setDaemon(true).build();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Provides @PipelineThreads @Singleton
+    public ThreadFactory providePipelineThreadFactory() {
+        return new ThreadFactoryBuilder()
+                .setNameFormat("Archivist pipeline %d")
+                .setDaemon(true).build();
+    }
+
     @Provides
     public Instant provideCurrentTime() {
         return Instant.now();
@@ -18,12 +18,13 @@ package org.celeria.minecraft.backup;
 
 import static java.lang.annotation.ElementType.*;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
-import java.io.IOException;
+import java.io.*;
 import java.lang.annotation.*;
 import javax.annotation.concurrent.Immutable;
 import com.google.inject.*;
 import org.bukkit.*;
-import org.celeria.minecraft.guice.TaskScheduler;
+import org.celeria.minecraft.guice.TaskQueue;
+import org.celeria.minecraft.guice.TaskQueue.Priority;
 import org.slf4j.cal10n.LocLogger;
 
 @Immutable
@@ -34,28 +35,56 @@ class BackUpWorldsTask implements Runnable {
     public @interface BackUpStartedMessage {}
     @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
     public @interface BackupFolder {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface StateFolder {}
 
     private final LocLogger log;
     private final Server server;
-    private final TaskScheduler scheduler;
+    private final TaskQueue queue;
+    private final StorageDevices devices;
     private final Iterable<World> worlds;
     private final WorldTaskFactory worldTaskFactory;
     private final String backUpEndedMessage;
     private final String backUpStartedMessage;
+    private final Priority priority;
 
     @Inject
     BackUpWorldsTask(final LocLogger log, final Server server,
-            final TaskScheduler scheduler, final Iterable<World> worlds,
+            final TaskQueue queue, final StorageDevices devices,
+            final Iterable<World> worlds,
             final WorldTaskFactory worldTaskFactory,
             @BackUpEndedMessage final String backUpEndedMessage,
             @BackUpStartedMessage final String backUpStartedMessage) {
+        this(log, server, queue, devices, worlds, worldTaskFactory,
+                backUpEndedMessage, backUpStartedMessage, Priority.NORMAL);
+    }
+
+    private BackUpWorldsTask(final LocLogger log, final Server server,
+            final TaskQueue queue, final StorageDevices devices,
+            final Iterable<World> worlds,
+            final WorldTaskFactory worldTaskFactory,
+            final String backUpEndedMessage,
+            final String backUpStartedMessage, final Priority priority) {
         this.log = log;
         this.server = server;
-        this.scheduler = scheduler;
+        this.queue = queue;
+        this.devices = devices;
         this.worlds = worlds;
         this.worldTaskFactory = worldTaskFactory;
         this.backUpEndedMessage = backUpEndedMessage;
         this.backUpStartedMessage = backUpStartedMessage;
+        this.priority = priority;
+    }
+
+    /** Returns a copy of this task whose worlds are queued at a priority. */
+    BackUpWorldsTask withPriority(final Priority newPriority) {
+        return new BackUpWorldsTask(log, server, queue, devices, worlds,
+                worldTaskFactory, backUpEndedMessage, backUpStartedMessage,
+                newPriority);
+    }
+
+    Priority priority() {
+        return priority;
     }
 
     @Override
@@ -82,9 +111,18 @@ class BackUpWorldsTask implements Runnable {
     private void runTaskFor(final World world) {
         log.info(LogMessage.BACKING_UP_WORLD, world.getName());
         try {
-            scheduler.runAsynchronousTask(worldTaskFactory.create(world));
+            queue.submit(worldTaskFactory.create(world), deviceOf(world),
+                    priority);
         } catch (final IOException e) {
             log.error(ErrorMessage.TASK_FAILED, e);
+            return;
         }
+        log.info(LogMessage.QUEUED_WORLD, world.getName(),
+                queue.queuedTasks(), queue.runningTasks());
+    }
+
+    /** Worlds on the same disk are backed up one at a time. */
+    private String deviceOf(final World world) {
+        return devices.deviceOf(new File(world.getName()));
     }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.concurrent.*;
+import com.google.common.base.*;
+import com.google.common.collect.*;
+import com.google.common.io.Closeables;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * An append-only record of every zip backup, kept in the state folder so
+ * that listing backups and deciding which to delete never has to walk the
+ * backup folder. Each line either adds a backup or removes one by name, and
+ * the file is rewritten without the removed backups once they outnumber the
+ * rest. If the catalog is missing or cannot be read, it is rebuilt from the
+ * archives and manifests in the backup folder; a rebuilt backup's time is
+ * its file's modification time and its parent is unknown.
+ */
+@Singleton @ThreadSafe
+class BackupCatalog {
+    static final String FILE_NAME = "catalog";
+    private static final String ZIP_EXTENSION = ".zip";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String ADDED = "+";
+    private static final String REMOVED = "-";
+    private static final String SEPARATOR = "\t";
+    private static final int RADIX = 16;
+    private static final Splitter FIELDS = Splitter.on(SEPARATOR);
+    private static final Joiner JOINER = Joiner.on(SEPARATOR);
+    /** Orders backups oldest first, breaking ties by name. */
+    static final Ordering<Backup> BY_TIME = new Ordering<Backup>() {
+        @Override
+        public int compare(final Backup left, final Backup right) {
+            return left.time < right.time ? -1
+                    : left.time > right.time ? 1
+                    : left.name.compareTo(right.name);
+        }
+    };
+    private final LocLogger log;
+    private final FileProvider<FileObject> backupFolderProvider;
+    private final FileProvider<FileObject> stateFolderProvider;
+    @GuardedBy("this") private Map<String, Backup> backups;
+    @GuardedBy("this") private NavigableSet<Backup> ordered;
+    @GuardedBy("this") private long totalSize;
+    @GuardedBy("this") private int removed;
+    @GuardedBy("this") private int generation;
+    @GuardedBy("this") private int removals;
+
+    @Immutable
+    static final class Backup {
+        private final String name;
+        private final String world;
+        private final long time;
+        private final long size;
+        private final int entries;
+        private final long checksum;
+        private final String parent;
+
+        /**
+         * @param parent the backup this one was made on top of, or an empty
+         *        string if it stands alone
+         */
+        Backup(final String name, final String world, final long time,
+                final long size, final int entries, final long checksum,
+                final String parent) {
+            this.name = name;
+            this.world = world;
+            this.time = time;
+            this.size = size;
+            this.entries = entries;
+            this.checksum = checksum;
+            this.parent = parent;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String world() {
+            return world;
+        }
+
+        long time() {
+            return time;
+        }
+
+        long size() {
+            return size;
+        }
+
+        int entries() {
+            return entries;
+        }
+
+        long checksum() {
+            return checksum;
+        }
+
+        String parent() {
+            return parent;
+        }
+    }
+
+    @Inject
+    BackupCatalog(final LocLogger log,
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            @StateFolder final FileProvider<FileObject> stateFolderProvider) {
+        this.log = log;
+        this.backupFolderProvider = backupFolderProvider;
+        this.stateFolderProvider = stateFolderProvider;
+    }
+
+    /** Returns every backup, oldest first. */
+    synchronized List<Backup> backups() throws IOException {
+        loaded();
+        return ImmutableList.copyOf(ordered);
+    }
+
+    /**
+     * Returns the backups that come after the given one, oldest first, or
+     * every backup if it is {@code null}. Backups are added newest last, so
+     * this is how a caller that has seen the catalog before finds out what
+     * is new in it without going through all of it again.
+     */
+    synchronized List<Backup> backupsAfter(final Backup backup)
+            throws IOException {
+        loaded();
+        if (backup == null) {
+            return ImmutableList.copyOf(ordered);
+        }
+        return ImmutableList.copyOf(ordered.tailSet(backup, false));
+    }
+
+    /**
+     * Returns a number that changes whenever the catalog is rebuilt, after
+     * which backups may have turned up out of order.
+     */
+    synchronized int generation() throws IOException {
+        loaded();
+        return generation;
+    }
+
+    /**
+     * Returns a number that changes whenever a backup is removed, so that a
+     * caller remembering backups can tell when it must look for ones that
+     * are gone.
+     */
+    synchronized int removals() throws IOException {
+        loaded();
+        return removals;
+    }
+
+    /** Returns every backup of the given world, oldest first. */
+    synchronized List<Backup> backupsOf(final String world)
+            throws IOException {
+        final List<Backup> worldBackups = Lists.newArrayList();
+        for (final Backup backup : loaded().values()) {
+            if (backup.world.equals(world)) {
+                worldBackups.add(backup);
+            }
+        }
+        return BY_TIME.sortedCopy(worldBackups);
+    }
+
+    /** Returns the combined size of every backup's archive. */
+    synchronized long totalSize() throws IOException {
+        loaded();
+        return totalSize;
+    }
+
+    /** Returns {@code null} if there is no such backup. */
+    synchronized Backup backup(final String name) throws IOException {
+        return loaded().get(name);
+    }
+
+    synchronized void add(final Backup backup) throws IOException {
+        loaded();
+        append(ADDED + SEPARATOR + format(backup));
+        final Backup replaced = backups.put(backup.name, backup);
+        if (replaced != null) {
+            ordered.remove(replaced);
+            totalSize -= replaced.size;
+        }
+        ordered.add(backup);
+        totalSize += backup.size;
+    }
+
+    synchronized void remove(final String name) throws IOException {
+        if (!loaded().containsKey(name)) {
+            return;
+        }
+        append(REMOVED + SEPARATOR + name);
+        final Backup backup = backups.remove(name);
+        ordered.remove(backup);
+        totalSize -= backup.size;
+        ++removed;
+        ++removals;
+        if (removed > backups.size()) {
+            rewrite();
+        }
+    }
+
+    /** Forgets the catalog and builds it again from the backup folder. */
+    synchronized void rebuild() throws IOException {
+        final Map<String, Backup> found = Maps.newHashMap();
+        for (final FileObject file : backupFolderProvider.get().getChildren()) {
+            final String name = file.getName().getBaseName();
+            if (name.endsWith(ZIP_EXTENSION)
+                    && FileType.FILE.equals(file.getType())) {
+                found.put(name, backupFrom(file, name));
+            }
+        }
+        index(found);
+        ++generation;
+        rewrite();
+        log.info(LogMessage.REBUILT_CATALOG, found.size());
+    }
+
+    private static Backup backupFrom(final FileObject file, final String name)
+            throws IOException {
+        final String world = name.substring(0,
+                Math.max(0, name.lastIndexOf('_')));
+        final long time = file.getContent().getLastModifiedTime();
+        final FileObject manifestFile = IntegrityManifest.fileFor(file);
+        if (manifestFile.exists()) {
+            try {
+                final IntegrityManifest manifest =
+                        IntegrityManifest.readFrom(manifestFile);
+                return new Backup(name, world, time, manifest.archiveSize(),
+                        manifest.entries().size(),
+                        manifest.archiveChecksum(), "");
+            } catch (final ArchiveException e) {
+                // Fall through; the scrubber will report the manifest.
+            }
+        }
+        return new Backup(name, world, time, file.getContent().getSize(), 0,
+                0, "");
+    }
+
+    private Map<String, Backup> loaded() throws IOException {
+        if (backups != null) {
+            return backups;
+        }
+        final FileObject file = catalogFile();
+        if (!file.exists()) {
+            rebuild();
+            return backups;
+        }
+        try {
+            read(file);
+        } catch (final ArchiveException e) {
+            rebuild();
+        }
+        return backups;
+    }
+
+    private void read(final FileObject file) throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(file.getContent().getInputStream(),
+                        Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            read(reader);
+            threw = false;
+        } finally {
+            Closeables.close(reader, threw);
+        }
+    }
+
+    private void read(final BufferedReader reader) throws IOException {
+        final Map<String, Backup> read = Maps.newHashMap();
+        int readRemoved = 0;
+        try {
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                final List<String> fields =
+                        Lists.newArrayList(FIELDS.split(line));
+                if (fields.get(0).equals(ADDED)) {
+                    final Backup backup = parse(fields);
+                    read.put(backup.name, backup);
+                } else if (fields.get(0).equals(REMOVED)) {
+                    read.remove(fields.get(1));
+                    ++readRemoved;
+                } else {
+                    throw new ArchiveException("Malformed catalog.");
+                }
+            }
+        } catch (final RuntimeException e) {
+            throw new ArchiveException("Malformed catalog.", e);
+        }
+        index(read);
+        removed = readRemoved;
+    }
+
+    private void index(final Map<String, Backup> found) {
+        backups = found;
+        ordered = Sets.newTreeSet(BY_TIME);
+        ordered.addAll(found.values());
+        totalSize = 0;
+        for (final Backup backup : found.values()) {
+            totalSize += backup.size;
+        }
+    }
+
+    private static Backup parse(final List<String> fields) {
+        return new Backup(fields.get(1), fields.get(2),
+                Long.parseLong(fields.get(3)), Long.parseLong(fields.get(4)),
+                Integer.parseInt(fields.get(5)),
+                Long.parseLong(fields.get(6), RADIX), fields.get(7));
+    }
+
+    private static String format(final Backup backup) {
+        return JOINER.join(backup.name, backup.world, backup.time,
+                backup.size, backup.entries,
+                Long.toString(backup.checksum, RADIX), backup.parent);
+    }
+
+    private void append(final String line) throws IOException {
+        final Writer writer = new OutputStreamWriter(
+                catalogFile().getContent().getOutputStream(true),
+                Charsets.UTF_8);
+        boolean threw = true;
+        try {
+            writer.write(line + "\n");
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+    }
+
+    /** Replaces the file only once the new catalog has been fully written. */
+    private void rewrite() throws IOException {
+        final FileObject file = catalogFile();
+        final FileObject temporaryFile = file.getParent().resolveFile(
+                FILE_NAME + TEMPORARY_SUFFIX);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                temporaryFile.getContent().getOutputStream(),
+                Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            for (final Backup backup : ordered) {
+                writer.write(ADDED + SEPARATOR + format(backup) + "\n");
+            }
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+        file.delete();
+        temporaryFile.moveTo(file);
+        removed = 0;
+    }
+
+    private FileObject catalogFile() throws FileSystemException {
+        return stateFolderProvider.get().resolveFile(FILE_NAME);
+    }
+}
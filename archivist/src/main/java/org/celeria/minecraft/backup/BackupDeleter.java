@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.IOException;
+import javax.annotation.concurrent.Immutable;
+import com.google.inject.Inject;
+import org.apache.commons.vfs2.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.slf4j.cal10n.LocLogger;
+
+/** Deletes a backup's archive and manifest and drops it from the catalog. */
+@Immutable
+class BackupDeleter {
+    private final LocLogger log;
+    private final FileProvider<FileObject> backupFolderProvider;
+    private final BackupCatalog catalog;
+
+    @Inject
+    BackupDeleter(final LocLogger log,
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            final BackupCatalog catalog) {
+        this.log = log;
+        this.backupFolderProvider = backupFolderProvider;
+        this.catalog = catalog;
+    }
+
+    void delete(final Backup backup) throws IOException {
+        final FileObject backupFolder = backupFolderProvider.get();
+        final FileObject file = backupFolder.resolveFile(backup.name());
+        file.delete();
+        backupFolder.resolveFile(backup.name() + IntegrityManifest.EXTENSION)
+                .delete();
+        catalog.remove(backup.name());
+        log.info(LogMessage.DELETED_BACKUP, file);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.io.FileNotFoundException;
+import java.util.zip.ZipEntry;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.provider.*;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
+import org.celeria.minecraft.backup.ArchiveDirectoryCache.ArchiveDirectory;
+
+/**
+ * A file or folder on disk, a zip archive shown as a folder, or an entry
+ * inside one.
+ */
+@NotThreadSafe
+class BackupFileObject extends AbstractFileObject {
+    private static final String ARCHIVE_SUFFIX = ".zip";
+    private final ArchiveDirectoryCache cache;
+    private File file;
+    /** The path within {@link #file}, or {@code null} if it is not a zip. */
+    private String entryPath;
+
+    BackupFileObject(final AbstractFileName name,
+            final AbstractFileSystem fileSystem,
+            final ArchiveDirectoryCache cache) {
+        super(name, fileSystem);
+        this.cache = cache;
+    }
+
+    /**
+     * Walks the path from the root until it reaches an archive; whatever is
+     * left of it names an entry in that archive.
+     */
+    @Override
+    protected void doAttach() throws FileSystemException {
+        final String root = ((LocalFileName) getName()).getRootFile();
+        final String path = getName().getPathDecoded();
+        int end = path.indexOf('/', 1);
+        while (end >= 0) {
+            if (isArchive(root + path.substring(0, end))) {
+                file = new File(root + path.substring(0, end));
+                entryPath = path.substring(end + 1);
+                return;
+            }
+            end = path.indexOf('/', end + 1);
+        }
+        file = new File(root + path);
+        entryPath = isArchive(file.getPath()) ? "" : null;
+    }
+
+    private static boolean isArchive(final String path) {
+        return path.endsWith(ARCHIVE_SUFFIX) && new File(path).isFile();
+    }
+
+    @Override
+    protected void doDetach() {
+        file = null;
+        entryPath = null;
+    }
+
+    @Override
+    protected FileType doGetType() throws IOException {
+        if (entryPath != null) {
+            final ArchiveDirectory directory = directory();
+            if (directory.isFolder(entryPath)) {
+                return FileType.FOLDER;
+            }
+            return directory.entry(entryPath) == null
+                    ? FileType.IMAGINARY : FileType.FILE;
+        }
+        if (file.isDirectory()) {
+            return FileType.FOLDER;
+        }
+        return file.isFile() ? FileType.FILE : FileType.IMAGINARY;
+    }
+
+    @Override
+    protected String[] doListChildren() throws IOException {
+        if (entryPath != null) {
+            return UriParser.encode(directory().childrenOf(entryPath));
+        }
+        final String[] names = file.list();
+        if (names == null) {
+            throw new IOException("Could not list " + file + ".");
+        }
+        return UriParser.encode(names);
+    }
+
+    @Override
+    protected long doGetContentSize() throws IOException {
+        if (entryPath != null) {
+            return entry().getSize();
+        }
+        return file.length();
+    }
+
+    @Override
+    protected long doGetLastModifiedTime() throws IOException {
+        if (entryPath != null) {
+            final ZipEntry entry = directory().entry(entryPath);
+            return entry == null ? directory().lastModified() : entry.getTime();
+        }
+        return file.lastModified();
+    }
+
+    @Override
+    protected InputStream doGetInputStream() throws IOException {
+        if (entryPath != null) {
+            return directory().open(entry());
+        }
+        return new FileInputStream(file);
+    }
+
+    @Override
+    protected boolean doIsWriteable() {
+        return false;
+    }
+
+    private ArchiveDirectory directory() throws IOException {
+        return cache.directoryOf(file);
+    }
+
+    private ZipEntry entry() throws IOException {
+        final ZipEntry entry = directory().entry(entryPath);
+        if (entry == null) {
+            throw new FileNotFoundException(getName().getURI());
+        }
+        return entry;
+    }
+}
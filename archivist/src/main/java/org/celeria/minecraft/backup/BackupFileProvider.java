@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.Collection;
+import javax.annotation.concurrent.ThreadSafe;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.provider.*;
+import org.apache.commons.vfs2.provider.local.*;
+import org.apache.commons.vfs2.util.Os;
+
+/**
+ * Mounts a local folder of backups read-only, with every zip archive in it
+ * appearing as a folder of its entries. For instance,
+ * {@code backup:///srv/backups/world_20111028T120000.zip/level.dat} reads a
+ * single file out of one backup.
+ */
+@ThreadSafe
+class BackupFileProvider extends AbstractOriginatingFileProvider {
+    static final String SCHEME = "backup";
+    private static final int CACHED_ARCHIVES = 16;
+    private static final Collection<Capability> CAPABILITIES =
+            ImmutableList.of(Capability.GET_TYPE, Capability.READ_CONTENT,
+                    Capability.LIST_CHILDREN, Capability.GET_LAST_MODIFIED,
+                    Capability.URI);
+    private final ArchiveDirectoryCache cache;
+
+    BackupFileProvider() {
+        this(new ArchiveDirectoryCache(CACHED_ARCHIVES));
+    }
+
+    BackupFileProvider(final ArchiveDirectoryCache cache) {
+        this.cache = cache;
+        setFileNameParser(Os.isFamily(Os.OS_FAMILY_WINDOWS)
+                ? new WindowsFileNameParser()
+                : new GenericFileNameParser());
+    }
+
+    @Override
+    protected FileSystem doCreateFileSystem(final FileName rootName,
+            final FileSystemOptions options) {
+        return new BackupFileSystem(rootName, options, cache);
+    }
+
+    @Override
+    public Collection<Capability> getCapabilities() {
+        return CAPABILITIES;
+    }
+
+    @ThreadSafe
+    private static final class BackupFileSystem extends AbstractFileSystem {
+        private final ArchiveDirectoryCache cache;
+
+        BackupFileSystem(final FileName rootName,
+                final FileSystemOptions options,
+                final ArchiveDirectoryCache cache) {
+            super(rootName, null, options);
+            this.cache = cache;
+        }
+
+        @Override
+        protected FileObject createFile(final AbstractFileName name) {
+            return new BackupFileObject(name, this, cache);
+        }
+
+        @Override
+        protected void addCapabilities(final Collection<Capability> caps) {
+            caps.addAll(CAPABILITIES);
+        }
+    }
+}
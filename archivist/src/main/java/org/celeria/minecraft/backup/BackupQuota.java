@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.IOException;
+import java.lang.annotation.*;
+import java.util.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.*;
+import com.google.inject.*;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.joda.time.Instant;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Keeps the backups in the catalog within a byte budget by evicting old
+ * backups before a new one is written, rather than letting a backup run out
+ * of room halfway through. How much room a world needs is forecast from the
+ * sizes of its recent backups, allowing for them to keep growing as fast as
+ * they have lately; that room stays reserved until the new backup is done.
+ * A world's newest backup and any backup that another depends on are never
+ * evicted.
+ */
+@Singleton @ThreadSafe
+class BackupQuota {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface QuotaBytes {}
+
+    enum Eviction {
+        /** Evicts the oldest backups first. */
+        OLDEST,
+        /**
+         * Evicts first the backup whose loss leaves the smallest gap in its
+         * world's history for its age, thinning old history more than new.
+         */
+        LEAST_VALUABLE
+    }
+
+    private static final int RECENT_BACKUPS = 8;
+    private final LocLogger log;
+    private final BackupCatalog catalog;
+    private final BackupDeleter deleter;
+    private final Provider<Instant> currentTime;
+    private final long quota;
+    private final Eviction eviction;
+    @GuardedBy("this") private final Map<String, Long> reserved =
+            Maps.newHashMap();
+
+    @Inject
+    BackupQuota(final LocLogger log, final BackupCatalog catalog,
+            final BackupDeleter deleter, final Provider<Instant> currentTime,
+            @QuotaBytes final long quota, final Eviction eviction) {
+        this.log = log;
+        this.catalog = catalog;
+        this.deleter = deleter;
+        this.currentTime = currentTime;
+        this.quota = quota;
+        this.eviction = eviction;
+    }
+
+    boolean isEnabled() {
+        return quota > 0;
+    }
+
+    /**
+     * Evicts backups until the forecast size of the world's next backup
+     * fits, and reserves that much room for it until {@link #release} is
+     * called with the same world.
+     *
+     * @throws ArchiveException if not enough backups can be evicted
+     */
+    synchronized void reserveFor(final String world) throws IOException {
+        final long forecast = forecastFor(catalog.backupsOf(world));
+        long excess = catalog.totalSize() + totalReserved() + forecast
+                - quota;
+        while (excess > 0) {
+            final Backup victim = victimAmong(catalog.backups());
+            if (victim == null) {
+                throw new ArchiveException("Backup of " + world
+                        + " would exceed the quota of " + quota + " bytes.");
+            }
+            deleter.delete(victim);
+            log.info(LogMessage.EVICTED_BACKUP, victim.name(), quota);
+            excess -= victim.size();
+        }
+        reserved.put(world, forecast);
+    }
+
+    synchronized void release(final String world) {
+        reserved.remove(world);
+    }
+
+    private long totalReserved() {
+        long total = 0;
+        for (final long bytes : reserved.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Forecasts the largest recent backup grown by the largest recent
+     * growth from one backup to the next.
+     */
+    static long forecastFor(final List<Backup> backups) {
+        final List<Backup> recent = backups.subList(
+                Math.max(0, backups.size() - RECENT_BACKUPS), backups.size());
+        long largest = 0;
+        long growth = 0;
+        long previous = -1;
+        for (final Backup backup : recent) {
+            largest = Math.max(largest, backup.size());
+            if (previous >= 0) {
+                growth = Math.max(growth, backup.size() - previous);
+            }
+            previous = backup.size();
+        }
+        return largest + growth;
+    }
+
+    /** Returns {@code null} if no backup can be evicted. */
+    private Backup victimAmong(final List<Backup> backups) {
+        final Set<String> parents = Sets.newHashSet();
+        final ListMultimap<String, Backup> byWorld =
+                ArrayListMultimap.create();
+        for (final Backup backup : backups) {
+            parents.add(backup.parent());
+            byWorld.put(backup.world(), backup);
+        }
+        final long now = currentTime.get().getMillis();
+        Backup victim = null;
+        double victimValue = Double.MAX_VALUE;
+        for (final String world : byWorld.keySet()) {
+            final List<Backup> history = byWorld.get(world);
+            for (int i = 0; i < history.size() - 1; ++i) {
+                final Backup backup = history.get(i);
+                if (parents.contains(backup.name())) {
+                    continue;
+                }
+                final double value = eviction == Eviction.OLDEST
+                        ? backup.time()
+                        : valueOf(history, i, now);
+                if (value < victimValue) {
+                    victim = backup;
+                    victimValue = value;
+                }
+            }
+        }
+        return victim;
+    }
+
+    private static double valueOf(final List<Backup> history, final int i,
+            final long now) {
+        final Backup backup = history.get(i);
+        final long start = i == 0 ? backup.time() : history.get(i - 1).time();
+        final long age = Math.max(1, now - backup.time());
+        return (double) (history.get(i + 1).time() - start) / age;
+    }
+}
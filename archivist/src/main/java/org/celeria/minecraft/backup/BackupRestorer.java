@@ -0,0 +1,386 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.base.Throwables;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+
+/**
+ * Extracts a zip backup into a folder, restoring its files in parallel.
+ * An incremental backup is restored along with the chain it was made on
+ * top of: each region file is rebuilt from its last full copy in the chain
+ * and the chunks that changed in each later backup, leaving out anything
+ * from before a backup that records the region file as removed. Only the
+ * entries that the selection covers are read, so restoring a few regions
+ * of a large backup takes little longer than restoring a small one. Region
+ * files that are only partly selected are merged into any that already
+ * exist in the target folder. An entry whose name leads outside the target
+ * folder is refused.
+ */
+@Immutable
+class BackupRestorer {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface RestoreExecutor {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface RestoreThreads {}
+
+    private final FileProvider<FileObject> backupFolderProvider;
+    private final BackupCatalog catalog;
+    private final ExecutorService executor;
+
+    @Inject
+    BackupRestorer(
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            final BackupCatalog catalog,
+            @RestoreExecutor final ExecutorService executor) {
+        this.backupFolderProvider = backupFolderProvider;
+        this.catalog = catalog;
+        this.executor = executor;
+    }
+
+    /** Returns the number of files that were written. */
+    int restore(final String backupName, final File target,
+            final ChunkSelection selection) throws IOException {
+        final List<ZipFile> chain = chainOf(backupName);
+        try {
+            return await(submitRestores(chain, removalsOf(chain), target,
+                    selection));
+        } finally {
+            close(chain);
+        }
+    }
+
+    /** Returns the archives of a backup's chain, the oldest first. */
+    private List<ZipFile> chainOf(final String backupName)
+            throws IOException {
+        final LinkedList<ZipFile> chain = Lists.newLinkedList();
+        final Set<String> seen = Sets.newHashSet();
+        boolean threw = true;
+        try {
+            for (String name = backupName; !name.isEmpty();) {
+                if (!seen.add(name)) {
+                    throw new ArchiveException("Chain of backup " + backupName
+                            + " loops.");
+                }
+                final Backup backup = catalog.backup(name);
+                if (backup == null) {
+                    throw new ArchiveException("There is no backup named "
+                            + name + ".");
+                }
+                final ZipFile archive = open(name);
+                chain.addFirst(archive);
+                name = parentOf(backup, archive);
+            }
+            threw = false;
+            return chain;
+        } finally {
+            if (threw) {
+                close(chain);
+            }
+        }
+    }
+
+    private ZipFile open(final String name) throws IOException {
+        final File file = LocalFiles.toFile(
+                backupFolderProvider.get().resolveFile(name));
+        if (file == null) {
+            throw new ArchiveException(
+                    "Backups can only be restored from a local folder.");
+        }
+        return new ZipFile(file);
+    }
+
+    /**
+     * A rebuilt catalog does not know a backup's parent, so fall back on
+     * the manifest that an incremental backup carries.
+     */
+    private static String parentOf(final Backup backup, final ZipFile archive)
+            throws IOException {
+        if (!backup.parent().isEmpty()) {
+            return backup.parent();
+        }
+        return manifestOf(archive).getProperty("parent", "");
+    }
+
+    private static Properties manifestOf(final ZipFile archive)
+            throws IOException {
+        final Properties manifest = new Properties();
+        final ZipEntry entry =
+                archive.getEntry(IncrementalArchive.MANIFEST_NAME);
+        if (entry == null) {
+            return manifest;
+        }
+        final InputStream input = archive.getInputStream(entry);
+        try {
+            manifest.load(input);
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+        return manifest;
+    }
+
+    /** Returns the region files each backup of a chain records as removed. */
+    private static List<Set<String>> removalsOf(final List<ZipFile> chain)
+            throws IOException {
+        final List<Set<String>> removals = Lists.newArrayList();
+        for (final ZipFile archive : chain) {
+            removals.add(ImmutableSet.copyOf(
+                    IncrementalArchive.REMOVED_SPLITTER.split(
+                            manifestOf(archive).getProperty("removed", ""))));
+        }
+        return removals;
+    }
+
+    private List<Future<?>> submitRestores(final List<ZipFile> chain,
+            final List<Set<String>> removals, final File target,
+            final ChunkSelection selection) {
+        final ZipFile newest = chain.get(chain.size() - 1);
+        final List<Future<?>> restores = Lists.newArrayList();
+        for (final Enumeration<? extends ZipEntry> entries = newest.entries();
+                entries.hasMoreElements();) {
+            final ZipEntry entry = entries.nextElement();
+            final String name = entry.getName();
+            final String region = regionNameOf(name);
+            if (entry.isDirectory()
+                    || name.equals(IncrementalArchive.MANIFEST_NAME)) {
+                continue;
+            }
+            if (RegionFile.isRegionFile(region)) {
+                if (selection.includesRegion(region)) {
+                    restores.add(executor.submit(new RegionRestore(chain,
+                            removals, region, entry.getTime(), target,
+                            selection)));
+                }
+            } else if (selection.includesOtherFiles()) {
+                restores.add(executor.submit(
+                        new FileRestore(newest, entry, target)));
+            }
+        }
+        return restores;
+    }
+
+    private static String regionNameOf(final String name) {
+        if (name.endsWith(IncrementalArchive.CHUNKS_SUFFIX)) {
+            return name.substring(0, name.length()
+                    - IncrementalArchive.CHUNKS_SUFFIX.length());
+        }
+        return name;
+    }
+
+    private static int await(final List<Future<?>> restores)
+            throws IOException {
+        try {
+            for (final Future<?> restore : restores) {
+                Uninterruptibles.getUninterruptibly(restore);
+            }
+            return restores.size();
+        } catch (final ExecutionException e) {
+            for (final Future<?> restore : restores) {
+                restore.cancel(false);
+            }
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static void close(final List<ZipFile> chain) {
+        for (final ZipFile archive : chain) {
+            try {
+                archive.close();
+            } catch (final IOException e) {
+                // Nothing was written to it.
+            }
+        }
+    }
+
+    private static File fileFor(final File target, final String name)
+            throws IOException {
+        final File file = new File(target, name);
+        if (!LocalFiles.isWithin(file, target)) {
+            throw new ArchiveException("Entry " + name
+                    + " lies outside the folder being restored into.");
+        }
+        LocalFiles.createFolder(file.getParentFile());
+        return file;
+    }
+
+    private static void write(final File file, final long time,
+            final InputSupplier<? extends InputStream> contents)
+            throws IOException {
+        Files.copy(contents, file);
+        file.setLastModified(time);
+    }
+
+    private static InputSupplier<InputStream> entryOf(final ZipFile archive,
+            final ZipEntry entry) {
+        return new InputSupplier<InputStream>() {
+            @Override
+            public InputStream getInput() throws IOException {
+                return archive.getInputStream(entry);
+            }
+        };
+    }
+
+    private static final class FileRestore implements Callable<Void> {
+        private final ZipFile archive;
+        private final ZipEntry entry;
+        private final File target;
+
+        FileRestore(final ZipFile archive, final ZipEntry entry,
+                final File target) {
+            this.archive = archive;
+            this.entry = entry;
+            this.target = target;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            write(fileFor(target, entry.getName()), entry.getTime(),
+                    entryOf(archive, entry));
+            return null;
+        }
+    }
+
+    private static final class RegionRestore implements Callable<Void> {
+        private final List<ZipFile> chain;
+        private final List<Set<String>> removals;
+        private final String region;
+        private final long time;
+        private final File target;
+        private final ChunkSelection selection;
+        private final int[] timestamps = new int[RegionFile.CHUNKS];
+        private final byte[][] records = new byte[RegionFile.CHUNKS][];
+
+        RegionRestore(final List<ZipFile> chain,
+                final List<Set<String>> removals, final String region,
+                final long time, final File target,
+                final ChunkSelection selection) {
+            this.chain = chain;
+            this.removals = removals;
+            this.region = region;
+            this.time = time;
+            this.target = target;
+            this.selection = selection;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            final int base = lastFullCopy();
+            final File file = fileFor(target, region);
+            final ZipFile archive = chain.get(base);
+            final ZipEntry fullCopy = archive.getEntry(region);
+            final boolean whole = selection.includesWholeRegion(region);
+            if (base == chain.size() - 1 && whole && fullCopy != null) {
+                write(file, time, entryOf(archive, fullCopy));
+                return null;
+            }
+            if (fullCopy != null) {
+                load(RegionFile.of(ByteStreams.toByteArray(
+                        entryOf(archive, fullCopy))), true);
+            }
+            for (final ZipFile later : chain.subList(base + 1, chain.size())) {
+                final ZipEntry changes = later.getEntry(
+                        region + IncrementalArchive.CHUNKS_SUFFIX);
+                if (changes != null) {
+                    applyChanges(entryOf(later, changes));
+                }
+            }
+            if (!whole) {
+                keepUnselectedChunksOf(file);
+            }
+            write(file, time, ByteStreams.newInputStreamSupplier(
+                    RegionFile.assemble(timestamps, records)));
+            return null;
+        }
+
+        /**
+         * Returns the backup the region file is rebuilt on top of: either
+         * the last to hold all of it or the last to record it as removed,
+         * in which case it is rebuilt from nothing.
+         */
+        private int lastFullCopy() throws ArchiveException {
+            for (int i = chain.size() - 1; i >= 0; --i) {
+                if (chain.get(i).getEntry(region) != null
+                        || removals.get(i).contains(region)) {
+                    return i;
+                }
+            }
+            throw new ArchiveException("No backup in the chain holds all of "
+                    + region + ".");
+        }
+
+        private void load(final RegionFile regionFile, final boolean selected)
+                throws IOException {
+            final int[] loaded = regionFile.getTimestamps();
+            for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+                if (selection.includesChunk(region, i) == selected) {
+                    timestamps[i] = loaded[i];
+                    records[i] = regionFile.readChunk(i);
+                }
+            }
+        }
+
+        /** Reads the changed chunks written by {@link IncrementalArchive}. */
+        private void applyChanges(
+                final InputSupplier<? extends InputStream> changes)
+                throws IOException {
+            final DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(changes.getInput()));
+            try {
+                for (int count = input.readInt(); count > 0; --count) {
+                    final int index = input.readShort();
+                    final int timestamp = input.readInt();
+                    final byte[] record = new byte[input.readInt()];
+                    input.readFully(record);
+                    timestamps[index] = timestamp;
+                    records[index] = record;
+                }
+            } finally {
+                Closeables.closeQuietly(input);
+            }
+        }
+
+        private void keepUnselectedChunksOf(final File file)
+                throws IOException {
+            if (file.exists()) {
+                load(RegionFile.of(Files.toByteArray(file)), false);
+            } else {
+                for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+                    if (!selection.includesChunk(region, i)) {
+                        timestamps[i] = 0;
+                        records[i] = null;
+                    }
+                }
+            }
+        }
+    }
+}
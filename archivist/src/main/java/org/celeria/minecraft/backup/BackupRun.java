@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.Maps;
+
+/** Collects the measurements of a single backup of a world as it runs. */
+@ThreadSafe
+class BackupRun {
+    enum Phase {
+        SAVE,
+        STAGE,
+        ARCHIVE,
+        FINISH
+    }
+
+    private final long startTime = System.currentTimeMillis();
+    private final Map<Phase, Long> millis =
+            Collections.synchronizedMap(Maps.<Phase, Long>newEnumMap(
+                    Phase.class));
+    private final AtomicInteger filesStaged = new AtomicInteger();
+    private final AtomicInteger filesArchived = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    void phaseTook(final Phase phase, final long phaseMillis) {
+        millis.put(phase, phaseMillis);
+    }
+
+    void filesStaged(final int files) {
+        filesStaged.addAndGet(files);
+    }
+
+    void fileArchived(final long size) {
+        filesArchived.incrementAndGet();
+        bytesRead.addAndGet(size);
+    }
+
+    /** Counts the bytes written to a backup through the given stream. */
+    OutputStream countWritten(final OutputStream stream) {
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                bytesWritten.incrementAndGet();
+            }
+
+            @Override
+            public void write(final byte[] buffer, final int offset,
+                    final int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesWritten.addAndGet(length);
+            }
+        };
+    }
+
+    long startTime() {
+        return startTime;
+    }
+
+    /** Returns zero for a phase that was not reached. */
+    long millisOf(final Phase phase) {
+        final Long phaseMillis = millis.get(phase);
+        return phaseMillis == null ? 0 : phaseMillis;
+    }
+
+    long totalMillis() {
+        long total = 0;
+        for (final Phase phase : Phase.values()) {
+            total += millisOf(phase);
+        }
+        return total;
+    }
+
+    int filesStaged() {
+        return filesStaged.get();
+    }
+
+    int filesArchived() {
+        return filesArchived.get();
+    }
+
+    long bytesRead() {
+        return bytesRead.get();
+    }
+
+    long bytesWritten() {
+        return bytesWritten.get();
+    }
+}
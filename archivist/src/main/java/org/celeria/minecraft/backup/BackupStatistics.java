@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.*;
+import com.google.common.collect.Maps;
+import com.google.inject.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Publishes the statistics of each world's backups, and of deleting old
+ * backups, as MBeans under the {@code org.celeria.minecraft.backup} domain.
+ */
+@Singleton @ThreadSafe
+class BackupStatistics {
+    private static final String DOMAIN = "org.celeria.minecraft.backup";
+    private final LocLogger log;
+    private final MBeanServer server;
+    private final ConcurrentMap<String, WorldStatistics> worlds =
+            Maps.newConcurrentMap();
+    private final RetentionStatistics retention = new RetentionStatistics();
+    private volatile boolean retentionRegistered;
+
+    @Inject
+    BackupStatistics(final LocLogger log, final MBeanServer server) {
+        this.log = log;
+        this.server = server;
+    }
+
+    WorldStatistics forWorld(final String world) {
+        final WorldStatistics statistics = worlds.get(world);
+        if (statistics != null) {
+            return statistics;
+        }
+        final WorldStatistics newStatistics = new WorldStatistics();
+        final WorldStatistics existing =
+                worlds.putIfAbsent(world, newStatistics);
+        if (existing != null) {
+            return existing;
+        }
+        register(newStatistics, nameFor("World", world));
+        return newStatistics;
+    }
+
+    synchronized RetentionStatistics retention() {
+        if (!retentionRegistered) {
+            register(retention, nameFor("Retention", "Retention"));
+            retentionRegistered = true;
+        }
+        return retention;
+    }
+
+    /** Removes every MBean this plugin has published. */
+    synchronized void unregisterAll() {
+        for (final String world : worlds.keySet()) {
+            unregister(nameFor("World", world));
+        }
+        worlds.clear();
+        if (retentionRegistered) {
+            unregister(nameFor("Retention", "Retention"));
+            retentionRegistered = false;
+        }
+    }
+
+    private static ObjectName nameFor(final String type, final String name) {
+        final Hashtable<String, String> properties =
+                new Hashtable<String, String>();
+        properties.put("type", type);
+        properties.put("name", ObjectName.quote(name));
+        try {
+            return new ObjectName(DOMAIN, properties);
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Replaces any MBean left behind by an earlier load of the plugin. */
+    private void register(final Object mbean, final ObjectName name) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (final JMException e) {
+            log.warn(ErrorMessage.CANNOT_PUBLISH_STATISTICS, e);
+        }
+    }
+
+    private void unregister(final ObjectName name) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            log.warn(ErrorMessage.CANNOT_PUBLISH_STATISTICS, e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.security.*;
+import java.util.Arrays;
+import javax.annotation.concurrent.Immutable;
+
+/** Names a block of data stored in a {@link BlockRepository} by its SHA-1. */
+@Immutable
+final class BlockId {
+    static final int SIZE = 20;
+    private static final String ALGORITHM = "SHA-1";
+    private final byte[] hash;
+
+    private BlockId(final byte[] hash) {
+        this.hash = hash;
+    }
+
+    static BlockId of(final byte[] data, final int offset, final int length) {
+        final MessageDigest digest = newDigest();
+        digest.update(data, offset, length);
+        return new BlockId(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static BlockId readFrom(final DataInput input) throws IOException {
+        final byte[] hash = new byte[SIZE];
+        input.readFully(hash);
+        return new BlockId(hash);
+    }
+
+    void writeTo(final DataOutput output) throws IOException {
+        output.write(hash);
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        return object instanceof BlockId
+                && Arrays.equals(hash, ((BlockId) object).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(hash);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(2 * SIZE);
+        for (final byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.IOException;
+import java.util.List;
+import org.joda.time.Instant;
+
+/**
+ * Stores each distinct block of data once, no matter how many backups
+ * contain it. Backups are recorded as snapshots listing the blocks of their
+ * files; blocks that no snapshot refers to any longer are reclaimed by
+ * {@link #collectGarbage()}.
+ */
+interface BlockRepository {
+    /** Blocks are not collected while any session is open. */
+    void beginSession();
+
+    void endSession() throws IOException;
+
+    BlockId store(byte[] data, int offset, int length) throws IOException;
+
+    byte[] fetch(BlockId id) throws IOException;
+
+    void writeSnapshot(String name, Snapshot snapshot) throws IOException;
+
+    /** Returns the names of the snapshots that were deleted. */
+    List<String> deleteSnapshotsOlderThan(Instant time) throws IOException;
+
+    void collectGarbage() throws IOException;
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.ThreadSafe;
+import com.google.inject.*;
+import org.celeria.minecraft.backup.PipelinedZipArchive.PipelineMemory;
+
+/**
+ * Lends out the blocks that archives read files into and compress them
+ * from, so that archiving a world of thousands of files leaves next to no
+ * garbage behind for a server that is sensitive to collection pauses. At
+ * most as many blocks as fit in the pipeline's memory are kept.
+ */
+@Singleton @ThreadSafe
+class BufferPool {
+    static final int BLOCK_SIZE = 64 << 10;
+    private static final int MINIMUM_RETAINED_BLOCKS = 16;
+    private final int maximumRetainedBlocks;
+    private final Queue<byte[]> blocks = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger retainedBlocks = new AtomicInteger();
+
+    @Inject
+    BufferPool(@PipelineMemory final long pipelineMemory) {
+        this.maximumRetainedBlocks = (int) Math.max(MINIMUM_RETAINED_BLOCKS,
+                pipelineMemory / BLOCK_SIZE);
+    }
+
+    byte[] acquire() {
+        final byte[] block = blocks.poll();
+        if (block == null) {
+            return new byte[BLOCK_SIZE];
+        }
+        retainedBlocks.decrementAndGet();
+        return block;
+    }
+
+    void release(final byte[] block) {
+        if (retainedBlocks.incrementAndGet() > maximumRetainedBlocks) {
+            retainedBlocks.decrementAndGet();
+            return;
+        }
+        blocks.offer(block);
+    }
+}
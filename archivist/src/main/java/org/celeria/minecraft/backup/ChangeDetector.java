@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.List;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.base.Charsets;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.StateFolder;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+
+/**
+ * Tells whether a world's region files have changed since its last backup
+ * by comparing their fingerprint with the one taken of the folder that
+ * backup was made from.
+ */
+@Immutable
+class ChangeDetector {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface SkipUnchangedWorlds {}
+
+    private static final String EXTENSION = ".fingerprint";
+    private final FileProvider<FileObject> stateFolderProvider;
+    private final BackupCatalog catalog;
+
+    @Inject
+    ChangeDetector(
+            @StateFolder final FileProvider<FileObject> stateFolderProvider,
+            final BackupCatalog catalog) {
+        this.stateFolderProvider = stateFolderProvider;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Returns the name of the last backup of a world if nothing in its
+     * region files has changed since, or {@code null} if it has or if that
+     * backup is gone. Changes the server has yet to save are not seen; with
+     * autosave on they reach the disk, and so the next backup, within
+     * minutes.
+     */
+    String unchangedSince(final String world, final File worldFolder)
+            throws IOException {
+        final FileObject file = fileFor(world);
+        if (!file.exists()) {
+            return null;
+        }
+        final List<String> lines = CharStreams.readLines(
+                CharStreams.newReaderSupplier(new FileContentSupplier(
+                        file.getContent()), Charsets.UTF_8));
+        if (lines.size() != 2 || catalog.backup(lines.get(0)) == null) {
+            return null;
+        }
+        final WorldFingerprint fingerprint =
+                WorldFingerprint.valueOf(lines.get(1));
+        return fingerprint.equals(WorldFingerprint.of(worldFolder))
+                ? lines.get(0) : null;
+    }
+
+    /**
+     * Remembers the fingerprint of a world against its newest backup, which
+     * is the one just made.
+     */
+    void record(final String world, final WorldFingerprint fingerprint)
+            throws IOException {
+        final List<Backup> backups = catalog.backupsOf(world);
+        if (backups.isEmpty()) {
+            return;
+        }
+        final String backup = backups.get(backups.size() - 1).name();
+        final Writer writer = new OutputStreamWriter(
+                fileFor(world).getContent().getOutputStream(),
+                Charsets.UTF_8);
+        boolean threw = true;
+        try {
+            writer.write(backup + "\n" + fingerprint + "\n");
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+    }
+
+    private FileObject fileFor(final String world)
+            throws FileSystemException {
+        return stateFolderProvider.get().resolveFile(world + EXTENSION);
+    }
+}
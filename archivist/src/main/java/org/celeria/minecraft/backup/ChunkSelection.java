@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.*;
+import java.util.regex.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Which part of a backup to restore: everything, only some region files, or
+ * only the chunks within a rectangle. A rectangle is given in chunk
+ * coordinates and applies to the region files of every dimension in the
+ * backup; region files it only partly covers are restored chunk by chunk.
+ */
+@Immutable
+final class ChunkSelection {
+    private static final Pattern REGION_NAME =
+            Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mc[ar]");
+    private static final int BOUNDS = 4;
+    private static final ChunkSelection EVERYTHING =
+            new ChunkSelection(null, null);
+    private final Set<String> regions;
+    private final int[] bounds;
+
+    private ChunkSelection(final Set<String> regions, final int[] bounds) {
+        this.regions = regions;
+        this.bounds = bounds;
+    }
+
+    static ChunkSelection everything() {
+        return EVERYTHING;
+    }
+
+    /** Selects region files by name, such as "{@code r.0.-1.mca}". */
+    static ChunkSelection ofRegions(final Collection<String> names) {
+        return new ChunkSelection(ImmutableSet.copyOf(names), null);
+    }
+
+    /** Selects the chunks between two corners, inclusive. */
+    static ChunkSelection ofChunks(final int x1, final int z1, final int x2,
+            final int z2) {
+        return new ChunkSelection(null, new int[] {Math.min(x1, x2),
+                Math.min(z1, z2), Math.max(x1, x2), Math.max(z1, z2)});
+    }
+
+    /**
+     * Parses what follows a restore's target on the command line: nothing,
+     * a list of region file names, or the coordinates of two corners.
+     * Returns {@code null} if the arguments are none of these.
+     */
+    static ChunkSelection parse(final List<String> arguments) {
+        if (arguments.isEmpty()) {
+            return everything();
+        }
+        boolean regionNames = true;
+        for (final String argument : arguments) {
+            regionNames &= REGION_NAME.matcher(argument).matches();
+        }
+        if (regionNames) {
+            return ofRegions(arguments);
+        }
+        if (arguments.size() != BOUNDS) {
+            return null;
+        }
+        try {
+            return ofChunks(Integer.parseInt(arguments.get(0)),
+                    Integer.parseInt(arguments.get(1)),
+                    Integer.parseInt(arguments.get(2)),
+                    Integer.parseInt(arguments.get(3)));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Returns whether files other than region files are restored. */
+    boolean includesOtherFiles() {
+        return regions == null && bounds == null;
+    }
+
+    boolean includesRegion(final String path) {
+        if (regions != null) {
+            return regions.contains(baseNameOf(path));
+        }
+        if (bounds == null) {
+            return true;
+        }
+        final int[] corner = cornerOf(path);
+        return corner != null
+                && corner[0] + RegionFile.WIDTH > bounds[0]
+                && corner[1] + RegionFile.WIDTH > bounds[1]
+                && corner[0] <= bounds[2] && corner[1] <= bounds[3];
+    }
+
+    boolean includesWholeRegion(final String path) {
+        if (bounds == null) {
+            return includesRegion(path);
+        }
+        final int[] corner = cornerOf(path);
+        return corner != null && corner[0] >= bounds[0]
+                && corner[1] >= bounds[1]
+                && corner[0] + RegionFile.WIDTH - 1 <= bounds[2]
+                && corner[1] + RegionFile.WIDTH - 1 <= bounds[3];
+    }
+
+    /** Returns whether the chunk at an index in a region is restored. */
+    boolean includesChunk(final String path, final int index) {
+        if (bounds == null) {
+            return includesRegion(path);
+        }
+        final int[] corner = cornerOf(path);
+        if (corner == null) {
+            return false;
+        }
+        final int x = corner[0] + index % RegionFile.WIDTH;
+        final int z = corner[1] + index / RegionFile.WIDTH;
+        return x >= bounds[0] && z >= bounds[1] && x <= bounds[2]
+                && z <= bounds[3];
+    }
+
+    /** Returns the chunk coordinates of a region's north-west corner. */
+    private static int[] cornerOf(final String path) {
+        final Matcher matcher = REGION_NAME.matcher(baseNameOf(path));
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new int[] {
+                Integer.parseInt(matcher.group(1)) * RegionFile.WIDTH,
+                Integer.parseInt(matcher.group(2)) * RegionFile.WIDTH};
+    }
+
+    private static String baseNameOf(final String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.*;
+import java.util.Map;
+import java.util.zip.Deflater;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.Maps;
+import com.google.inject.*;
+
+/**
+ * Chooses how to compress each entry of an archive. Region files hold
+ * chunks that are already deflated, so compressing them again costs a lot
+ * of time and saves next to no space; such entries are stored instead.
+ * Whether an entry is worth compressing is decided by deflating the first
+ * block of it as fast as possible, and once every sample of a file
+ * extension has agreed, that extension is only sampled now and again.
+ */
+@Singleton @ThreadSafe
+class CompressionPolicy {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface AdaptiveCompression {}
+
+    /** How much of an entry is read to decide how to compress it. */
+    static final int SAMPLE_SIZE = BufferPool.BLOCK_SIZE;
+    /**
+     * Entries that deflate to more than this fraction are stored. The
+     * padding at the end of each chunk's sectors is all that region files
+     * usually save by being deflated, and it is not worth the time.
+     */
+    private static final double MAXIMUM_RATIO = 0.9;
+    private static final int LEARNING_SAMPLES = 16;
+    private static final int RESAMPLE_PERIOD = 64;
+    private final CompressionLevel compressionLevel;
+    private final boolean adaptive;
+    private final DeflaterPool deflaters;
+    private final BufferPool buffers;
+    @GuardedBy("this")
+    private final Map<String, ExtensionStatistics> extensions =
+            Maps.newHashMap();
+
+    @Inject
+    CompressionPolicy(final CompressionLevel compressionLevel,
+            @AdaptiveCompression final boolean adaptive,
+            final DeflaterPool deflaters, final BufferPool buffers) {
+        this.compressionLevel = compressionLevel;
+        this.adaptive = adaptive;
+        this.deflaters = deflaters;
+        this.buffers = buffers;
+    }
+
+    /** Returns how to compress every entry when nothing is known of it. */
+    CompressionLevel defaultLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Returns {@link CompressionLevel#NONE} if the entry with the given
+     * name, which begins with the given sample, should be stored.
+     */
+    CompressionLevel levelFor(final String name, final byte[] sample,
+            final int length) {
+        if (!adaptive || compressionLevel == CompressionLevel.NONE
+                || length == 0) {
+            return compressionLevel;
+        }
+        final ExtensionStatistics statistics = statisticsFor(name);
+        final Boolean learned = statistics.learnedVerdict();
+        final boolean compressible = learned != null ? learned
+                : statistics.record(isCompressible(sample, length));
+        return compressible ? compressionLevel : CompressionLevel.NONE;
+    }
+
+    private synchronized ExtensionStatistics statisticsFor(final String name) {
+        final String extension = extensionOf(name);
+        ExtensionStatistics statistics = extensions.get(extension);
+        if (statistics == null) {
+            statistics = new ExtensionStatistics();
+            extensions.put(extension, statistics);
+        }
+        return statistics;
+    }
+
+    private static String extensionOf(final String name) {
+        final int slash = name.lastIndexOf('/');
+        final int dot = name.lastIndexOf('.');
+        return dot > slash ? name.substring(dot + 1) : "";
+    }
+
+    private boolean isCompressible(final byte[] sample, final int length) {
+        final Deflater deflater = deflaters.acquire(CompressionLevel.FASTEST);
+        final byte[] buffer = buffers.acquire();
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            long deflatedSize = 0;
+            while (!deflater.finished() && deflatedSize < length) {
+                deflatedSize += deflater.deflate(buffer);
+            }
+            return deflatedSize <= length * MAXIMUM_RATIO;
+        } finally {
+            buffers.release(buffer);
+            deflaters.release(deflater);
+        }
+    }
+
+    @ThreadSafe
+    private static final class ExtensionStatistics {
+        @GuardedBy("this") private int samples;
+        @GuardedBy("this") private int compressibleSamples;
+        @GuardedBy("this") private int entriesSinceSample;
+
+        /**
+         * Returns whether entries should be compressed if every sample has
+         * agreed, or null if the next entry should be sampled.
+         */
+        synchronized Boolean learnedVerdict() {
+            if (samples < LEARNING_SAMPLES || isMixed()
+                    || ++entriesSinceSample >= RESAMPLE_PERIOD) {
+                return null;
+            }
+            return compressibleSamples == samples;
+        }
+
+        /** Starts learning again if a sample contradicts the verdict. */
+        synchronized boolean record(final boolean compressible) {
+            if (samples >= LEARNING_SAMPLES && !isMixed()
+                    && compressible != (compressibleSamples == samples)) {
+                samples = 0;
+                compressibleSamples = 0;
+            }
+            entriesSinceSample = 0;
+            ++samples;
+            if (compressible) {
+                ++compressibleSamples;
+            }
+            return compressible;
+        }
+
+        private boolean isMixed() {
+            return compressibleSamples != 0 && compressibleSamples != samples;
+        }
+    }
+}
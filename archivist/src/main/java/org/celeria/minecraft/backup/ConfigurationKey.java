@@ -26,8 +26,34 @@ enum ConfigurationKey {
             ChatColor.GREEN + "[Archivist] Back up started."),
     COMPRESSION_LEVEL("compression-level",
             CompressionLevel.DEFAULT.toString()),
+    COMPRESSION_THREADS("compression-threads", "1"),
+    ADAPTIVE_COMPRESSION("adaptive-compression", "true"),
+    PIPELINE_MEMORY("pipeline-memory", "8388608"),
+    VERIFY_BACKUPS("verify-backups", "false"),
+    SCRUB_RATE("scrub-rate", "1048576"),
+    CONCURRENT_BACKUPS("concurrent-backups", "2"),
+    TICK_BUDGET("tick-budget", "PT0.055S"),
+    MAXIMUM_BACKUP_RATE("maximum-backup-rate", "0"),
+    INCREMENTAL_BACKUPS("incremental-backups", "0"),
+    STATE_FOLDER("state-folder", "plugins/Archivist/state"),
+    STAGING_FOLDER("staging-folder", "plugins/Archivist/staging"),
+    COMPARE_STAGED_CONTENTS("compare-staged-contents", "false"),
+    OPTIMISTIC_CAPTURE("optimistic-capture", "false"),
+    ARCHIVE_DIRECTLY("archive-directly", "false"),
+    STAGING_MEMORY("staging-memory", "0"),
+    STORAGE("storage", Storage.ZIP.toString()),
     BACK_UP_PERIOD("back-up-period", "PT20M"),
-    DURATION_TO_KEEP_BACKUPS("duration-to-keep-backups", "P10D");
+    DURATION_TO_KEEP_BACKUPS("duration-to-keep-backups", "P10D"),
+    RETENTION("retention", RetentionScheme.AGE.toString()),
+    KEEP_ALL_BACKUPS_FOR("keep-all-backups-for", "PT24H"),
+    KEEP_HOURLY_BACKUPS_FOR("keep-hourly-backups-for", "P7D"),
+    KEEP_DAILY_BACKUPS_FOR("keep-daily-backups-for", "P4W"),
+    KEEP_WEEKLY_BACKUPS_FOR("keep-weekly-backups-for", "P6M"),
+    RETENTION_DRY_RUN("retention-dry-run", "false"),
+    BACKUP_QUOTA("backup-quota", "0"),
+    QUOTA_EVICTION("quota-eviction", BackupQuota.Eviction.OLDEST.toString()),
+    RESTORE_THREADS("restore-threads", "0"),
+    SKIP_UNCHANGED_WORLDS("skip-unchanged-worlds", "true");
 
     private final String key;
     private final String defaultValue;
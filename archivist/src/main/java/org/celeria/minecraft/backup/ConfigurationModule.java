@@ -23,7 +23,23 @@ import com.google.inject.throwingproviders.*;
 import org.apache.commons.vfs2.*;
 import org.bukkit.*;
 import org.bukkit.util.config.Configuration;
+import org.celeria.minecraft.backup.ArchiveWorldTask.*;
 import org.celeria.minecraft.backup.BackUpWorldsTask.*;
+import org.celeria.minecraft.backup.BackupQuota.*;
+import org.celeria.minecraft.backup.BackupRestorer.RestoreThreads;
+import org.celeria.minecraft.backup.ChangeDetector.SkipUnchangedWorlds;
+import org.celeria.minecraft.backup.CompressionPolicy.AdaptiveCompression;
+import org.celeria.minecraft.backup.DeleteOldBackupsTask.RetentionDryRun;
+import org.celeria.minecraft.backup.IncrementalArchive.IncrementalBackups;
+import org.celeria.minecraft.backup.ManifestArchive.VerifyBackups;
+import org.celeria.minecraft.backup.MemoryStaging.StagingMemory;
+import org.celeria.minecraft.backup.IoThrottle.*;
+import org.celeria.minecraft.backup.ParallelZipArchive.CompressionThreads;
+import org.celeria.minecraft.backup.PipelinedZipArchive.PipelineMemory;
+import org.celeria.minecraft.backup.ScrubBackupsTask.ScrubBytesPerSecond;
+import org.celeria.minecraft.backup.StagingMirror.*;
+import org.celeria.minecraft.backup.TieredRetention.*;
+import org.celeria.minecraft.guice.TaskQueue.ConcurrentTasks;
 import org.joda.time.*;
 
 @Immutable
@@ -46,6 +62,28 @@ class ConfigurationModule extends AbstractModule {
         return folder;
     }
 
+    @CheckedProvides(FileProvider.class) @StateFolder @Singleton
+    public FileObject provideStateFolder(final Configuration configuration,
+            final FileProvider<FileSystemManager> fileSystemProvider)
+            throws FileSystemException {
+        final String folderName = getProperty(configuration, STATE_FOLDER);
+        final FileSystemManager fileSystemManager = fileSystemProvider.get();
+        final FileObject folder = fileSystemManager.resolveFile(folderName);
+        folder.createFolder();
+        return folder;
+    }
+
+    @CheckedProvides(FileProvider.class) @StagingFolder @Singleton
+    public FileObject provideStagingFolder(final Configuration configuration,
+            final FileProvider<FileSystemManager> fileSystemProvider)
+            throws FileSystemException {
+        final String folderName = getProperty(configuration, STAGING_FOLDER);
+        final FileSystemManager fileSystemManager = fileSystemProvider.get();
+        final FileObject folder = fileSystemManager.resolveFile(folderName);
+        folder.createFolder();
+        return folder;
+    }
+
     @Provides @BackUpEndedMessage @Singleton
     public String provideBackUpEndedMessage(final Configuration configuration) {
         return configuration.getString(getProperty(configuration,
@@ -66,6 +104,92 @@ class ConfigurationModule extends AbstractModule {
         return CompressionLevel.valueOf(level);
     }
 
+    @Provides @CompressionThreads @Singleton
+    public Integer provideCompressionThreads(
+            final Configuration configuration) {
+        final String threads = getProperty(configuration, COMPRESSION_THREADS);
+        return Math.max(1, Integer.parseInt(threads));
+    }
+
+    @Provides @AdaptiveCompression @Singleton
+    public Boolean provideAdaptiveCompression(
+            final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration,
+                ADAPTIVE_COMPRESSION));
+    }
+
+    @Provides @PipelineMemory @Singleton
+    public Long providePipelineMemory(final Configuration configuration) {
+        final String memory = getProperty(configuration, PIPELINE_MEMORY);
+        return Math.max(0, Long.parseLong(memory));
+    }
+
+    @Provides @VerifyBackups @Singleton
+    public Boolean provideVerifyBackups(final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration, VERIFY_BACKUPS));
+    }
+
+    @Provides @ScrubBytesPerSecond @Singleton
+    public Long provideScrubRate(final Configuration configuration) {
+        final String rate = getProperty(configuration, SCRUB_RATE);
+        return Math.max(0, Long.parseLong(rate));
+    }
+
+    @Provides @ConcurrentTasks @Singleton
+    public Integer provideConcurrentBackups(
+            final Configuration configuration) {
+        final String backups = getProperty(configuration, CONCURRENT_BACKUPS);
+        return Math.max(1, Integer.parseInt(backups));
+    }
+
+    @Provides @TickBudget @Singleton
+    public Long provideTickBudget(final Configuration configuration) {
+        final String budget = getProperty(configuration, TICK_BUDGET);
+        return Duration.parse(budget).getMillis();
+    }
+
+    @Provides @MaximumBytesPerSecond @Singleton
+    public Long provideMaximumBackupRate(final Configuration configuration) {
+        final String rate = getProperty(configuration, MAXIMUM_BACKUP_RATE);
+        return Math.max(0, Long.parseLong(rate));
+    }
+
+    @Provides @Singleton
+    public Storage provideStorage(final Configuration configuration) {
+        return Storage.valueOf(getProperty(configuration, STORAGE));
+    }
+
+    @Provides @CompareContents @Singleton
+    public Boolean provideCompareStagedContents(
+            final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration,
+                COMPARE_STAGED_CONTENTS));
+    }
+
+    @Provides @OptimisticCapture @Singleton
+    public Boolean provideOptimisticCapture(
+            final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration, OPTIMISTIC_CAPTURE));
+    }
+
+    @Provides @ArchiveDirectly @Singleton
+    public Boolean provideArchiveDirectly(final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration, ARCHIVE_DIRECTLY));
+    }
+
+    @Provides @StagingMemory @Singleton
+    public Long provideStagingMemory(final Configuration configuration) {
+        final String memory = getProperty(configuration, STAGING_MEMORY);
+        return Math.max(0, Long.parseLong(memory));
+    }
+
+    @Provides @IncrementalBackups @Singleton
+    public Integer provideIncrementalBackups(
+            final Configuration configuration) {
+        final String backups = getProperty(configuration, INCREMENTAL_BACKUPS);
+        return Math.max(0, Integer.parseInt(backups));
+    }
+
     @Provides @Singleton
     public Duration provideDurationToKeepBackups(
             final Configuration configuration) {
@@ -74,6 +198,70 @@ class ConfigurationModule extends AbstractModule {
         return Duration.parse(durationToKeepBackups);
     }
 
+    @Provides @Singleton
+    public RetentionScheme provideRetention(
+            final Configuration configuration) {
+        return RetentionScheme.valueOf(getProperty(configuration, RETENTION));
+    }
+
+    @Provides @KeepAllFor @Singleton
+    public Period provideKeepAllBackupsFor(final Configuration configuration) {
+        return Period.parse(getProperty(configuration, KEEP_ALL_BACKUPS_FOR));
+    }
+
+    @Provides @KeepHourlyFor @Singleton
+    public Period provideKeepHourlyBackupsFor(
+            final Configuration configuration) {
+        return Period.parse(getProperty(configuration,
+                KEEP_HOURLY_BACKUPS_FOR));
+    }
+
+    @Provides @KeepDailyFor @Singleton
+    public Period provideKeepDailyBackupsFor(
+            final Configuration configuration) {
+        return Period.parse(getProperty(configuration,
+                KEEP_DAILY_BACKUPS_FOR));
+    }
+
+    @Provides @KeepWeeklyFor @Singleton
+    public Period provideKeepWeeklyBackupsFor(
+            final Configuration configuration) {
+        return Period.parse(getProperty(configuration,
+                KEEP_WEEKLY_BACKUPS_FOR));
+    }
+
+    @Provides @RetentionDryRun @Singleton
+    public Boolean provideRetentionDryRun(final Configuration configuration) {
+        return Boolean.valueOf(getProperty(configuration, RETENTION_DRY_RUN));
+    }
+
+    @Provides @SkipUnchangedWorlds @Singleton
+    public Boolean provideSkipUnchangedWorlds(
+            final Configuration configuration) {
+        return Boolean.valueOf(
+                getProperty(configuration, SKIP_UNCHANGED_WORLDS));
+    }
+
+    @Provides @QuotaBytes @Singleton
+    public Long provideBackupQuota(final Configuration configuration) {
+        final String quota = getProperty(configuration, BACKUP_QUOTA);
+        return Math.max(0, Long.parseLong(quota));
+    }
+
+    @Provides @Singleton
+    public Eviction provideQuotaEviction(final Configuration configuration) {
+        return Eviction.valueOf(getProperty(configuration, QUOTA_EVICTION));
+    }
+
+    /** Uses every processor unless told otherwise. */
+    @Provides @RestoreThreads @Singleton
+    public Integer provideRestoreThreads(final Configuration configuration) {
+        final int threads = Integer.parseInt(getProperty(configuration,
+                RESTORE_THREADS));
+        return threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
     @Provides @Singleton
     public Period provideBackUpPeriod(final Configuration configuration) {
         final String backUpPeriod = getProperty(configuration,
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import javax.annotation.concurrent.ThreadSafe;
+import com.google.inject.Singleton;
+
+/**
+ * Lends out deflaters for raw ZIP entry data. A deflater holds a few
+ * hundred kilobytes of native memory that is only freed once it is ended
+ * or finalized, so they are reused across entries and archives rather than
+ * created for each.
+ */
+@Singleton @ThreadSafe
+class DeflaterPool {
+    private static final int MAXIMUM_RETAINED_DEFLATERS = 16;
+    private final Queue<Deflater> deflaters =
+            new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger retainedDeflaters = new AtomicInteger();
+
+    Deflater acquire(final CompressionLevel level) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level.asInteger(), true);
+        } else {
+            retainedDeflaters.decrementAndGet();
+            deflater.setLevel(level.asInteger());
+        }
+        return deflater;
+    }
+
+    void release(final Deflater deflater) {
+        deflater.reset();
+        if (retainedDeflaters.incrementAndGet() > MAXIMUM_RETAINED_DEFLATERS) {
+            retainedDeflaters.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflaters.offer(deflater);
+    }
+}
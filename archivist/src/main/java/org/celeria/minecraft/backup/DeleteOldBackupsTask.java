@@ -16,67 +16,153 @@
 
 package org.celeria.minecraft.backup;
 
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
 import javax.annotation.concurrent.Immutable;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.*;
 import com.google.inject.*;
-import org.apache.commons.vfs2.*;
-import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
 import org.joda.time.*;
 import org.slf4j.cal10n.LocLogger;
 
 @Immutable
 class DeleteOldBackupsTask implements Runnable {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface RetentionDryRun {}
+
     private final LocLogger log;
-    private final FileProvider<FileObject> backupFolderProvider;
+    private final BackupCatalog catalog;
+    private final BackupDeleter deleter;
+    private final BlockRepository repository;
     private final Duration durationToKeepBackups;
-    private final Instant currentTime;
+    private final Provider<Instant> currentTime;
+    private final BackupStatistics statistics;
+    private final RetentionScheme retention;
+    private final TieredRetention tieredRetention;
+    private final boolean dryRun;
 
     @Inject
     DeleteOldBackupsTask(final LocLogger log,
-            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
-            final Duration durationToKeepBackups, final Instant currentTime) {
+            final BackupCatalog catalog, final BackupDeleter deleter,
+            final BlockRepository repository,
+            final Duration durationToKeepBackups,
+            final Provider<Instant> currentTime,
+            final BackupStatistics statistics,
+            final RetentionScheme retention,
+            final TieredRetention tieredRetention,
+            @RetentionDryRun final boolean dryRun) {
         this.log = log;
-        this.backupFolderProvider = backupFolderProvider;
+        this.catalog = catalog;
+        this.deleter = deleter;
+        this.repository = repository;
         this.durationToKeepBackups = durationToKeepBackups;
         this.currentTime = currentTime;
+        this.statistics = statistics;
+        this.retention = retention;
+        this.tieredRetention = tieredRetention;
+        this.dryRun = dryRun;
     }
 
     @Override
     public void run() {
+        final Instant now = currentTime.get();
+        final Instant oldestTimeToKeep = now.minus(durationToKeepBackups);
+        final Stopwatch stopwatch = new Stopwatch().start();
+        int deleted = 0;
         try {
-            deleteOldBackups();
-        } catch (final FileSystemException e) {
+            deleted += deleteOldBackups(now, oldestTimeToKeep);
+            if (!dryRun) {
+                deleted += deleteOldSnapshots(oldestTimeToKeep);
+            }
+        } catch (final IOException e) {
             log.error(ErrorMessage.CANNOT_ACCESS_BACKUP, e);
+        } finally {
+            statistics.retention().record(now.getMillis(),
+                    stopwatch.elapsedMillis(), deleted);
         }
     }
 
-    private void deleteOldBackups() throws FileSystemException {
-        for (final FileObject backup : getBackupFolderContents()) {
-            deleteBackupIfOld(backup);
+    /**
+     * In a dry run, the backups that would have been deleted are only
+     * logged, and snapshots in the block repository are left alone. A
+     * backup that cannot be deleted does not stop the others from being
+     * deleted, and is tried again on the next run.
+     */
+    private int deleteOldBackups(final Instant now,
+            final Instant oldestTimeToKeep) throws IOException {
+        final List<Backup> expired = retention == RetentionScheme.TIERED
+                ? tieredRetention.expired(catalog, now)
+                : expiredBackups(oldestTimeToKeep);
+        if (dryRun) {
+            for (final Backup backup : expired) {
+                log.info(LogMessage.WOULD_DELETE_BACKUP, backup.name());
+            }
+            return 0;
         }
+        final List<Backup> undeleted = Lists.newArrayList();
+        for (final Backup backup : expired) {
+            try {
+                deleter.delete(backup);
+            } catch (final IOException e) {
+                log.error(ErrorMessage.CANNOT_ACCESS_BACKUP, e);
+                undeleted.add(backup);
+            }
+        }
+        if (retention == RetentionScheme.TIERED) {
+            tieredRetention.readmit(undeleted);
+        }
+        return expired.size() - undeleted.size();
     }
 
-    private FileObject[] getBackupFolderContents() throws FileSystemException {
-        return backupFolderProvider.get().getChildren();
-    }
-
-    private void deleteBackupIfOld(final FileObject backup)
-            throws FileSystemException {
-        if (backupIsOld(backup)) {
-            deleteBackup(backup);
+    /**
+     * Backups are found through the catalog rather than by listing the
+     * backup folder. An old backup is kept for as long as a newer one that
+     * was made on top of it is.
+     */
+    private List<Backup> expiredBackups(final Instant oldestTimeToKeep)
+            throws IOException {
+        final List<Backup> backups = catalog.backups();
+        final Set<String> needed = backupsNeededBy(backups, oldestTimeToKeep);
+        final List<Backup> expired = Lists.newArrayList();
+        for (final Backup backup : backups) {
+            if (!needed.contains(backup.name())) {
+                expired.add(backup);
+            }
         }
+        return expired;
     }
 
-    private boolean backupIsOld(final FileObject backup)
-            throws FileSystemException {
-        final long lastModifiedTime = backup.getContent().getLastModifiedTime();
-        final Instant instant = new Instant(lastModifiedTime);
-        return currentTime.plus(durationToKeepBackups).isAfter(instant);
+    private static Set<String> backupsNeededBy(final List<Backup> backups,
+            final Instant oldestTimeToKeep) {
+        final Map<String, Backup> byName = Maps.newHashMap();
+        for (final Backup backup : backups) {
+            byName.put(backup.name(), backup);
+        }
+        final Set<String> needed = Sets.newHashSet();
+        for (final Backup backup : backups) {
+            if (new Instant(backup.time()).isBefore(oldestTimeToKeep)) {
+                continue;
+            }
+            Backup ancestor = backup;
+            while (ancestor != null && needed.add(ancestor.name())) {
+                ancestor = byName.get(ancestor.parent());
+            }
+        }
+        return needed;
     }
 
-    private void deleteBackup(final FileObject backup)
-            throws FileSystemException {
-        // TODO: try to move this further up the application stack.
-        backup.delete();
-        log.info(LogMessage.DELETED_BACKUP, backup);
+    private int deleteOldSnapshots(final Instant oldestTimeToKeep)
+            throws IOException {
+        final List<String> snapshots =
+                repository.deleteSnapshotsOlderThan(oldestTimeToKeep);
+        for (final String snapshot : snapshots) {
+            log.info(LogMessage.DELETED_BACKUP, snapshot);
+        }
+        repository.collectGarbage();
+        return snapshots.size();
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import javax.annotation.concurrent.Immutable;
+import com.google.inject.Inject;
+import org.bukkit.block.Block;
+import org.bukkit.event.*;
+import org.bukkit.event.block.*;
+import org.bukkit.event.entity.*;
+import org.bukkit.event.world.*;
+import org.bukkit.plugin.*;
+
+/**
+ * Marks the regions that blocks, explosions and unloaded chunks touch as
+ * dirty. Listeners only watch, so they run last and skip cancelled events.
+ */
+@Immutable
+class DirtyRegionListener {
+    private final PluginManager pluginManager;
+    private final Plugin plugin;
+    private final DirtyRegionTracker tracker;
+
+    @Inject
+    DirtyRegionListener(final PluginManager pluginManager,
+            final Plugin plugin, final DirtyRegionTracker tracker) {
+        this.pluginManager = pluginManager;
+        this.plugin = plugin;
+        this.tracker = tracker;
+    }
+
+    void register() {
+        final Listener blockListener = new DirtyBlockListener();
+        register(Event.Type.BLOCK_PLACE, blockListener);
+        register(Event.Type.BLOCK_BREAK, blockListener);
+        register(Event.Type.BLOCK_BURN, blockListener);
+        register(Event.Type.CHUNK_UNLOAD, new DirtyChunkListener());
+        register(Event.Type.ENTITY_EXPLODE, new DirtyEntityListener());
+    }
+
+    private void register(final Event.Type type, final Listener listener) {
+        pluginManager.registerEvent(type, listener, Event.Priority.Monitor,
+                plugin);
+    }
+
+    private void mark(final Block block) {
+        tracker.markBlock(block.getWorld(), block.getX(), block.getZ());
+    }
+
+    private final class DirtyBlockListener extends BlockListener {
+        @Override
+        public void onBlockPlace(final BlockPlaceEvent event) {
+            if (!event.isCancelled()) {
+                mark(event.getBlock());
+            }
+        }
+
+        @Override
+        public void onBlockBreak(final BlockBreakEvent event) {
+            if (!event.isCancelled()) {
+                mark(event.getBlock());
+            }
+        }
+
+        @Override
+        public void onBlockBurn(final BlockBurnEvent event) {
+            if (!event.isCancelled()) {
+                mark(event.getBlock());
+            }
+        }
+    }
+
+    private final class DirtyChunkListener extends WorldListener {
+        @Override
+        public void onChunkUnload(final ChunkUnloadEvent event) {
+            if (!event.isCancelled()) {
+                tracker.markChunk(event.getWorld(), event.getChunk().getX(),
+                        event.getChunk().getZ());
+            }
+        }
+    }
+
+    private final class DirtyEntityListener extends EntityListener {
+        @Override
+        public void onEntityExplode(final EntityExplodeEvent event) {
+            if (event.isCancelled()) {
+                return;
+            }
+            for (final Block block : event.blockList()) {
+                mark(block);
+            }
+        }
+    }
+}
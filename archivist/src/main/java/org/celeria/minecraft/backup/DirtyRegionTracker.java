@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.concurrent.*;
+import javax.annotation.concurrent.ThreadSafe;
+import com.google.inject.Singleton;
+import org.bukkit.*;
+
+/**
+ * Keeps, for each world, the regions that may have been written since its
+ * last backup. A chunk only reaches the disk while it is loaded or as it is
+ * unloaded, so the regions of unloaded chunks together with those of the
+ * chunks loaded when a backup saves the world cover every change; block
+ * and entity events only mark regions earlier.
+ */
+@Singleton
+@ThreadSafe
+class DirtyRegionTracker {
+    private static final int CHUNK_SHIFT = 4;
+    private final ConcurrentMap<String, DirtyRegions> worlds =
+            new ConcurrentHashMap<String, DirtyRegions>();
+
+    void markBlock(final World world, final int blockX, final int blockZ) {
+        markChunk(world, blockX >> CHUNK_SHIFT, blockZ >> CHUNK_SHIFT);
+    }
+
+    /**
+     * A chunk marked while its world is being drained is marked again in
+     * the new bitmap, so that no change falls between two backups.
+     */
+    void markChunk(final World world, final int chunkX, final int chunkZ) {
+        final String name = world.getName();
+        final DirtyRegions regions = worlds.get(name);
+        if (regions == null) {
+            return;
+        }
+        regions.markChunk(chunkX, chunkZ);
+        final DirtyRegions current = worlds.get(name);
+        if (current != null && current != regions) {
+            current.markChunk(chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Starts afresh for a world that has just been saved and returns the
+     * regions written since it was last drained, or {@code null} if it was
+     * not being tracked all that time. Called on the main thread.
+     */
+    DirtyRegions drain(final World world) {
+        final DirtyRegions regions =
+                worlds.put(world.getName(), new DirtyRegions());
+        if (regions == null) {
+            return null;
+        }
+        for (final Chunk chunk : world.getLoadedChunks()) {
+            regions.markChunk(chunk.getX(), chunk.getZ());
+        }
+        return regions;
+    }
+
+    /**
+     * Stops trusting what has been tracked for a world, such as when its
+     * drained regions could not be staged.
+     */
+    void forget(final String world) {
+        worlds.remove(world);
+    }
+}
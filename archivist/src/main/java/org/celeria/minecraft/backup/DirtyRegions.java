@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.*;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A sparse bitmap of region coordinates. Regions are grouped in tiles of
+ * 64 by 64, each a row of 64 longs, so marking a region is a lookup and a
+ * compare-and-set, and a world that spans a few hundred regions fits in
+ * one or two 512 byte tiles.
+ */
+@ThreadSafe
+class DirtyRegions {
+    private static final Pattern REGION_NAME =
+            Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mc[ar]");
+    private static final int TILE_BITS = 6;
+    private static final int TILE_WIDTH = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_WIDTH - 1;
+    private final ConcurrentMap<Long, AtomicLongArray> tiles =
+            new ConcurrentHashMap<Long, AtomicLongArray>();
+
+    void markChunk(final int chunkX, final int chunkZ) {
+        mark(chunkX >> 5, chunkZ >> 5);
+    }
+
+    void mark(final int regionX, final int regionZ) {
+        final AtomicLongArray tile = tileOf(regionX, regionZ);
+        final int row = regionZ & TILE_MASK;
+        final long bit = 1L << (regionX & TILE_MASK);
+        long bits = tile.get(row);
+        while ((bits & bit) == 0
+                && !tile.compareAndSet(row, bits, bits | bit)) {
+            bits = tile.get(row);
+        }
+    }
+
+    boolean contains(final int regionX, final int regionZ) {
+        final AtomicLongArray tile = tiles.get(keyOf(regionX, regionZ));
+        return tile != null && (tile.get(regionZ & TILE_MASK)
+                & 1L << (regionX & TILE_MASK)) != 0;
+    }
+
+    /**
+     * Tells whether a region file, such as "{@code r.0.-1.mca}", is dirty.
+     * Anything that is not named like a region file is.
+     */
+    boolean contains(final String regionName) {
+        final Matcher matcher = REGION_NAME.matcher(regionName);
+        return !matcher.matches()
+                || contains(Integer.parseInt(matcher.group(1)),
+                        Integer.parseInt(matcher.group(2)));
+    }
+
+    int size() {
+        int size = 0;
+        for (final AtomicLongArray tile : tiles.values()) {
+            for (int row = 0; row < TILE_WIDTH; ++row) {
+                size += Long.bitCount(tile.get(row));
+            }
+        }
+        return size;
+    }
+
+    private AtomicLongArray tileOf(final int regionX, final int regionZ) {
+        final Long key = keyOf(regionX, regionZ);
+        final AtomicLongArray tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        final AtomicLongArray newTile = new AtomicLongArray(TILE_WIDTH);
+        final AtomicLongArray existing = tiles.putIfAbsent(key, newTile);
+        return existing == null ? newTile : existing;
+    }
+
+    private static Long keyOf(final int regionX, final int regionZ) {
+        return (long) (regionX >> TILE_BITS) << 32
+                | (regionZ >> TILE_BITS) & 0xFFFFFFFFL;
+    }
+}
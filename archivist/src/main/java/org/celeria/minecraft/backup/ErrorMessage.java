@@ -23,7 +23,12 @@ import ch.qos.cal10n.LocaleData;
 @BaseName("error_message")
 @LocaleData({@Locale("en_US")})
 enum ErrorMessage {
+    BACKUP_CORRUPT,
     CANNOT_ACCESS_BACKUP,
     CANNOT_CLOSE_ARCHIVE,
+    CANNOT_PUBLISH_STATISTICS,
+    CANNOT_RESTORE_INTO_LOADED_WORLD,
+    RESTORE_FAILED,
+    CANNOT_RECORD_FINGERPRINT,
     TASK_FAILED
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.io.InputSupplier;
+import org.apache.commons.vfs2.FileContent;
+
+@Immutable
+class FileContentSupplier implements InputSupplier<InputStream> {
+    private final FileContent content;
+
+    FileContentSupplier(final FileContent content) {
+        this.content = content;
+    }
+
+    @Override
+    public InputStream getInput() throws IOException {
+        return content.getInputStream();
+    }
+}
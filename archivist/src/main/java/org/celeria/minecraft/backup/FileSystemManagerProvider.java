@@ -46,6 +46,8 @@ class FileSystemManagerProvider implements FileProvider<FileSystemManager> {
 
     private void build() throws FileSystemException {
         manager.addProvider("file", provider);
+        manager.addProvider(BackupFileProvider.SCHEME,
+                new BackupFileProvider());
         manager.setFilesCache(cache);
         manager.setCacheStrategy(CacheStrategy.ON_RESOLVE);
         manager.setBaseFile(new File("."));
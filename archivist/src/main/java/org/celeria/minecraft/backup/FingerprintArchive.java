@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.common.io.InputSupplier;
+import org.apache.commons.vfs2.FileContent;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Fingerprints the folder a world is archived from as the first file is
+ * written, which is before anything in it is read, and records that
+ * fingerprint once the backup is closed, by which time a finished backup is
+ * in the catalog. A fingerprint taken this early can only make the world
+ * look changed next time, never unchanged. A world staged in memory is
+ * fingerprinted as it was captured instead. Failing to record the
+ * fingerprint only means the world is backed up again next time.
+ */
+@NotThreadSafe
+class FingerprintArchive implements Archive {
+    private final LocLogger log;
+    private final Archive archive;
+    private final ChangeDetector detector;
+    private final String world;
+    private final WorldFingerprint.Source source;
+    private WorldFingerprint fingerprint;
+    private boolean finished;
+
+    FingerprintArchive(final LocLogger log, final Archive archive,
+            final ChangeDetector detector, final String world,
+            final WorldFingerprint.Source source) {
+        this.log = log;
+        this.archive = archive;
+        this.detector = detector;
+        this.world = world;
+        this.source = source;
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        takeFingerprint();
+        archive.write(name, content);
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        takeFingerprint();
+        archive.write(name, time, input);
+    }
+
+    private void takeFingerprint() throws ArchiveException {
+        if (fingerprint != null) {
+            return;
+        }
+        try {
+            fingerprint = source.fingerprint();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not fingerprint world.", e);
+        }
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        takeFingerprint();
+        archive.finish();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        archive.close();
+        if (!finished) {
+            return;
+        }
+        try {
+            detector.record(world, fingerprint);
+        } catch (final IOException e) {
+            log.warn(ErrorMessage.CANNOT_RECORD_FINGERPRINT, e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.common.base.*;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import com.google.inject.BindingAnnotation;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Stores only the chunks of each region file whose header timestamps have
+ * moved since the previous backup of the world. A changed region file is
+ * written as a "{@code .chunks}" entry holding a count followed by, for each
+ * chunk, its index, timestamp, record length and record; a length of zero
+ * means the chunk was removed. Every archive carries a manifest naming the
+ * full backup its chain is based on and the backup immediately before it.
+ * Since every backup holds each region file in the world, the manifest of an
+ * incremental also lists the region files that have gone since the backup
+ * before it, so that they are not rebuilt from older backups.
+ */
+@NotThreadSafe
+class IncrementalArchive implements Archive {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface IncrementalBackups {}
+
+    static final String MANIFEST_NAME = "archivist-manifest.properties";
+    static final String CHUNKS_SUFFIX = ".chunks";
+    static final Splitter REMOVED_SPLITTER =
+            Splitter.on(',').omitEmptyStrings();
+    private static final Joiner REMOVED_JOINER = Joiner.on(',');
+    private final Archive archive;
+    private final String backupName;
+    private final IncrementalState state;
+    private final boolean full;
+    private final FileObject stateFile;
+    private final Map<String, int[]> regions = Maps.newHashMap();
+    private final Set<String> removedRegions = Sets.newTreeSet();
+    private boolean finished;
+
+    IncrementalArchive(final Archive archive, final String backupName,
+            final IncrementalState state, final boolean full,
+            final FileObject stateFile) {
+        this.archive = archive;
+        this.backupName = backupName;
+        this.state = state;
+        this.full = full;
+        this.stateFile = stateFile;
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        if (!RegionFile.isRegionFile(name)) {
+            archive.write(name, content);
+            return;
+        }
+        try {
+            writeRegion(name, content.getLastModifiedTime(),
+                    new FileContentSupplier(content));
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write region to archive.",
+                    e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        if (!RegionFile.isRegionFile(name)) {
+            archive.write(name, time, input);
+            return;
+        }
+        try {
+            writeRegion(name, time, input);
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write region to archive.",
+                    e);
+        }
+    }
+
+    private void writeRegion(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws IOException {
+        final byte[] contents = ByteStreams.toByteArray(input);
+        final RegionFile region = RegionFile.of(contents);
+        final int[] previous = state.timestampsOf(name);
+        if (full || previous == null) {
+            archive.write(name, time,
+                    ByteStreams.newInputStreamSupplier(contents));
+        } else {
+            archive.write(name + CHUNKS_SUFFIX, time,
+                    ByteStreams.newInputStreamSupplier(
+                            changedChunksOf(region, previous)));
+        }
+        regions.put(name, region.getTimestamps());
+    }
+
+    private static byte[] changedChunksOf(final RegionFile region,
+            final int[] previous) throws IOException {
+        final int[] timestamps = region.getTimestamps();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(countChanged(timestamps, previous));
+        for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+            if (timestamps[i] != previous[i]) {
+                final byte[] record = region.readChunk(i);
+                output.writeShort(i);
+                output.writeInt(timestamps[i]);
+                output.writeInt(record.length);
+                output.write(record);
+            }
+        }
+        output.flush();
+        return buffer.toByteArray();
+    }
+
+    private static int countChanged(final int[] timestamps,
+            final int[] previous) {
+        int changed = 0;
+        for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+            if (timestamps[i] != previous[i]) {
+                ++changed;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        if (!full) {
+            removedRegions.addAll(Sets.difference(state.regions(),
+                    regions.keySet()));
+        }
+        archive.write(MANIFEST_NAME, System.currentTimeMillis(),
+                ByteStreams.newInputStreamSupplier(manifest()));
+        archive.finish();
+        finished = true;
+    }
+
+    private byte[] manifest() throws ArchiveException {
+        final Properties manifest = new Properties();
+        manifest.setProperty("type", full ? "full" : "incremental");
+        if (full) {
+            manifest.setProperty("base", backupName);
+        } else {
+            final List<String> chain = state.chain();
+            manifest.setProperty("base", chain.get(0));
+            manifest.setProperty("parent", chain.get(chain.size() - 1));
+            manifest.setProperty("removed",
+                    REMOVED_JOINER.join(removedRegions));
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            manifest.store(output, null);
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write manifest.", e);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        archive.close();
+        if (finished) {
+            publish();
+        }
+    }
+
+    private void publish() throws ArchiveException {
+        try {
+            state.next(backupName, full, regions, removedRegions)
+                    .writeTo(stateFile);
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not record backup state.", e);
+        }
+    }
+}
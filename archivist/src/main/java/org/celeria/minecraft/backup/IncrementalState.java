@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.collect.*;
+import com.google.common.io.Closeables;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Remembers, for one world, the chain of backups since the last full backup
+ * and the chunk timestamps of every region file as of the newest of them.
+ */
+@Immutable
+final class IncrementalState {
+    private static final int VERSION = 1;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private final ImmutableList<String> chain;
+    private final ImmutableMap<String, int[]> regions;
+
+    private IncrementalState(final List<String> chain,
+            final Map<String, int[]> regions) {
+        this.chain = ImmutableList.copyOf(chain);
+        this.regions = ImmutableMap.copyOf(regions);
+    }
+
+    static IncrementalState empty() {
+        return new IncrementalState(ImmutableList.<String>of(),
+                ImmutableMap.<String, int[]>of());
+    }
+
+    boolean isEmpty() {
+        return chain.isEmpty();
+    }
+
+    /** Returns the full backup first, followed by each incremental. */
+    List<String> chain() {
+        return chain;
+    }
+
+    Set<String> regions() {
+        return regions.keySet();
+    }
+
+    int[] timestampsOf(final String region) {
+        return regions.get(region);
+    }
+
+    IncrementalState next(final String backup, final boolean full,
+            final Map<String, int[]> changedRegions,
+            final Set<String> removedRegions) {
+        if (full) {
+            return new IncrementalState(ImmutableList.of(backup),
+                    changedRegions);
+        }
+        final Map<String, int[]> newRegions = Maps.newHashMap(regions);
+        newRegions.putAll(changedRegions);
+        newRegions.keySet().removeAll(removedRegions);
+        final List<String> newChain = Lists.newArrayList(chain);
+        newChain.add(backup);
+        return new IncrementalState(newChain, newRegions);
+    }
+
+    static IncrementalState readFrom(final FileObject file)
+            throws IOException {
+        if (!file.exists()) {
+            return empty();
+        }
+        final DataInputStream input = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(
+                        file.getContent().getInputStream())));
+        boolean threw = true;
+        try {
+            final IncrementalState state = readFrom(input);
+            threw = false;
+            return state;
+        } finally {
+            Closeables.close(input, threw);
+        }
+    }
+
+    private static IncrementalState readFrom(final DataInput input)
+            throws IOException {
+        if (input.readInt() != VERSION) {
+            return empty();
+        }
+        final List<String> chain = Lists.newArrayList();
+        for (int i = input.readInt(); i > 0; --i) {
+            chain.add(input.readUTF());
+        }
+        final Map<String, int[]> regions = Maps.newHashMap();
+        for (int i = input.readInt(); i > 0; --i) {
+            final String region = input.readUTF();
+            final int[] timestamps = new int[RegionFile.CHUNKS];
+            for (int j = 0; j < timestamps.length; ++j) {
+                timestamps[j] = input.readInt();
+            }
+            regions.put(region, timestamps);
+        }
+        return new IncrementalState(chain, regions);
+    }
+
+    /** Replaces the file only once the new state has been fully written. */
+    void writeTo(final FileObject file) throws IOException {
+        final FileObject temporaryFile = file.getParent().resolveFile(
+                file.getName().getBaseName() + TEMPORARY_SUFFIX);
+        final DataOutputStream output = new DataOutputStream(
+                new GZIPOutputStream(new BufferedOutputStream(
+                        temporaryFile.getContent().getOutputStream())));
+        boolean threw = true;
+        try {
+            writeTo(output);
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+        file.delete();
+        temporaryFile.moveTo(file);
+    }
+
+    private void writeTo(final DataOutput output) throws IOException {
+        output.writeInt(VERSION);
+        output.writeInt(chain.size());
+        for (final String backup : chain) {
+            output.writeUTF(backup);
+        }
+        output.writeInt(regions.size());
+        for (final Map.Entry<String, int[]> region : regions.entrySet()) {
+            output.writeUTF(region.getKey());
+            for (final int timestamp : region.getValue()) {
+                output.writeInt(timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.base.*;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Records the size, modification time and CRC-32 of every entry of an
+ * archive as it was read from the world, along with the size and checksum
+ * of the finished archive file. It is kept beside the archive, under the
+ * archive's name followed by "{@code .manifest}".
+ */
+@Immutable
+final class IntegrityManifest {
+    static final String EXTENSION = ".manifest";
+    private static final String HEADER = "archivist-manifest 1";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int RADIX = 16;
+    private static final Splitter FIELDS = Splitter.on(' ').limit(4);
+    private final ImmutableSortedMap<String, Entry> entries;
+    private final long archiveSize;
+    private final long archiveChecksum;
+
+    @Immutable
+    static final class Entry {
+        private final long size;
+        private final long time;
+        private final long crc;
+
+        Entry(final long size, final long time, final long crc) {
+            this.size = size;
+            this.time = time;
+            this.crc = crc;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long time() {
+            return time;
+        }
+
+        long crc() {
+            return crc;
+        }
+    }
+
+    IntegrityManifest(final Map<String, Entry> entries,
+            final long archiveSize, final long archiveChecksum) {
+        this.entries = ImmutableSortedMap.copyOf(entries);
+        this.archiveSize = archiveSize;
+        this.archiveChecksum = archiveChecksum;
+    }
+
+    static FileObject fileFor(final FileObject archive)
+            throws FileSystemException {
+        return archive.getParent().resolveFile(
+                archive.getName().getBaseName() + EXTENSION);
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    /** Returns {@code null} if the archive has no such entry. */
+    Entry entryFor(final String name) {
+        return entries.get(name);
+    }
+
+    long archiveSize() {
+        return archiveSize;
+    }
+
+    long archiveChecksum() {
+        return archiveChecksum;
+    }
+
+    static IntegrityManifest readFrom(final FileObject file)
+            throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(file.getContent().getInputStream(),
+                        Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            final IntegrityManifest manifest = readFrom(reader);
+            threw = false;
+            return manifest;
+        } finally {
+            Closeables.close(reader, threw);
+        }
+    }
+
+    private static IntegrityManifest readFrom(final BufferedReader reader)
+            throws IOException {
+        if (!HEADER.equals(reader.readLine())) {
+            throw new ArchiveException("Unrecognized manifest.");
+        }
+        try {
+            final Iterator<String> archive =
+                    FIELDS.split(reader.readLine()).iterator();
+            final long size = Long.parseLong(archive.next());
+            final long checksum = Long.parseLong(archive.next(), RADIX);
+            final Map<String, Entry> entries = Maps.newHashMap();
+            for (String line = reader.readLine(); line != null;
+                    line = reader.readLine()) {
+                final Iterator<String> fields = FIELDS.split(line).iterator();
+                final long crc = Long.parseLong(fields.next(), RADIX);
+                final long entrySize = Long.parseLong(fields.next());
+                final long time = Long.parseLong(fields.next());
+                entries.put(fields.next(), new Entry(entrySize, time, crc));
+            }
+            return new IntegrityManifest(entries, size, checksum);
+        } catch (final RuntimeException e) {
+            throw new ArchiveException("Malformed manifest.", e);
+        }
+    }
+
+    /** Replaces the file only once the new manifest has been fully written. */
+    void writeTo(final FileObject file) throws IOException {
+        final FileObject temporaryFile = file.getParent().resolveFile(
+                file.getName().getBaseName() + TEMPORARY_SUFFIX);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                temporaryFile.getContent().getOutputStream(),
+                Charsets.UTF_8));
+        boolean threw = true;
+        try {
+            writeTo(writer);
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+        file.delete();
+        temporaryFile.moveTo(file);
+    }
+
+    private void writeTo(final Writer writer) throws IOException {
+        writer.write(HEADER + "\n");
+        writer.write(archiveSize + " " + Long.toString(archiveChecksum, RADIX)
+                + "\n");
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            final Entry value = entry.getValue();
+            writer.write(Long.toString(value.crc, RADIX) + " " + value.size
+                    + " " + value.time + " " + entry.getKey() + "\n");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.*;
+import com.google.common.io.InputSupplier;
+import com.google.inject.*;
+
+/**
+ * Limits how fast backups read from disk with a token bucket whose rate
+ * follows the server's tick time: every slow tick cuts the rate, and every
+ * tick within the budget raises it again, up to the configured maximum.
+ */
+@Singleton @ThreadSafe
+class IoThrottle {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface TickBudget {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface MaximumBytesPerSecond {}
+
+    private static final double MINIMUM_RATE = 256 << 10;
+    private static final double FIRST_LIMITED_RATE = 64 << 20;
+    private static final double UNLIMITED_RATE = 1 << 30;
+    private static final double SLOW_TICK_FACTOR = 0.8;
+    private static final double FAST_TICK_FACTOR = 1.05;
+    private static final double NANOSECONDS_PER_SECOND = 1e9;
+    private final long tickBudgetNanoseconds;
+    private final double maximumRate;
+    private final boolean adaptive;
+    @GuardedBy("this") private double rate;
+    @GuardedBy("this") private double tokens;
+    @GuardedBy("this") private long lastRefill = System.nanoTime();
+
+    /**
+     * @param tickBudget the longest a tick may take, in milliseconds
+     * @param maximumBytesPerSecond the fastest backups may read, or zero
+     *        for no limit
+     */
+    @Inject
+    IoThrottle(@TickBudget final long tickBudget,
+            @MaximumBytesPerSecond final long maximumBytesPerSecond) {
+        this(TimeUnit.MILLISECONDS.toNanos(tickBudget),
+                maximumBytesPerSecond > 0
+                        ? Math.max(MINIMUM_RATE, maximumBytesPerSecond)
+                        : Double.POSITIVE_INFINITY, true);
+    }
+
+    private IoThrottle(final long tickBudgetNanoseconds,
+            final double maximumRate, final boolean adaptive) {
+        this.tickBudgetNanoseconds = tickBudgetNanoseconds;
+        this.maximumRate = maximumRate;
+        this.adaptive = adaptive;
+        this.rate = maximumRate;
+    }
+
+    /**
+     * Returns a throttle that keeps to the given rate however slow or fast
+     * ticks are, even below the rate adaptive throttles never go under.
+     *
+     * @param bytesPerSecond the fastest reads may go, or zero for no limit
+     */
+    static IoThrottle fixedRate(final long bytesPerSecond) {
+        return new IoThrottle(0, bytesPerSecond > 0 ? bytesPerSecond
+                : Double.POSITIVE_INFINITY, false);
+    }
+
+    synchronized double bytesPerSecond() {
+        return rate;
+    }
+
+    synchronized void tickTook(final long nanoseconds) {
+        if (!adaptive) {
+            return;
+        }
+        if (nanoseconds > tickBudgetNanoseconds) {
+            rate = Math.max(MINIMUM_RATE,
+                    Math.min(rate, FIRST_LIMITED_RATE) * SLOW_TICK_FACTOR);
+            return;
+        }
+        rate *= FAST_TICK_FACTOR;
+        if (rate > maximumRate || rate > UNLIMITED_RATE) {
+            rate = maximumRate;
+        }
+    }
+
+    /** Blocks until the given number of bytes may be read. */
+    void acquire(final long bytes) throws InterruptedIOException {
+        final long delay = reserve(bytes);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private synchronized long reserve(final long bytes) {
+        if (Double.isInfinite(rate)) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        // At most a second's worth of reading can be saved up.
+        tokens = Math.min(rate,
+                tokens + (now - lastRefill) * rate / NANOSECONDS_PER_SECOND);
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0
+                : (long) (-tokens / rate * NANOSECONDS_PER_SECOND);
+    }
+
+    InputSupplier<InputStream> throttle(
+            final InputSupplier<? extends InputStream> supplier) {
+        return new InputSupplier<InputStream>() {
+            @Override
+            public InputStream getInput() throws IOException {
+                return new ThrottledInputStream(supplier.getInput());
+            }
+        };
+    }
+
+    @NotThreadSafe
+    private final class ThrottledInputStream extends FilterInputStream {
+        ThrottledInputStream(final InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            if (value >= 0) {
+                acquire(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                acquire(read);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.io.Closeables;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.provider.local.LocalFileName;
+
+/**
+ * Works on local files directly instead of through Commons VFS, which
+ * resolves, caches and attaches an object for every file it touches. That
+ * adds up on worlds with tens of thousands of small player files.
+ */
+@Immutable
+final class LocalFiles {
+    private static final long TRANSFER_SIZE = 1 << 20;
+    private static final String LOCAL_SCHEME = "file";
+    private LocalFiles() {}
+
+    /**
+     * Returns the local file behind a file object, or {@code null} if it is
+     * not on the local file system.
+     */
+    static File toFile(final FileObject file) throws FileSystemException {
+        final FileName name = file.getName();
+        if (!(name instanceof LocalFileName)
+                || !LOCAL_SCHEME.equals(name.getScheme())) {
+            return null;
+        }
+        return new File(((LocalFileName) name).getRootFile()
+                + name.getPathDecoded());
+    }
+
+    static File[] listFiles(final File folder) throws IOException {
+        final File[] files = folder.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list " + folder + ".");
+        }
+        return files;
+    }
+
+    static void createFolder(final File folder) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder + ".");
+        }
+    }
+
+    /**
+     * Returns whether a file is the given folder or lies inside it, once
+     * "{@code ..}" and links have been resolved.
+     */
+    static boolean isWithin(final File file, final File folder)
+            throws IOException {
+        final File canonicalFolder = folder.getCanonicalFile();
+        for (File parent = file.getCanonicalFile(); parent != null;
+                parent = parent.getParentFile()) {
+            if (parent.equals(canonicalFolder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void delete(final File file) throws IOException {
+        if (file.isDirectory()) {
+            for (final File child : listFiles(file)) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file + ".");
+        }
+    }
+
+    /** Copies a file along with its modification time. */
+    static void copy(final File source, final File target,
+            final IoThrottle throttle) throws IOException {
+        final FileInputStream input = new FileInputStream(source);
+        try {
+            final FileOutputStream output = new FileOutputStream(target);
+            boolean threw = true;
+            try {
+                transfer(input.getChannel(), output.getChannel(), throttle);
+                threw = false;
+            } finally {
+                Closeables.close(output, threw);
+            }
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+        target.setLastModified(source.lastModified());
+    }
+
+    private static void transfer(final FileChannel source,
+            final FileChannel target, final IoThrottle throttle)
+            throws IOException {
+        final long size = source.size();
+        long position = 0;
+        while (position < size) {
+            final long transferred = source.transferTo(position,
+                    Math.min(TRANSFER_SIZE, size - position), target);
+            if (transferred == 0) {
+                throw new IOException("File shrank while being copied.");
+            }
+            throttle.acquire(transferred);
+            position += transferred;
+        }
+    }
+}
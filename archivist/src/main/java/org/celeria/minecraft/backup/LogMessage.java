@@ -24,5 +24,20 @@ enum LogMessage {
     PLUGIN_ENABLED,
     PLUGIN_DISABLED,
     BACKING_UP_WORLD,
-    DELETED_BACKUP
+    QUEUED_WORLD,
+    SAVED_WORLD,
+    STAGED_WORLD,
+    STAGED_WORLD_IN_MEMORY,
+    ARCHIVED_WORLD,
+    VERIFIED_BACKUP,
+    SCRUBBED_BACKUP,
+    SCRUB_STATUS,
+    REBUILT_CATALOG,
+    LISTED_BACKUP,
+    WOULD_DELETE_BACKUP,
+    EVICTED_BACKUP,
+    RESTORING_BACKUP,
+    RESTORED_BACKUP,
+    DELETED_BACKUP,
+    WORLD_UNCHANGED
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import com.google.common.io.*;
+import com.google.inject.BindingAnnotation;
+import org.apache.commons.vfs2.*;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Records the CRC-32 and size of every entry as the archive it decorates
+ * reads it, so the manifest costs no extra pass over the world. Entries may
+ * be read on other threads, but all of them have been read once the archive
+ * is finished. The manifest is written once the archive file is complete,
+ * and the backup is then added to the catalog, after which the archive may
+ * be read back and verified against the manifest. An archive closed without
+ * being finished is deleted, since it would otherwise look like a backup
+ * while never being in the catalog for retention to delete.
+ */
+@NotThreadSafe
+class ManifestArchive implements Archive {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface VerifyBackups {}
+
+    private final LocLogger log;
+    private final Archive archive;
+    private final FileObject archiveFile;
+    private final Checksum archiveChecksum;
+    private final ArchiveVerifier verifier;
+    private final boolean verify;
+    private final BackupCatalog catalog;
+    private final String world;
+    private final String parent;
+    private final Map<String, IntegrityManifest.Entry> entries =
+            Collections.synchronizedMap(
+                    Maps.<String, IntegrityManifest.Entry>newHashMap());
+    private boolean finished;
+
+    /**
+     * The checksum must be the one updated with every byte written to the
+     * archive file. The parent is the backup this one was made on top of,
+     * or an empty string if it stands alone.
+     */
+    ManifestArchive(final LocLogger log, final Archive archive,
+            final FileObject archiveFile, final Checksum archiveChecksum,
+            final ArchiveVerifier verifier, final boolean verify,
+            final BackupCatalog catalog, final String world,
+            final String parent) {
+        this.log = log;
+        this.archive = archive;
+        this.archiveFile = archiveFile;
+        this.archiveChecksum = archiveChecksum;
+        this.verifier = verifier;
+        this.verify = verify;
+        this.catalog = catalog;
+        this.world = world;
+        this.parent = parent;
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        try {
+            write(name, content.getLastModifiedTime(),
+                    new FileContentSupplier(content));
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        archive.write(name, time, new InputSupplier<InputStream>() {
+            @Override
+            public InputStream getInput() throws IOException {
+                return new RecordingInputStream(name, time, input.getInput());
+            }
+        });
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        archive.finish();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        boolean closed = false;
+        try {
+            archive.close();
+            closed = true;
+        } finally {
+            if (!closed || !finished) {
+                discard();
+            }
+        }
+        if (finished) {
+            publish();
+        }
+    }
+
+    private void discard() throws ArchiveException {
+        try {
+            archiveFile.delete();
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not delete unfinished backup.",
+                    e);
+        }
+    }
+
+    private void publish() throws ArchiveException {
+        final IntegrityManifest manifest;
+        try {
+            manifest = new IntegrityManifest(entries,
+                    archiveFile.getContent().getSize(),
+                    archiveChecksum.getValue());
+            manifest.writeTo(IntegrityManifest.fileFor(archiveFile));
+            catalog.add(new BackupCatalog.Backup(
+                    archiveFile.getName().getBaseName(), world,
+                    System.currentTimeMillis(), manifest.archiveSize(),
+                    entries.size(), manifest.archiveChecksum(), parent));
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not publish backup.", e);
+        }
+        if (verify) {
+            verify(manifest);
+        }
+    }
+
+    private void verify(final IntegrityManifest manifest) {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        final String name = archiveFile.getName().getBaseName();
+        try {
+            verifier.verify(archiveFile, manifest);
+            log.info(LogMessage.VERIFIED_BACKUP, name,
+                    manifest.entries().size(), stopwatch.elapsedMillis());
+        } catch (final IOException e) {
+            log.error(ErrorMessage.BACKUP_CORRUPT, name, e.getMessage());
+        }
+    }
+
+    /** Records the entry when the archive has read it and closes it. */
+    private final class RecordingInputStream extends FilterInputStream {
+        private final String name;
+        private final long time;
+        private final CRC32 crc = new CRC32();
+        private long size;
+
+        RecordingInputStream(final String name, final long time,
+                final InputStream stream) {
+            super(stream);
+            this.name = name;
+            this.time = time;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1) {
+                crc.update(b);
+                ++size;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            final int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                crc.update(buffer, offset, read);
+                size += read;
+            }
+            return read;
+        }
+
+        /** Skipped bytes would be left out of the CRC, so they must be read. */
+        @Override
+        public long skip(final long count) {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            entries.put(name, new IntegrityManifest.Entry(size, time,
+                    crc.getValue()));
+        }
+    }
+}
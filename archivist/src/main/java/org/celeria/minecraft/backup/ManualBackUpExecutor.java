@@ -16,33 +16,137 @@
 
 package org.celeria.minecraft.backup;
 
+import java.io.*;
+import java.util.*;
 import javax.annotation.concurrent.Immutable;
+import ch.qos.cal10n.IMessageConveyor;
 import com.google.inject.Inject;
+import org.bukkit.*;
 import org.bukkit.command.*;
 import org.bukkit.entity.Player;
+import org.celeria.minecraft.guice.TaskQueue.Priority;
 import org.celeria.minecraft.guice.TaskScheduler;
+import org.slf4j.cal10n.LocLogger;
 
+/**
+ * Backs up every world at once. With the argument "{@code status}" it
+ * instead reports how scrubbing the stored backups is going, and with
+ * "{@code list}", optionally followed by a world, it lists the newest
+ * backups in the catalog. "{@code restore}" followed by a backup and a
+ * folder restores the backup into the folder in the background, optionally
+ * only some region files or the chunks between two corners; it refuses to
+ * restore into the folder of a loaded world or any folder inside it.
+ */
 @Immutable
 class ManualBackUpExecutor implements CommandExecutor {
+    private static final String STATUS_ARGUMENT = "status";
+    private static final String LIST_ARGUMENT = "list";
+    private static final String RESTORE_ARGUMENT = "restore";
+    private static final int LISTED_BACKUPS = 10;
     private final TaskScheduler scheduler;
     private final BackUpWorldsTask task;
+    private final ScrubBackupsTask scrubber;
+    private final BackupCatalog catalog;
+    private final BackupRestorer restorer;
+    private final Server server;
+    private final IMessageConveyor messages;
+    private final LocLogger log;
 
     @Inject
     ManualBackUpExecutor(final TaskScheduler scheduler,
-            final BackUpWorldsTask task) {
+            final BackUpWorldsTask task, final ScrubBackupsTask scrubber,
+            final BackupCatalog catalog, final BackupRestorer restorer,
+            final Server server, final IMessageConveyor messages,
+            final LocLogger log) {
         this.scheduler = scheduler;
-        this.task = task;
+        this.task = task.withPriority(Priority.HIGH);
+        this.scrubber = scrubber;
+        this.catalog = catalog;
+        this.restorer = restorer;
+        this.server = server;
+        this.messages = messages;
+        this.log = log;
     }
 
     @Override
     public boolean onCommand(final CommandSender sender,
             @SuppressWarnings("unused") final Command command,
             @SuppressWarnings("unused") final String label,
-            @SuppressWarnings("unused") final String[] args) {
+            final String[] args) {
         if (invalidSender(sender)) {
             return false;
         }
-        scheduler.runSynchronousTask(task);
+        if (args == null || args.length == 0) {
+            scheduler.runSynchronousTask(task);
+            return true;
+        }
+        if (args.length == 1 && STATUS_ARGUMENT.equals(args[0])) {
+            return sendStatus(sender);
+        }
+        if (args.length <= 2 && LIST_ARGUMENT.equals(args[0])) {
+            return sendBackups(sender, args.length == 2 ? args[1] : null);
+        }
+        if (args.length >= 3 && RESTORE_ARGUMENT.equals(args[0])) {
+            return restore(sender, args[1], args[2], Arrays.asList(args)
+                    .subList(3, args.length));
+        }
+        return false;
+    }
+
+    private boolean restore(final CommandSender sender, final String backup,
+            final String folder, final List<String> selectionArguments) {
+        final ChunkSelection selection =
+                ChunkSelection.parse(selectionArguments);
+        if (selection == null) {
+            return false;
+        }
+        final File target = new File(folder).getAbsoluteFile();
+        try {
+            for (final World world : server.getWorlds()) {
+                if (LocalFiles.isWithin(target, new File(world.getName()))) {
+                    sender.sendMessage(messages.getMessage(
+                            ErrorMessage.CANNOT_RESTORE_INTO_LOADED_WORLD,
+                            world.getName()));
+                    return true;
+                }
+            }
+        } catch (final IOException e) {
+            sender.sendMessage(messages.getMessage(
+                    ErrorMessage.CANNOT_ACCESS_BACKUP));
+            return true;
+        }
+        sender.sendMessage(messages.getMessage(LogMessage.RESTORING_BACKUP,
+                backup, folder));
+        scheduler.runAsynchronousTask(new RestoreBackupTask(log, restorer,
+                backup, target, selection));
+        return true;
+    }
+
+    private boolean sendStatus(final CommandSender sender) {
+        sender.sendMessage(messages.getMessage(LogMessage.SCRUB_STATUS,
+                scrubber.scrubbed(), scrubber.corrupt(),
+                scrubber.lastScrubbed()));
+        return true;
+    }
+
+    private boolean sendBackups(final CommandSender sender,
+            final String world) {
+        final List<BackupCatalog.Backup> backups;
+        try {
+            backups = world == null ? catalog.backups()
+                    : catalog.backupsOf(world);
+        } catch (final IOException e) {
+            sender.sendMessage(messages.getMessage(
+                    ErrorMessage.CANNOT_ACCESS_BACKUP));
+            return true;
+        }
+        final int first = Math.max(0, backups.size() - LISTED_BACKUPS);
+        for (final BackupCatalog.Backup backup
+                : backups.subList(first, backups.size())) {
+            sender.sendMessage(messages.getMessage(LogMessage.LISTED_BACKUP,
+                    backup.name(), new Date(backup.time()), backup.size(),
+                    backup.entries()));
+        }
         return true;
     }
 
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.*;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.celeria.minecraft.backup.OptimisticCopy.Capture;
+
+/**
+ * Stages worlds in direct buffers outside the heap instead of in the
+ * staging folder, so that capturing a small world takes no longer than
+ * reading it and leaves the collector nothing to copy. All the worlds being
+ * backed up share the configured memory; a file that does not fit in what
+ * is left is staged on disk as usual. The memory is given back once a
+ * world's backup is done, although the buffers themselves are only freed
+ * when they are collected.
+ */
+@Singleton @ThreadSafe
+class MemoryStaging {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface StagingMemory {}
+
+    private final long capacity;
+    private final StagingMirror mirror;
+    private final IoThrottle throttle;
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * @param capacity the most bytes to stage in memory at once, or zero to
+     *        stage worlds on disk only
+     */
+    @Inject
+    MemoryStaging(@StagingMemory final long capacity,
+            final StagingMirror mirror, final IoThrottle throttle) {
+        this.capacity = capacity;
+        this.mirror = mirror;
+        this.throttle = throttle;
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    long reservedBytes() {
+        return reserved.get();
+    }
+
+    StagedWorld newStagedWorld() {
+        return new StagedWorld(this);
+    }
+
+    private boolean reserve(final long bytes) {
+        while (true) {
+            final long current = reserved.get();
+            if (current + bytes > capacity) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /** A file that grew while it was read keeps the memory it took. */
+    private void resize(final long from, final long to) {
+        reserved.addAndGet(to - from);
+    }
+
+    private void release(final long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * The files of a world as they were captured, in the order a world's
+     * fingerprint visits them, and the fingerprint of the captured regions.
+     */
+    @NotThreadSafe
+    static final class StagedWorld
+            implements Closeable, WorldFingerprint.Source {
+        private final MemoryStaging staging;
+        private final List<StagedFile> files = Lists.newArrayList();
+        private long reservedBytes;
+        private int filesSpilled;
+        private WorldFingerprint fingerprint;
+
+        private StagedWorld(final MemoryStaging staging) {
+            this.staging = staging;
+        }
+
+        /** Stages what does not fit in memory in the spill folder. */
+        void capture(final File worldFolder, final File spillFolder)
+                throws IOException {
+            final WorldFingerprint.Builder builder =
+                    new WorldFingerprint.Builder();
+            capture(worldFolder, spillFolder, "", builder);
+            fingerprint = builder.build();
+        }
+
+        private void capture(final File folder, final File spillFolder,
+                final String path, final WorldFingerprint.Builder builder)
+                throws IOException {
+            for (final File file : WorldFingerprint.listFiles(folder)) {
+                final String name = path + file.getName();
+                if (file.isDirectory()) {
+                    capture(file, spillFolder, name + "/", builder);
+                    continue;
+                }
+                final StagedFile staged =
+                        stage(name, file, new File(spillFolder, name));
+                files.add(staged);
+                if (RegionFile.isRegionFile(name)) {
+                    staged.addTo(builder);
+                }
+            }
+        }
+
+        /**
+         * Running out of direct memory before the configured amount is
+         * used up is treated the same as the amount being used up.
+         */
+        private StagedFile stage(final String name, final File file,
+                final File copy) throws IOException {
+            final long length = file.length();
+            if (length <= Integer.MAX_VALUE && staging.reserve(length)) {
+                boolean captured = false;
+                try {
+                    final Capture capture =
+                            OptimisticCopy.readDirect(file, staging.throttle);
+                    final long size = capture.contents().capacity();
+                    staging.resize(length, size);
+                    reservedBytes += size;
+                    captured = true;
+                    return new StagedFile(name, capture);
+                } catch (final OutOfMemoryError e) {
+                    // Spill the file to disk below.
+                } finally {
+                    if (!captured) {
+                        staging.release(length);
+                    }
+                }
+            }
+            staging.mirror.synchronizeFile(file, copy);
+            ++filesSpilled;
+            return new StagedFile(name, copy, staging.throttle);
+        }
+
+        List<StagedFile> files() {
+            return files;
+        }
+
+        int filesInMemory() {
+            return files.size() - filesSpilled;
+        }
+
+        int filesSpilled() {
+            return filesSpilled;
+        }
+
+        @Override
+        public WorldFingerprint fingerprint() {
+            Preconditions.checkState(fingerprint != null,
+                    "World has not been captured.");
+            return fingerprint;
+        }
+
+        @Override
+        public void close() {
+            staging.release(reservedBytes);
+            reservedBytes = 0;
+            files.clear();
+        }
+    }
+
+    /** A file staged either in memory or, failing that, on disk. */
+    @Immutable
+    static final class StagedFile {
+        private final String name;
+        private final Capture capture;
+        private final File copy;
+        private final IoThrottle throttle;
+
+        private StagedFile(final String name, final Capture capture) {
+            this.name = name;
+            this.capture = capture;
+            this.copy = null;
+            this.throttle = null;
+        }
+
+        private StagedFile(final String name, final File copy,
+                final IoThrottle throttle) {
+            this.name = name;
+            this.capture = null;
+            this.copy = copy;
+            this.throttle = throttle;
+        }
+
+        String name() {
+            return name;
+        }
+
+        boolean isInMemory() {
+            return capture != null;
+        }
+
+        long length() {
+            return isInMemory() ? capture.contents().remaining()
+                    : copy.length();
+        }
+
+        long lastModified() {
+            return isInMemory() ? capture.lastModified() : copy.lastModified();
+        }
+
+        /** Files staged on disk are read as slowly as the world is. */
+        InputSupplier<? extends InputStream> newInputStreamSupplier() {
+            if (isInMemory()) {
+                return capture.newInputStreamSupplier();
+            }
+            return throttle.throttle(Files.newInputStreamSupplier(copy));
+        }
+
+        private void addTo(final WorldFingerprint.Builder builder)
+                throws IOException {
+            builder.addRegion(name, length(), lastModified(), isInMemory()
+                    ? RegionFile.timestampsOf(capture.contents())
+                    : RegionFile.readTimestamps(copy));
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.*;
+import com.google.common.io.*;
+
+/**
+ * Copies files that the server may be saving at the same time. A file
+ * whose size or modification time changed while it was read is read again;
+ * for a region file, only the chunks whose header entries changed are. A
+ * chunk saved twice within the second its timestamp records leaves no
+ * trace in the header, so chunks stamped since the copy began are always
+ * read again too. Likewise, a file rewritten at the same length within the
+ * second its modification time records looks unchanged, so a copy is only
+ * trusted once that second is over before the copy began; failing that,
+ * the copy waits for it to be and reads again what may have changed.
+ */
+@Immutable
+final class OptimisticCopy {
+    private static final int MAXIMUM_ATTEMPTS = 5;
+    private static final int MILLIS_PER_SECOND = 1000;
+    private OptimisticCopy() {}
+
+    /** Copies a file along with its modification time. */
+    static void copy(final File source, final File target,
+            final IoThrottle throttle) throws IOException {
+        final long lastModified =
+                capture(source, new FileCopy(source, target, throttle));
+        target.setLastModified(lastModified);
+    }
+
+    /** Reads a whole file into memory. */
+    static Capture read(final File source, final IoThrottle throttle)
+            throws IOException {
+        return read(source, throttle, false);
+    }
+
+    /**
+     * Reads a whole file into memory outside the heap, where the collector
+     * has nothing to copy or scan.
+     */
+    static Capture readDirect(final File source, final IoThrottle throttle)
+            throws IOException {
+        return read(source, throttle, true);
+    }
+
+    private static Capture read(final File source, final IoThrottle throttle,
+            final boolean direct) throws IOException {
+        final MemoryCopy copy = new MemoryCopy(source, throttle, direct);
+        final long lastModified = capture(source, copy);
+        return new Capture(copy.contents(), lastModified);
+    }
+
+    /** Returns the modification time of the captured contents. */
+    private static long capture(final File source, final Copy copy)
+            throws IOException {
+        if (RegionFile.isRegionFile(source.getName())) {
+            return captureRegion(source, copy);
+        }
+        return captureFile(source, copy);
+    }
+
+    private static long captureFile(final File source, final Copy copy)
+            throws IOException {
+        for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; ++attempt) {
+            final long startSeconds = currentSeconds() - 1;
+            final FileState before = FileState.of(source);
+            try {
+                copy.copyWhole();
+            } catch (final IOException e) {
+                if (before.equals(FileState.of(source))) {
+                    throw e;
+                }
+                continue;
+            }
+            final FileState after = FileState.of(source);
+            if (before.equals(after)) {
+                if (after.seconds() < startSeconds) {
+                    return after.lastModified;
+                }
+                awaitSecondAfter(after.seconds());
+            }
+        }
+        throw new IOException(source + " kept changing while copied.");
+    }
+
+    /**
+     * Each pass either copies the whole region or, when the header tells
+     * which chunks changed during the last pass, only those chunks.
+     */
+    private static long captureRegion(final File source, final Copy copy)
+            throws IOException {
+        int passes = 0;
+        while (passes < MAXIMUM_ATTEMPTS) {
+            long startSeconds = currentSeconds() - 1;
+            FileState before = FileState.of(source);
+            int[] header = readHeader(source);
+            copy.copyWhole();
+            ++passes;
+            while (true) {
+                final FileState after = FileState.of(source);
+                if (after.equals(before) && after.seconds() < startSeconds) {
+                    return after.lastModified;
+                }
+                final int[] newHeader = readHeader(source);
+                final BitSet changed = changedChunks(header, newHeader,
+                        startSeconds);
+                if (changed.isEmpty() && after.equals(before)) {
+                    // Nothing was saved since the copy began.
+                    return after.lastModified;
+                }
+                if (changed.isEmpty() || passes == MAXIMUM_ATTEMPTS) {
+                    break;
+                }
+                awaitSecondAfter(latestSecondOf(newHeader, changed,
+                        after.seconds()));
+                startSeconds = currentSeconds() - 1;
+                copy.copyChunks(newHeader, changed, after.length);
+                ++passes;
+                before = after;
+                header = newHeader;
+            }
+        }
+        throw new IOException(source + " kept changing while copied.");
+    }
+
+    private static long currentSeconds() {
+        return System.currentTimeMillis() / MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Waits until a read would begin after the given second is over, even
+     * allowing for the copy's start being taken a second early. A second
+     * still to come, as a bogus timestamp may claim, is taken to be now.
+     */
+    private static void awaitSecondAfter(final long second)
+            throws InterruptedIOException {
+        final long delay = (Math.min(second, currentSeconds()) + 2)
+                * MILLIS_PER_SECOND
+                - System.currentTimeMillis();
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static long latestSecondOf(final int[] header,
+            final BitSet chunks, final long fileSecond) {
+        long latest = fileSecond;
+        for (int i = chunks.nextSetBit(0); i >= 0;
+                i = chunks.nextSetBit(i + 1)) {
+            latest = Math.max(latest,
+                    header[RegionFile.CHUNKS + i] & 0xFFFFFFFFL);
+        }
+        return latest;
+    }
+
+    private static int[] readHeader(final File region) throws IOException {
+        final int[] header = new int[2 * RegionFile.CHUNKS];
+        final FileInputStream input = new FileInputStream(region);
+        try {
+            final ByteBuffer buffer =
+                    ByteBuffer.allocate(RegionFile.HEADER_SIZE);
+            readFully(input.getChannel(), buffer, 0);
+            buffer.flip();
+            buffer.asIntBuffer().get(header, 0, buffer.remaining() / 4);
+            return header;
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+    }
+
+    /**
+     * A chunk has changed if it moved, was stamped again, or was stamped in
+     * the same second as the copy began.
+     */
+    private static BitSet changedChunks(final int[] header,
+            final int[] newHeader, final long startSeconds) {
+        final BitSet changed = new BitSet(RegionFile.CHUNKS);
+        for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+            final int timestamp = newHeader[RegionFile.CHUNKS + i];
+            if (header[i] != newHeader[i]
+                    || header[RegionFile.CHUNKS + i] != timestamp
+                    || (timestamp & 0xFFFFFFFFL) >= startSeconds) {
+                changed.set(i);
+            }
+        }
+        return changed;
+    }
+
+    /** Reads until the buffer is full or the channel ends. */
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buffer, final long position) throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining() && channel.read(buffer,
+                position + buffer.position() - start) >= 0) {
+            continue;
+        }
+    }
+
+    private static ByteBuffer headerOf(final int[] header) {
+        final ByteBuffer buffer = ByteBuffer.allocate(RegionFile.HEADER_SIZE);
+        buffer.asIntBuffer().put(header);
+        return buffer;
+    }
+
+    /** Where a capture goes, and how it reads the source. */
+    @NotThreadSafe
+    private abstract static class Copy {
+        final File source;
+        final IoThrottle throttle;
+
+        Copy(final File source, final IoThrottle throttle) {
+            this.source = source;
+            this.throttle = throttle;
+        }
+
+        abstract void copyWhole() throws IOException;
+
+        /**
+         * Reads the changed chunks where the new header places them, then
+         * writes the new header over the copied one.
+         */
+        void copyChunks(final int[] header, final BitSet changed,
+                final long length) throws IOException {
+            final FileInputStream input = new FileInputStream(source);
+            try {
+                resize(length);
+                for (int i = changed.nextSetBit(0); i >= 0;
+                        i = changed.nextSetBit(i + 1)) {
+                    final long start = (long) (header[i] >>> 8)
+                            * RegionFile.SECTOR_SIZE;
+                    final long end = Math.min(length, start
+                            + (long) (header[i] & 0xFF)
+                                    * RegionFile.SECTOR_SIZE);
+                    if (header[i] != 0 && start >= RegionFile.HEADER_SIZE
+                            && end > start) {
+                        throttle.acquire(end - start);
+                        copyRange(input.getChannel(), start, end);
+                    }
+                }
+                writeHeader(headerOf(header));
+            } finally {
+                Closeables.closeQuietly(input);
+            }
+        }
+
+        abstract void resize(long length) throws IOException;
+
+        abstract void copyRange(FileChannel input, long start, long end)
+                throws IOException;
+
+        abstract void writeHeader(ByteBuffer header) throws IOException;
+    }
+
+    @NotThreadSafe
+    private static final class FileCopy extends Copy {
+        private final File target;
+        private RandomAccessFile output;
+
+        FileCopy(final File source, final File target,
+                final IoThrottle throttle) {
+            super(source, throttle);
+            this.target = target;
+        }
+
+        @Override
+        void copyWhole() throws IOException {
+            LocalFiles.copy(source, target, throttle);
+        }
+
+        @Override
+        void copyChunks(final int[] header, final BitSet changed,
+                final long length) throws IOException {
+            output = new RandomAccessFile(target, "rw");
+            boolean threw = true;
+            try {
+                super.copyChunks(header, changed, length);
+                threw = false;
+            } finally {
+                Closeables.close(output, threw);
+                output = null;
+            }
+        }
+
+        @Override
+        void resize(final long length) throws IOException {
+            output.setLength(length);
+        }
+
+        @Override
+        void copyRange(final FileChannel input, final long start,
+                final long end) throws IOException {
+            final FileChannel channel = output.getChannel().position(start);
+            long position = start;
+            while (position < end) {
+                final long transferred =
+                        input.transferTo(position, end - position, channel);
+                if (transferred == 0) {
+                    return;
+                }
+                position += transferred;
+            }
+        }
+
+        @Override
+        void writeHeader(final ByteBuffer header) throws IOException {
+            output.getChannel().write(header, 0);
+        }
+    }
+
+    @NotThreadSafe
+    private static final class MemoryCopy extends Copy {
+        private final boolean direct;
+        private ByteBuffer contents = ByteBuffer.allocate(0);
+
+        MemoryCopy(final File source, final IoThrottle throttle,
+                final boolean direct) {
+            super(source, throttle);
+            this.direct = direct;
+        }
+
+        private ByteBuffer allocate(final int capacity) {
+            return direct ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity);
+        }
+
+        ByteBuffer contents() {
+            final ByteBuffer result = contents.duplicate();
+            result.rewind();
+            return result;
+        }
+
+        @Override
+        void copyWhole() throws IOException {
+            final FileInputStream input = new FileInputStream(source);
+            try {
+                final FileChannel channel = input.getChannel();
+                contents = allocate(
+                        (int) Math.min(Integer.MAX_VALUE, channel.size()));
+                readFully(channel, contents, 0);
+                throttle.acquire(contents.position());
+                contents.flip();
+            } finally {
+                Closeables.closeQuietly(input);
+            }
+        }
+
+        @Override
+        void resize(final long length) {
+            if (length > contents.capacity()) {
+                final ByteBuffer larger = allocate((int) length);
+                contents.rewind();
+                larger.put(contents);
+                contents = larger;
+            }
+            contents.limit((int) length);
+        }
+
+        @Override
+        void copyRange(final FileChannel input, final long start,
+                final long end) throws IOException {
+            final ByteBuffer range = contents.duplicate();
+            range.limit((int) end).position((int) start);
+            readFully(input, range, start);
+        }
+
+        @Override
+        void writeHeader(final ByteBuffer header) {
+            final ByteBuffer target = contents.duplicate();
+            target.position(0);
+            target.put(header);
+        }
+    }
+
+    /** The contents of a file as of its modification time. */
+    @Immutable
+    static final class Capture {
+        private final ByteBuffer contents;
+        private final long lastModified;
+
+        Capture(final ByteBuffer contents, final long lastModified) {
+            this.contents = contents;
+            this.lastModified = lastModified;
+        }
+
+        ByteBuffer contents() {
+            return contents.duplicate();
+        }
+
+        long lastModified() {
+            return lastModified;
+        }
+
+        /** Supplies streams over the contents, on the heap or off it. */
+        InputSupplier<? extends InputStream> newInputStreamSupplier() {
+            if (contents.hasArray()) {
+                return ByteStreams.newInputStreamSupplier(contents.array(),
+                        contents.arrayOffset() + contents.position(),
+                        contents.remaining());
+            }
+            return new InputSupplier<InputStream>() {
+                @Override
+                public InputStream getInput() {
+                    return new BufferInputStream(contents.duplicate());
+                }
+            };
+        }
+    }
+
+    @NotThreadSafe
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset,
+                final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long count) {
+            final int skipped = (int) Math.max(0,
+                    Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    @Immutable
+    private static final class FileState {
+        private final long length;
+        private final long lastModified;
+
+        private FileState(final long length, final long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        static FileState of(final File file) {
+            return new FileState(file.length(), file.lastModified());
+        }
+
+        long seconds() {
+            return lastModified / MILLIS_PER_SECOND;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof FileState)) {
+                return false;
+            }
+            final FileState state = (FileState) object;
+            return state.length == length
+                    && state.lastModified == lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (length ^ lastModified);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.io.FileNotFoundException;
+import java.util.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.joda.time.Instant;
+
+/**
+ * Keeps blocks deflated in pack files of up to 64 MiB inside the backup
+ * folder. An append-only index maps each block to its pack; the index of
+ * every stored block is held in memory once the repository is first used.
+ * Each pack record is the block's id, its compressed length and its
+ * compressed data, so the index can always be rebuilt from the packs.
+ */
+@Singleton @ThreadSafe
+class PackFileRepository implements BlockRepository {
+    private static final String REPOSITORY_FOLDER = "repository";
+    private static final String PACK_FOLDER = "packs";
+    private static final String SNAPSHOT_FOLDER = "snapshots";
+    private static final String INDEX_FILE = "index";
+    private static final String PACK_EXTENSION = ".pack";
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final long MAXIMUM_PACK_SIZE = 64L << 20;
+    private final FileProvider<FileObject> backupFolderProvider;
+    private final CompressionLevel compressionLevel;
+    @GuardedBy("this") private Map<BlockId, Location> index;
+    @GuardedBy("this") private final List<BlockId> unindexedBlocks =
+            Lists.newArrayList();
+    @GuardedBy("this") private int sessions;
+    @GuardedBy("this") private int nextPack;
+    @GuardedBy("this") private int currentPack;
+    @GuardedBy("this") private CountingOutputStream packOutput;
+
+    @Inject
+    PackFileRepository(
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            final CompressionLevel compressionLevel) {
+        this.backupFolderProvider = backupFolderProvider;
+        this.compressionLevel = compressionLevel;
+    }
+
+    @Immutable
+    private static final class Location {
+        private final int pack;
+        private final long offset;
+        private final int length;
+
+        Location(final int pack, final long offset, final int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    @Override
+    public synchronized void beginSession() {
+        ++sessions;
+    }
+
+    @Override
+    public synchronized void endSession() throws IOException {
+        --sessions;
+        flush();
+        if (sessions == 0) {
+            closePack();
+        }
+    }
+
+    @Override
+    public BlockId store(final byte[] data, final int offset,
+            final int length) throws IOException {
+        final BlockId id = BlockId.of(data, offset, length);
+        if (contains(id)) {
+            return id;
+        }
+        final byte[] compressed = deflate(data, offset, length);
+        synchronized (this) {
+            if (!index.containsKey(id)) {
+                append(id, compressed);
+            }
+        }
+        return id;
+    }
+
+    private synchronized boolean contains(final BlockId id)
+            throws IOException {
+        load();
+        return index.containsKey(id);
+    }
+
+    private byte[] deflate(final byte[] data, final int offset,
+            final int length) throws IOException {
+        final Deflater deflater = new Deflater(compressionLevel.asInteger());
+        try {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DeflaterOutputStream output = new DeflaterOutputStream(
+                    buffer, deflater);
+            output.write(data, offset, length);
+            output.finish();
+            return buffer.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public synchronized byte[] fetch(final BlockId id) throws IOException {
+        load();
+        flush();
+        final Location location = index.get(id);
+        if (location == null) {
+            throw new FileNotFoundException(id.toString());
+        }
+        final RandomAccessContent content = packFile(location.pack)
+                .getContent().getRandomAccessContent(RandomAccessMode.READ);
+        try {
+            return inflate(readBlock(content, location));
+        } finally {
+            content.close();
+        }
+    }
+
+    private static byte[] inflate(final byte[] compressed) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            return ByteStreams.toByteArray(new InflaterInputStream(
+                    new ByteArrayInputStream(compressed), inflater));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @GuardedBy("this")
+    private void append(final BlockId id, final byte[] compressed)
+            throws IOException {
+        if (packOutput == null || packOutput.getCount() >= MAXIMUM_PACK_SIZE) {
+            startPack();
+        }
+        final DataOutputStream output = new DataOutputStream(packOutput);
+        id.writeTo(output);
+        output.writeInt(compressed.length);
+        final long offset = packOutput.getCount();
+        output.write(compressed);
+        index.put(id, new Location(currentPack, offset, compressed.length));
+        unindexedBlocks.add(id);
+    }
+
+    @GuardedBy("this")
+    private void startPack() throws IOException {
+        closePack();
+        currentPack = nextPack++;
+        packOutput = new CountingOutputStream(new BufferedOutputStream(
+                packFile(currentPack).getContent().getOutputStream()));
+    }
+
+    @GuardedBy("this")
+    private void closePack() throws IOException {
+        if (packOutput != null) {
+            packOutput.close();
+            packOutput = null;
+        }
+    }
+
+    /** Blocks are only indexed once their pack has been written out. */
+    @GuardedBy("this")
+    private void flush() throws IOException {
+        if (packOutput != null) {
+            packOutput.flush();
+        }
+        if (unindexedBlocks.isEmpty()) {
+            return;
+        }
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(folder().resolveFile(INDEX_FILE)
+                        .getContent().getOutputStream(true)));
+        boolean threw = true;
+        try {
+            writeIndex(output, unindexedBlocks);
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+        unindexedBlocks.clear();
+    }
+
+    @GuardedBy("this")
+    private void writeIndex(final DataOutput output,
+            final Collection<BlockId> blocks) throws IOException {
+        for (final BlockId id : blocks) {
+            final Location location = index.get(id);
+            id.writeTo(output);
+            output.writeInt(location.pack);
+            output.writeLong(location.offset);
+            output.writeInt(location.length);
+        }
+    }
+
+    @GuardedBy("this")
+    private void load() throws IOException {
+        if (index != null) {
+            return;
+        }
+        folder().resolveFile(PACK_FOLDER).createFolder();
+        folder().resolveFile(SNAPSHOT_FOLDER).createFolder();
+        index = Maps.newHashMap();
+        final FileObject indexFile = folder().resolveFile(INDEX_FILE);
+        if (indexFile.exists()) {
+            readIndex(indexFile);
+        }
+        nextPack = highestPackNumber() + 1;
+    }
+
+    /** A record cut short by a crash ends the index. */
+    @GuardedBy("this")
+    private void readIndex(final FileObject indexFile) throws IOException {
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(
+                        indexFile.getContent().getInputStream()));
+        try {
+            while (true) {
+                final BlockId id = BlockId.readFrom(input);
+                index.put(id, new Location(input.readInt(), input.readLong(),
+                        input.readInt()));
+            }
+        } catch (final EOFException e) {
+            return;
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+    }
+
+    @GuardedBy("this")
+    private int highestPackNumber() throws FileSystemException {
+        int highest = -1;
+        for (final FileObject pack : folder().resolveFile(PACK_FOLDER)
+                .getChildren()) {
+            final String name = pack.getName().getBaseName();
+            if (name.endsWith(PACK_EXTENSION)) {
+                highest = Math.max(highest, Integer.parseInt(
+                        name.substring(0, name.length()
+                                - PACK_EXTENSION.length())));
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public synchronized void writeSnapshot(final String name,
+            final Snapshot snapshot) throws IOException {
+        load();
+        flush();
+        final FileObject file = snapshotFile(name);
+        final FileObject temporaryFile = snapshotFile(name
+                + TEMPORARY_EXTENSION);
+        final OutputStream output =
+                temporaryFile.getContent().getOutputStream();
+        boolean threw = true;
+        try {
+            snapshot.writeTo(output);
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+        file.delete();
+        temporaryFile.moveTo(file);
+    }
+
+    @Override
+    public synchronized List<String> deleteSnapshotsOlderThan(
+            final Instant time) throws IOException {
+        final List<String> deleted = Lists.newArrayList();
+        for (final FileObject snapshot : snapshotFiles()) {
+            final long lastModified =
+                    snapshot.getContent().getLastModifiedTime();
+            if (new Instant(lastModified).isBefore(time)) {
+                snapshot.delete();
+                deleted.add(snapshot.getName().getBaseName());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Marks every block referred to by a snapshot, then copies the live
+     * blocks out of each pack holding dead ones and deletes that pack.
+     */
+    @Override
+    public synchronized void collectGarbage() throws IOException {
+        if (sessions > 0 || !folder().exists()) {
+            return;
+        }
+        load();
+        closePack();
+        sweep(markLiveBlocks());
+    }
+
+    @GuardedBy("this")
+    private Set<BlockId> markLiveBlocks() throws IOException {
+        final Set<BlockId> live = Sets.newHashSet();
+        for (final FileObject file : snapshotFiles()) {
+            for (final Snapshot.Entry entry : readSnapshot(file).entries()) {
+                live.addAll(entry.blocks());
+            }
+        }
+        return live;
+    }
+
+    private static Snapshot readSnapshot(final FileObject file)
+            throws IOException {
+        final InputStream input = file.getContent().getInputStream();
+        boolean threw = true;
+        try {
+            final Snapshot snapshot = Snapshot.readFrom(input);
+            threw = false;
+            return snapshot;
+        } finally {
+            Closeables.close(input, threw);
+        }
+    }
+
+    @GuardedBy("this")
+    private void sweep(final Set<BlockId> live) throws IOException {
+        final Multimap<Integer, BlockId> blocksByPack = HashMultimap.create();
+        for (final Map.Entry<BlockId, Location> entry : index.entrySet()) {
+            blocksByPack.put(entry.getValue().pack, entry.getKey());
+        }
+        final Set<Integer> deadPacks = Sets.newHashSet();
+        for (final Integer pack : blocksByPack.keySet()) {
+            final Collection<BlockId> blocks = blocksByPack.get(pack);
+            if (!live.containsAll(blocks)) {
+                copyLiveBlocks(pack, blocks, live);
+                deadPacks.add(pack);
+            }
+        }
+        if (deadPacks.isEmpty()) {
+            return;
+        }
+        closePack();
+        index.keySet().retainAll(live);
+        rewriteIndex();
+        for (final Integer pack : deadPacks) {
+            packFile(pack).delete();
+        }
+    }
+
+    @GuardedBy("this")
+    private void copyLiveBlocks(final int pack,
+            final Collection<BlockId> blocks, final Set<BlockId> live)
+            throws IOException {
+        final RandomAccessContent content = packFile(pack).getContent()
+                .getRandomAccessContent(RandomAccessMode.READ);
+        try {
+            for (final BlockId id : blocks) {
+                if (live.contains(id)) {
+                    append(id, readBlock(content, index.get(id)));
+                }
+            }
+        } finally {
+            content.close();
+        }
+    }
+
+    private static byte[] readBlock(final RandomAccessContent content,
+            final Location location) throws IOException {
+        final byte[] compressed = new byte[location.length];
+        content.seek(location.offset);
+        content.readFully(compressed);
+        return compressed;
+    }
+
+    @GuardedBy("this")
+    private void rewriteIndex() throws IOException {
+        final FileObject file = folder().resolveFile(INDEX_FILE);
+        final FileObject temporaryFile = folder().resolveFile(INDEX_FILE
+                + TEMPORARY_EXTENSION);
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(
+                        temporaryFile.getContent().getOutputStream()));
+        boolean threw = true;
+        try {
+            writeIndex(output, index.keySet());
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+        file.delete();
+        temporaryFile.moveTo(file);
+        unindexedBlocks.clear();
+    }
+
+    private List<FileObject> snapshotFiles() throws FileSystemException {
+        final List<FileObject> files = Lists.newArrayList();
+        final FileObject snapshots = folder().resolveFile(SNAPSHOT_FOLDER);
+        if (!snapshots.exists()) {
+            return files;
+        }
+        for (final FileObject file : snapshots.getChildren()) {
+            if (file.getName().getBaseName().endsWith(SNAPSHOT_EXTENSION)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private FileObject snapshotFile(final String name)
+            throws FileSystemException {
+        return folder().resolveFile(SNAPSHOT_FOLDER + "/" + name
+                + SNAPSHOT_EXTENSION);
+    }
+
+    private FileObject packFile(final int pack) throws FileSystemException {
+        return folder().resolveFile(PACK_FOLDER + "/" + pack + PACK_EXTENSION);
+    }
+
+    private FileObject folder() throws FileSystemException {
+        return backupFolderProvider.get().resolveFile(REPOSITORY_FOLDER);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.Lists;
+import com.google.common.io.*;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.BindingAnnotation;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Compresses each entry on its own thread and writes the results to the
+ * archive in the order they were submitted. Only a bounded number of
+ * compressed entries are held in memory at any one time. Entries that are
+ * not worth compressing are stored.
+ */
+@NotThreadSafe
+class ParallelZipArchive implements Archive {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface CompressionExecutor {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface CompressionThreads {}
+
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+    private final ExecutorService executor;
+    private final ZipWriter writer;
+    private final CompressionPolicy policy;
+    private final DeflaterPool deflaters;
+    private final BufferPool buffers;
+    private final int maximumPendingEntries;
+    private final Queue<Future<CompressedEntry>> pendingEntries =
+            Lists.newLinkedList();
+
+    ParallelZipArchive(final ExecutorService executor, final ZipWriter writer,
+            final CompressionPolicy policy, final DeflaterPool deflaters,
+            final BufferPool buffers, final int threads) {
+        this.executor = executor;
+        this.writer = writer;
+        this.policy = policy;
+        this.deflaters = deflaters;
+        this.buffers = buffers;
+        this.maximumPendingEntries = threads * PENDING_ENTRIES_PER_THREAD;
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        try {
+            write(name, content.getLastModifiedTime(),
+                    new FileContentSupplier(content));
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        try {
+            pendingEntries.add(executor.submit(new CompressTask(name, time,
+                    input)));
+            while (pendingEntries.size() > maximumPendingEntries) {
+                writeNextEntry();
+            }
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        try {
+            writePendingEntries();
+            writer.finish();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not finish archive.", e);
+        }
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        try {
+            cancelPendingEntries();
+            writer.close();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not close archive.", e);
+        }
+    }
+
+    private void writePendingEntries() throws IOException {
+        while (!pendingEntries.isEmpty()) {
+            writeNextEntry();
+        }
+    }
+
+    private void writeNextEntry() throws IOException {
+        final CompressedEntry compressed = nextEntry();
+        writer.write(compressed.entry, compressed.data);
+    }
+
+    private CompressedEntry nextEntry() throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(pendingEntries.remove());
+        } catch (final ExecutionException e) {
+            throw new ArchiveException("Could not compress file.",
+                    e.getCause());
+        }
+    }
+
+    private void cancelPendingEntries() {
+        for (final Future<CompressedEntry> entry : pendingEntries) {
+            entry.cancel(true);
+        }
+        pendingEntries.clear();
+    }
+
+    @Immutable
+    private static final class CompressedEntry {
+        private final ZipWriter.Entry entry;
+        private final byte[] data;
+
+        CompressedEntry(final ZipWriter.Entry entry, final byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
+    @Immutable
+    private final class CompressTask implements Callable<CompressedEntry> {
+        private final String name;
+        private final long time;
+        private final InputSupplier<? extends InputStream> input;
+
+        CompressTask(final String name, final long time,
+                final InputSupplier<? extends InputStream> input) {
+            this.name = name;
+            this.time = time;
+            this.input = input;
+        }
+
+        @Override
+        public CompressedEntry call() throws IOException {
+            final InputStream stream = input.getInput();
+            boolean threw = true;
+            try {
+                final CompressedEntry entry = compress(stream);
+                threw = false;
+                return entry;
+            } finally {
+                Closeables.close(stream, threw);
+            }
+        }
+
+        private CompressedEntry compress(final InputStream stream)
+                throws IOException {
+            final byte[] buffer = buffers.acquire();
+            try {
+                return compress(stream, buffer);
+            } finally {
+                buffers.release(buffer);
+            }
+        }
+
+        private CompressedEntry compress(final InputStream stream,
+                final byte[] buffer) throws IOException {
+            final int length = ByteStreams.read(stream, buffer, 0,
+                    buffer.length);
+            final CompressionLevel level =
+                    policy.levelFor(name, buffer, length);
+            if (level == CompressionLevel.NONE) {
+                return store(buffer, length, stream);
+            }
+            final Deflater deflater = deflaters.acquire(level);
+            try {
+                return deflate(deflater, buffer, length, stream);
+            } finally {
+                deflaters.release(deflater);
+            }
+        }
+
+        private CompressedEntry store(final byte[] sample, final int length,
+                final InputStream stream) throws IOException {
+            final CRC32 crc = new CRC32();
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final long size = copy(sample, length, stream,
+                    new CheckedOutputStream(buffer, crc));
+            final ZipWriter.Entry entry = new ZipWriter.Entry(name, time,
+                    ZipEntry.STORED, crc.getValue(), size);
+            return new CompressedEntry(entry, buffer.toByteArray());
+        }
+
+        private CompressedEntry deflate(final Deflater deflater,
+                final byte[] sample, final int length,
+                final InputStream stream) throws IOException {
+            final CRC32 crc = new CRC32();
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DeflaterOutputStream output = new DeflaterOutputStream(
+                    buffer, deflater);
+            final long size = copy(sample, length, stream,
+                    new CheckedOutputStream(output, crc));
+            output.finish();
+            final ZipWriter.Entry entry = new ZipWriter.Entry(name, time,
+                    ZipEntry.DEFLATED, crc.getValue(), size);
+            return new CompressedEntry(entry, buffer.toByteArray());
+        }
+
+        /** Copies the rest of the stream through the sample's buffer. */
+        private long copy(final byte[] buffer, final int length,
+                final InputStream stream, final OutputStream output)
+                throws IOException {
+            long size = 0;
+            for (int read = length; read > 0; read = stream.read(buffer)) {
+                output.write(buffer, 0, read);
+                size += read;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.*;
+import javax.annotation.concurrent.*;
+import com.google.common.io.*;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.BindingAnnotation;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Reads, compresses and writes entries at the same time. The thread that
+ * writes entries to the archive only reads them, handing their blocks to a
+ * thread that compresses them, which hands the compressed blocks to a
+ * thread that writes them. Half of the memory the pipeline may use holds
+ * blocks waiting to be compressed and the other half holds blocks waiting
+ * to be written, so a slow stage makes the stages before it wait. Every
+ * wait gives up once any stage has failed, so a failure never leaves a
+ * stage or the thread writing entries waiting for good.
+ */
+@NotThreadSafe
+class PipelinedZipArchive implements Archive {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface PipelineThreads {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface PipelineMemory {}
+
+    /** The first block of an entry is what decides how to compress it. */
+    static final int BLOCK_SIZE = BufferPool.BLOCK_SIZE;
+    private static final long POLL_MILLIS = 100;
+    private final ZipWriter writer;
+    private final CompressionPolicy policy;
+    private final DeflaterPool deflaters;
+    private final BufferPool buffers;
+    private final BlockingQueue<Block> readBlocks;
+    private final BlockingQueue<Block> compressedBlocks;
+    private final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+    private final Thread compressor;
+    private final Thread archiveWriter;
+    private boolean finished;
+
+    PipelinedZipArchive(final ThreadFactory threadFactory,
+            final ZipWriter writer, final CompressionPolicy policy,
+            final DeflaterPool deflaters, final BufferPool buffers,
+            final long memory) {
+        this.writer = writer;
+        this.policy = policy;
+        this.deflaters = deflaters;
+        this.buffers = buffers;
+        final int capacity = (int) Math.max(1, memory / 2 / BLOCK_SIZE);
+        this.readBlocks = new ArrayBlockingQueue<Block>(capacity);
+        this.compressedBlocks = new ArrayBlockingQueue<Block>(capacity);
+        this.compressor = threadFactory.newThread(new Compressor());
+        this.archiveWriter = threadFactory.newThread(new ArchiveWriter());
+        compressor.start();
+        archiveWriter.start();
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        try {
+            write(name, content.getLastModifiedTime(),
+                    new FileContentSupplier(content));
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        try {
+            final InputStream stream = input.getInput();
+            boolean threw = true;
+            try {
+                read(name, time, stream);
+                threw = false;
+            } finally {
+                Closeables.close(stream, threw);
+            }
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    private void read(final String name, final long time,
+            final InputStream stream) throws IOException {
+        put(readBlocks, Block.begin(name, time));
+        while (true) {
+            final byte[] data = buffers.acquire();
+            final int length = ByteStreams.read(stream, data, 0, data.length);
+            if (length == 0) {
+                buffers.release(data);
+                break;
+            }
+            put(readBlocks, Block.data(data, length));
+        }
+        put(readBlocks, Block.end(0, 0));
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        try {
+            put(readBlocks, Block.FINISH);
+            while (archiveWriter.isAlive()) {
+                checkStages();
+                Uninterruptibles.joinUninterruptibly(archiveWriter,
+                        POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            checkStages();
+            finished = true;
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not finish archive.", e);
+        }
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        if (!finished) {
+            compressor.interrupt();
+            archiveWriter.interrupt();
+        }
+        Uninterruptibles.joinUninterruptibly(compressor);
+        Uninterruptibles.joinUninterruptibly(archiveWriter);
+        try {
+            writer.close();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not close archive.", e);
+        }
+    }
+
+    /** Waits for room in the queue, giving up if a later stage failed. */
+    private void put(final BlockingQueue<Block> queue, final Block block)
+            throws IOException {
+        try {
+            while (!queue.offer(block, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkStages();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkStages() throws ArchiveException {
+        final Throwable cause = failure.get();
+        if (cause != null) {
+            throw new ArchiveException("Could not write file to archive.",
+                    cause);
+        }
+    }
+
+    /** Records why a stage failed so that the other stages give up. */
+    private abstract class Stage implements Runnable {
+        @Override
+        public final void run() {
+            try {
+                process();
+            } catch (final IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (final RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        abstract void process() throws IOException;
+    }
+
+    /** Waits for a block, giving up if another stage failed. */
+    private Block take(final BlockingQueue<Block> queue) throws IOException {
+        try {
+            Block block = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            while (block == null) {
+                checkStages();
+                block = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return block;
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Immutable
+    private static final class Block {
+        static final Block FINISH = new Block(null, 0, null, 0, 0, 0);
+        private final String name;
+        private final long time;
+        private final byte[] data;
+        private final int length;
+        private final long crc;
+        private final long size;
+
+        private Block(final String name, final long time, final byte[] data,
+                final int length, final long crc, final long size) {
+            this.name = name;
+            this.time = time;
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        static Block begin(final String name, final long time) {
+            return new Block(name, time, null, 0, 0, 0);
+        }
+
+        static Block data(final byte[] data, final int length) {
+            return new Block(null, 0, data, length, 0, 0);
+        }
+
+        static Block end(final long crc, final long size) {
+            return new Block(null, 0, null, 0, crc, size);
+        }
+
+        boolean isBegin() {
+            return name != null;
+        }
+
+        boolean isData() {
+            return data != null;
+        }
+    }
+
+    /**
+     * Deflates each entry with one {@link Deflater}, deciding how hard to
+     * compress it from its first block.
+     */
+    @NotThreadSafe
+    private final class Compressor extends Stage {
+        private final Deflater deflater =
+                deflaters.acquire(policy.defaultLevel());
+        private final CRC32 crc = new CRC32();
+        private String name;
+        private long time;
+        private long size;
+        private boolean begun;
+
+        @Override
+        void process() throws IOException {
+            try {
+                compress();
+            } finally {
+                deflaters.release(deflater);
+            }
+        }
+
+        private void compress() throws IOException {
+            for (Block block = take(readBlocks); block != Block.FINISH;
+                    block = take(readBlocks)) {
+                if (block.isBegin()) {
+                    name = block.name;
+                    time = block.time;
+                    begun = false;
+                } else if (block.isData()) {
+                    begin(block.data, block.length);
+                    deflate(block.data, block.length);
+                    buffers.release(block.data);
+                } else {
+                    begin(block.data, 0);
+                    end();
+                }
+            }
+            put(compressedBlocks, Block.FINISH);
+        }
+
+        private void begin(final byte[] sample, final int length)
+                throws IOException {
+            if (begun) {
+                return;
+            }
+            begun = true;
+            size = 0;
+            crc.reset();
+            deflater.reset();
+            deflater.setLevel(policy.levelFor(name, sample, length)
+                    .asInteger());
+            put(compressedBlocks, Block.begin(name, time));
+        }
+
+        private void deflate(final byte[] data, final int length)
+                throws IOException {
+            crc.update(data, 0, length);
+            size += length;
+            deflater.setInput(data, 0, length);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private void end() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+            put(compressedBlocks, Block.end(crc.getValue(), size));
+        }
+
+        private void drain() throws IOException {
+            final byte[] buffer = buffers.acquire();
+            final int length = deflater.deflate(buffer);
+            if (length > 0) {
+                put(compressedBlocks, Block.data(buffer, length));
+            } else {
+                buffers.release(buffer);
+            }
+        }
+    }
+
+    @NotThreadSafe
+    private final class ArchiveWriter extends Stage {
+        @Override
+        void process() throws IOException {
+            for (Block block = take(compressedBlocks); block != Block.FINISH;
+                    block = take(compressedBlocks)) {
+                if (block.isBegin()) {
+                    writer.beginEntry(block.name, block.time,
+                            ZipEntry.DEFLATED);
+                } else if (block.isData()) {
+                    writer.writeEntryData(block.data, 0, block.length);
+                    buffers.release(block.data);
+                } else {
+                    writer.endEntry(block.crc, block.size);
+                }
+            }
+            writer.finish();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.InputStream;
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.common.io.InputSupplier;
+import org.apache.commons.vfs2.FileContent;
+
+/**
+ * Gives back the room reserved for a backup under the quota once its
+ * archive is closed, by which time a finished backup is in the catalog.
+ */
+@NotThreadSafe
+class QuotaArchive implements Archive {
+    private final Archive archive;
+    private final BackupQuota quota;
+    private final String world;
+
+    QuotaArchive(final Archive archive, final BackupQuota quota,
+            final String world) {
+        this.archive = archive;
+        this.quota = quota;
+        this.world = world;
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        archive.write(name, content);
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        archive.write(name, time, input);
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        archive.finish();
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        try {
+            archive.close();
+        } finally {
+            quota.release(world);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.nio.*;
+import java.util.SortedSet;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+/**
+ * Reads the chunk table of an Anvil or MCRegion file. The 8 KiB header
+ * holds a sector location and a last-modified timestamp for each of the
+ * region's 1024 chunks; each chunk record that follows is a length, a
+ * compression type and the compressed chunk data. Chunk {@code i} of a
+ * region lies {@code i % 32} chunks east and {@code i / 32} chunks south of
+ * its north-west corner.
+ */
+@Immutable
+class RegionFile {
+    static final int CHUNKS = 1024;
+    static final int WIDTH = 32;
+    static final int SECTOR_SIZE = 4096;
+    static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+    private static final int LENGTH_SIZE = 4;
+    private static final int MAXIMUM_SECTORS = 0xFF;
+    private final ByteBuffer region;
+    private final int[] locations;
+    private final int[] timestamps;
+
+    private RegionFile(final ByteBuffer region, final int[] locations,
+            final int[] timestamps) {
+        this.region = region;
+        this.locations = locations;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Returns the offsets at which a region file's header, chunks and any
+     * free sectors between them begin, followed by the file's length.
+     */
+    static int[] sectorBoundaries(final byte[] region) {
+        final SortedSet<Integer> boundaries = Sets.newTreeSet();
+        boundaries.add(0);
+        boundaries.add(region.length);
+        if (region.length < HEADER_SIZE) {
+            return Ints.toArray(boundaries);
+        }
+        boundaries.add(HEADER_SIZE);
+        final IntBuffer locations = ByteBuffer.wrap(region).asIntBuffer();
+        for (int i = 0; i < CHUNKS; ++i) {
+            final int location = locations.get(i);
+            final long start = (long) (location >>> 8) * SECTOR_SIZE;
+            final long end = start + (long) (location & 0xFF) * SECTOR_SIZE;
+            if (location != 0 && start >= HEADER_SIZE
+                    && end <= region.length) {
+                boundaries.add((int) start);
+                boundaries.add((int) end);
+            }
+        }
+        return Ints.toArray(boundaries);
+    }
+
+    /**
+     * Lays out a region file holding the given chunk records, as returned
+     * by {@link #readChunk}, packed one after another; a {@code null} or
+     * empty record leaves its chunk ungenerated.
+     */
+    static byte[] assemble(final int[] timestamps, final byte[][] records)
+            throws IOException {
+        final int[] locations = new int[CHUNKS];
+        int sectors = HEADER_SIZE / SECTOR_SIZE;
+        for (int i = 0; i < CHUNKS; ++i) {
+            if (records[i] != null && records[i].length > 0) {
+                final int size = (LENGTH_SIZE + records[i].length
+                        + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                if (size > MAXIMUM_SECTORS) {
+                    throw new IOException("Chunk " + i + " is too large.");
+                }
+                locations[i] = sectors << 8 | size;
+                sectors += size;
+            }
+        }
+        final ByteBuffer region = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+        region.asIntBuffer().put(locations).put(timestamps);
+        for (int i = 0; i < CHUNKS; ++i) {
+            if (locations[i] != 0) {
+                region.position((locations[i] >>> 8) * SECTOR_SIZE);
+                region.putInt(records[i].length);
+                region.put(records[i]);
+            }
+        }
+        return region.array();
+    }
+
+    /**
+     * Reads only the timestamp table of a region file on disk, which is all
+     * zeros for a file too short to have one.
+     */
+    static int[] readTimestamps(final File file) throws IOException {
+        final int[] timestamps = new int[CHUNKS];
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.length() < HEADER_SIZE) {
+                return timestamps;
+            }
+            final byte[] table = new byte[SECTOR_SIZE];
+            input.seek(SECTOR_SIZE);
+            input.readFully(table);
+            ByteBuffer.wrap(table).asIntBuffer().get(timestamps);
+            return timestamps;
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Reads the timestamp table of a region held in memory. */
+    static int[] timestampsOf(final ByteBuffer region) {
+        final int[] timestamps = new int[CHUNKS];
+        if (region.remaining() >= HEADER_SIZE) {
+            final ByteBuffer table = region.duplicate();
+            table.position(table.position() + SECTOR_SIZE);
+            table.asIntBuffer().get(timestamps);
+        }
+        return timestamps;
+    }
+
+    static boolean isRegionFile(final String name) {
+        return name.endsWith(".mca") || name.endsWith(".mcr");
+    }
+
+    static RegionFile of(final byte[] contents) {
+        final ByteBuffer region = ByteBuffer.wrap(contents);
+        final int[] locations = new int[CHUNKS];
+        final int[] timestamps = new int[CHUNKS];
+        if (contents.length >= HEADER_SIZE) {
+            final IntBuffer header = region.asIntBuffer();
+            header.get(locations);
+            header.get(timestamps);
+        }
+        return new RegionFile(region, locations, timestamps);
+    }
+
+    int[] getTimestamps() {
+        return timestamps.clone();
+    }
+
+    /**
+     * Returns the compression type and compressed data of a chunk, or an
+     * empty array if the chunk has not been generated.
+     */
+    byte[] readChunk(final int index) throws IOException {
+        final int location = locations[index];
+        if (location == 0) {
+            return new byte[0];
+        }
+        final long offset = (long) (location >>> 8) * SECTOR_SIZE;
+        final int sectors = location & 0xFF;
+        if (offset + LENGTH_SIZE > region.capacity()) {
+            throw new IOException("Chunk " + index + " is corrupt.");
+        }
+        final int length = region.getInt((int) offset);
+        if (length <= 0 || length > sectors * SECTOR_SIZE - LENGTH_SIZE
+                || offset + LENGTH_SIZE + length > region.capacity()) {
+            throw new IOException("Chunk " + index + " is corrupt.");
+        }
+        final byte[] record = new byte[length];
+        final ByteBuffer source = region.duplicate();
+        source.position((int) offset + LENGTH_SIZE);
+        source.get(record);
+        return record;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.List;
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.common.collect.Lists;
+import com.google.common.io.*;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Writes a backup to a {@link BlockRepository}. Region files are split at
+ * their sector boundaries so that an unchanged chunk is stored only once,
+ * even if it moves within its region; other files are split into blocks
+ * of 1 MiB.
+ */
+@NotThreadSafe
+class RepositoryArchive implements Archive {
+    private static final int BLOCK_SIZE = 1 << 20;
+    private final BlockRepository repository;
+    private final String snapshotName;
+    private final List<Snapshot.Entry> entries = Lists.newArrayList();
+
+    RepositoryArchive(final BlockRepository repository,
+            final String snapshotName) {
+        this.repository = repository;
+        this.snapshotName = snapshotName;
+        repository.beginSession();
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        final long time;
+        try {
+            time = content.getLastModifiedTime();
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not write file to repository.",
+                    e);
+        }
+        write(name, time, new FileContentSupplier(content));
+    }
+
+    private void writeRegion(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws IOException {
+        final byte[] region = ByteStreams.toByteArray(input);
+        final int[] boundaries = RegionFile.sectorBoundaries(region);
+        final List<BlockId> blocks = Lists.newArrayList();
+        for (int i = 1; i < boundaries.length; ++i) {
+            blocks.add(repository.store(region, boundaries[i - 1],
+                    boundaries[i] - boundaries[i - 1]));
+        }
+        entries.add(new Snapshot.Entry(name, time, region.length, blocks));
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        try {
+            if (RegionFile.isRegionFile(name)) {
+                writeRegion(name, time, input);
+            } else {
+                writeBlocks(name, time, input);
+            }
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write file to repository.",
+                    e);
+        }
+    }
+
+    private void writeBlocks(final String name, final long time,
+            final InputSupplier<? extends InputStream> supplier)
+            throws IOException {
+        final List<BlockId> blocks = Lists.newArrayList();
+        final byte[] buffer = new byte[BLOCK_SIZE];
+        long size = 0;
+        final InputStream input = supplier.getInput();
+        boolean threw = true;
+        try {
+            int length;
+            while ((length = ByteStreams.read(input, buffer, 0,
+                    BLOCK_SIZE)) > 0) {
+                blocks.add(repository.store(buffer, 0, length));
+                size += length;
+            }
+            threw = false;
+        } finally {
+            Closeables.close(input, threw);
+        }
+        entries.add(new Snapshot.Entry(name, time, size, blocks));
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        try {
+            repository.writeSnapshot(snapshotName, new Snapshot(entries));
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write snapshot.", e);
+        }
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        try {
+            repository.endSession();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not close repository.", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.base.Stopwatch;
+import org.slf4j.cal10n.LocLogger;
+
+@Immutable
+class RestoreBackupTask implements Runnable {
+    private final LocLogger log;
+    private final BackupRestorer restorer;
+    private final String backup;
+    private final File target;
+    private final ChunkSelection selection;
+
+    RestoreBackupTask(final LocLogger log, final BackupRestorer restorer,
+            final String backup, final File target,
+            final ChunkSelection selection) {
+        this.log = log;
+        this.restorer = restorer;
+        this.backup = backup;
+        this.target = target;
+        this.selection = selection;
+    }
+
+    @Override
+    public void run() {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        try {
+            final int restored = restorer.restore(backup, target, selection);
+            log.info(LogMessage.RESTORED_BACKUP, restored, backup, target,
+                    stopwatch.elapsedMillis());
+        } catch (final IOException e) {
+            log.error(ErrorMessage.RESTORE_FAILED, backup, e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import ch.qos.cal10n.MessageConveyor;
+import com.google.common.base.Stopwatch;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.slf4j.cal10n.*;
+
+/**
+ * Restores a backup without a running server, for when a world has to be
+ * put back while the server is down:
+ *
+ * <pre>
+ * java -cp ... org.celeria.minecraft.backup.RestoreTool backup-folder
+ *     state-folder backup target-folder [regions... | x1 z1 x2 z2]
+ * </pre>
+ *
+ * The folders are the plugin's backup and state folders, by default
+ * "{@code archives}" and "{@code plugins/Archivist/state}" under the
+ * server's folder. Every processor is used.
+ */
+public final class RestoreTool {
+    private static final int FIXED_ARGUMENTS = 4;
+    private static final int FAILED = 1;
+
+    private RestoreTool() {}
+
+    public static void main(final String[] args) throws Exception {
+        final ChunkSelection selection = args.length < FIXED_ARGUMENTS ? null
+                : ChunkSelection.parse(Arrays.asList(args)
+                        .subList(FIXED_ARGUMENTS, args.length));
+        if (selection == null) {
+            System.err.println("Usage: RestoreTool backup-folder state-folder"
+                    + " backup target-folder [regions... | x1 z1 x2 z2]");
+            System.exit(FAILED);
+            return;
+        }
+        final LocLogger log = new LocLoggerFactory(
+                new MessageConveyor(Locale.US))
+                .getLocLogger(RestoreTool.class.getName());
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        final FileProvider<FileObject> backupFolder =
+                folder(fileSystem, args[0]);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            final BackupRestorer restorer = new BackupRestorer(backupFolder,
+                    new BackupCatalog(log, backupFolder,
+                            folder(fileSystem, args[1])), executor);
+            final Stopwatch stopwatch = new Stopwatch().start();
+            final File target = new File(args[3]);
+            final int restored = restorer.restore(args[2], target, selection);
+            log.info(LogMessage.RESTORED_BACKUP, restored, args[2], target,
+                    stopwatch.elapsedMillis());
+        } catch (final IOException e) {
+            log.error(ErrorMessage.RESTORE_FAILED, args[2], e);
+            System.exit(FAILED);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static FileProvider<FileObject> folder(
+            final FileSystemManager fileSystem, final String name)
+            throws FileSystemException {
+        final FileObject folder = fileSystem.resolveFile(
+                new File(name).getAbsolutePath());
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return folder;
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import javax.annotation.concurrent.*;
+
+@ThreadSafe
+class RetentionStatistics implements RetentionStatisticsMBean {
+    private final RollingHistogram millis = new RollingHistogram();
+    @GuardedBy("this") private long runs;
+    @GuardedBy("this") private long lastRunTime;
+    @GuardedBy("this") private long lastMillis;
+    @GuardedBy("this") private int lastBackupsDeleted;
+
+    synchronized void record(final long runTime, final long runMillis,
+            final int backupsDeleted) {
+        ++runs;
+        lastRunTime = runTime;
+        lastMillis = runMillis;
+        lastBackupsDeleted = backupsDeleted;
+        millis.add(runMillis);
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getLastRunTime() {
+        return lastRunTime;
+    }
+
+    @Override
+    public synchronized long getLastMillis() {
+        return lastMillis;
+    }
+
+    @Override
+    public synchronized int getLastBackupsDeleted() {
+        return lastBackupsDeleted;
+    }
+
+    @Override
+    public long getMillisMedian() {
+        return millis.median();
+    }
+
+    @Override
+    public long getMillis95thPercentile() {
+        return millis.ninetyFifthPercentile();
+    }
+}
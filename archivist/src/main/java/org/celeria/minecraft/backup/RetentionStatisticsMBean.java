@@ -0,0 +1,27 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+/** How long deleting old backups has taken, in milliseconds. */
+public interface RetentionStatisticsMBean {
+    long getRuns();
+    long getLastRunTime();
+    long getLastMillis();
+    int getLastBackupsDeleted();
+    long getMillisMedian();
+    long getMillis95thPercentile();
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.util.Arrays;
+import javax.annotation.concurrent.*;
+
+/** Keeps the most recent samples of a measurement and their percentiles. */
+@ThreadSafe
+class RollingHistogram {
+    private static final int SAMPLES = 100;
+    @GuardedBy("this") private final long[] samples = new long[SAMPLES];
+    @GuardedBy("this") private int count;
+    @GuardedBy("this") private int next;
+
+    synchronized void add(final long sample) {
+        samples[next] = sample;
+        next = (next + 1) % SAMPLES;
+        count = Math.min(count + 1, SAMPLES);
+    }
+
+    /** Returns zero until a sample has been added. */
+    synchronized long percentile(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    long median() {
+        return percentile(50);
+    }
+
+    long ninetyFifthPercentile() {
+        return percentile(95);
+    }
+
+    long maximum() {
+        return percentile(100);
+    }
+}
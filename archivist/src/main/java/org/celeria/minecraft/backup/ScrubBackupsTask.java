@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import javax.annotation.concurrent.*;
+import com.google.common.base.*;
+import com.google.common.collect.Sets;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+import org.celeria.minecraft.backup.BackUpWorldsTask.*;
+import org.joda.time.Instant;
+import org.slf4j.cal10n.LocLogger;
+
+/**
+ * Slowly re-reads stored archives, one each time it runs, checking every
+ * entry against its own CRC and, where there is one, against the backup's
+ * manifest. Reading is held to a fixed rate so scrubbing never competes with
+ * the server for the disk. The name of the last archive checked is kept in
+ * the state folder, so scrubbing resumes where it stopped after a restart
+ * and starts over once every archive in the catalog has been checked. An
+ * archive modified recently may be part of an incremental chain that is
+ * still being refreshed, so it is left for a later run.
+ */
+@Singleton @ThreadSafe
+class ScrubBackupsTask implements Runnable {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface ScrubBytesPerSecond {}
+
+    private static final String CURSOR_FILE = "scrub.cursor";
+    private static final long SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private final LocLogger log;
+    private final FileProvider<FileObject> backupFolderProvider;
+    private final FileProvider<FileObject> stateFolderProvider;
+    private final BackupCatalog catalog;
+    private final ArchiveVerifier verifier;
+    private final Provider<Instant> currentTime;
+    private final long bytesPerSecond;
+    private final IoThrottle throttle;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger scrubbed = new AtomicInteger();
+    private final AtomicInteger corrupt = new AtomicInteger();
+    private volatile String lastScrubbed = "";
+
+    /**
+     * @param bytesPerSecond the fastest archives may be read, or zero to
+     *        disable scrubbing
+     */
+    @Inject
+    ScrubBackupsTask(final LocLogger log,
+            @BackupFolder final FileProvider<FileObject> backupFolderProvider,
+            @StateFolder final FileProvider<FileObject> stateFolderProvider,
+            final BackupCatalog catalog, final ArchiveVerifier verifier,
+            final Provider<Instant> currentTime,
+            @ScrubBytesPerSecond final long bytesPerSecond) {
+        this.log = log;
+        this.backupFolderProvider = backupFolderProvider;
+        this.stateFolderProvider = stateFolderProvider;
+        this.catalog = catalog;
+        this.verifier = verifier;
+        this.currentTime = currentTime;
+        this.bytesPerSecond = bytesPerSecond;
+        this.throttle = IoThrottle.fixedRate(bytesPerSecond);
+    }
+
+    int scrubbed() {
+        return scrubbed.get();
+    }
+
+    int corrupt() {
+        return corrupt.get();
+    }
+
+    /** Returns an empty string until an archive has been scrubbed. */
+    String lastScrubbed() {
+        return lastScrubbed;
+    }
+
+    @Override
+    public void run() {
+        if (bytesPerSecond <= 0 || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scrubNextArchive();
+        } catch (final IOException e) {
+            log.error(ErrorMessage.CANNOT_ACCESS_BACKUP, e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void scrubNextArchive() throws IOException {
+        final FileObject backupFolder = backupFolderProvider.get();
+        final FileObject cursorFile =
+                stateFolderProvider.get().resolveFile(CURSOR_FILE);
+        final FileObject archive = nextArchive(backupFolder,
+                readCursor(cursorFile));
+        if (archive == null) {
+            return;
+        }
+        final String name = archive.getName().getBaseName();
+        try {
+            scrub(archive, name);
+        } finally {
+            // A backup that cannot be read at all must not stall scrubbing.
+            writeCursor(cursorFile, name);
+        }
+    }
+
+    /** Wraps around to the first archive once the last has been checked. */
+    private FileObject nextArchive(final FileObject backupFolder,
+            final String cursor) throws IOException {
+        final SortedSet<String> names = Sets.newTreeSet();
+        for (final BackupCatalog.Backup backup : catalog.backups()) {
+            names.add(backup.name());
+        }
+        final FileObject next = firstSettled(backupFolder,
+                names.tailSet(cursor + "\0"));
+        return next != null ? next : firstSettled(backupFolder, names);
+    }
+
+    private FileObject firstSettled(final FileObject backupFolder,
+            final Set<String> names) throws FileSystemException {
+        final long settledTime = currentTime.get().getMillis()
+                - SETTLE_MILLIS;
+        for (final String name : names) {
+            final FileObject file = backupFolder.resolveFile(name);
+            if (file.exists()
+                    && file.getContent().getLastModifiedTime() < settledTime) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private void scrub(final FileObject archive, final String name)
+            throws IOException {
+        final Stopwatch stopwatch = new Stopwatch().start();
+        try {
+            verify(archive);
+            log.info(LogMessage.SCRUBBED_BACKUP, name,
+                    stopwatch.elapsedMillis());
+        } catch (final ArchiveException e) {
+            corrupt.incrementAndGet();
+            log.error(ErrorMessage.BACKUP_CORRUPT, name, e.getMessage());
+        }
+        scrubbed.incrementAndGet();
+        lastScrubbed = name;
+    }
+
+    private void verify(final FileObject archive) throws IOException {
+        final FileObject manifestFile = IntegrityManifest.fileFor(archive);
+        final IntegrityManifest manifest = manifestFile.exists()
+                ? IntegrityManifest.readFrom(manifestFile) : null;
+        final InputStream stream = throttle.throttle(
+                new FileContentSupplier(archive.getContent())).getInput();
+        boolean threw = true;
+        try {
+            if (manifest == null) {
+                verifier.verify(stream);
+            } else {
+                verifier.verify(stream, manifest);
+            }
+            threw = false;
+        } finally {
+            Closeables.close(stream, threw);
+        }
+    }
+
+    private static String readCursor(final FileObject cursorFile)
+            throws IOException {
+        if (!cursorFile.exists()) {
+            return "";
+        }
+        final Reader reader = new InputStreamReader(
+                cursorFile.getContent().getInputStream(), Charsets.UTF_8);
+        boolean threw = true;
+        try {
+            final String cursor = CharStreams.toString(reader).trim();
+            threw = false;
+            return cursor;
+        } finally {
+            Closeables.close(reader, threw);
+        }
+    }
+
+    private static void writeCursor(final FileObject cursorFile,
+            final String cursor) throws IOException {
+        final Writer writer = new OutputStreamWriter(
+                cursorFile.getContent().getOutputStream(), Charsets.UTF_8);
+        boolean threw = true;
+        try {
+            writer.write(cursor);
+            threw = false;
+        } finally {
+            Closeables.close(writer, threw);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.collect.*;
+
+/** Lists the files of one backup and the blocks each of them is made of. */
+@Immutable
+final class Snapshot {
+    private static final int VERSION = 1;
+    private final ImmutableList<Entry> entries;
+
+    Snapshot(final List<Entry> entries) {
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    @Immutable
+    static final class Entry {
+        private final String name;
+        private final long time;
+        private final long size;
+        private final ImmutableList<BlockId> blocks;
+
+        Entry(final String name, final long time, final long size,
+                final List<BlockId> blocks) {
+            this.name = name;
+            this.time = time;
+            this.size = size;
+            this.blocks = ImmutableList.copyOf(blocks);
+        }
+
+        String name() {
+            return name;
+        }
+
+        long time() {
+            return time;
+        }
+
+        long size() {
+            return size;
+        }
+
+        List<BlockId> blocks() {
+            return blocks;
+        }
+    }
+
+    List<Entry> entries() {
+        return entries;
+    }
+
+    static Snapshot readFrom(final InputStream stream) throws IOException {
+        final DataInputStream input = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(stream)));
+        if (input.readInt() != VERSION) {
+            throw new IOException("Unknown snapshot version.");
+        }
+        final List<Entry> entries = Lists.newArrayList();
+        for (int i = input.readInt(); i > 0; --i) {
+            entries.add(readEntry(input));
+        }
+        return new Snapshot(entries);
+    }
+
+    private static Entry readEntry(final DataInput input) throws IOException {
+        final String name = input.readUTF();
+        final long time = input.readLong();
+        final long size = input.readLong();
+        final List<BlockId> blocks = Lists.newArrayList();
+        for (int i = input.readInt(); i > 0; --i) {
+            blocks.add(BlockId.readFrom(input));
+        }
+        return new Entry(name, time, size, blocks);
+    }
+
+    void writeTo(final OutputStream stream) throws IOException {
+        final GZIPOutputStream compressed = new GZIPOutputStream(
+                new BufferedOutputStream(stream));
+        final DataOutputStream output = new DataOutputStream(compressed);
+        output.writeInt(VERSION);
+        output.writeInt(entries.size());
+        for (final Entry entry : entries) {
+            writeEntry(output, entry);
+        }
+        compressed.finish();
+        output.flush();
+    }
+
+    private static void writeEntry(final DataOutput output, final Entry entry)
+            throws IOException {
+        output.writeUTF(entry.name);
+        output.writeLong(entry.time);
+        output.writeLong(entry.size);
+        output.writeInt(entry.blocks.size());
+        for (final BlockId block : entry.blocks) {
+            block.writeTo(output);
+        }
+    }
+}
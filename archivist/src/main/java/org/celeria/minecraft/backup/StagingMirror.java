@@ -0,0 +1,286 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.*;
+import java.lang.annotation.*;
+import java.util.Set;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.collect.Sets;
+import com.google.common.io.*;
+import com.google.inject.*;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Keeps a copy of a folder up to date by copying only the files whose size
+ * or modification time differ, and deleting the files that have gone away.
+ * Local folders are synchronized without going through Commons VFS.
+ *
+ * <p>A file may be saved again within the second it was copied in without
+ * its size or modification time changing. A copy begun before the second of
+ * the file's modification time was over is therefore given a time just
+ * before the file's, so that the next synchronization copies it again.
+ */
+@Immutable
+class StagingMirror {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface CompareContents {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface OptimisticCapture {}
+
+    private static final int MAXIMUM_ATTEMPTS = 5;
+    private static final long MILLISECONDS_PER_SECOND = 1000;
+    private final boolean compareContents;
+    private final boolean optimistic;
+    private final IoThrottle throttle;
+
+    @Inject
+    StagingMirror(@CompareContents final boolean compareContents,
+            @OptimisticCapture final boolean optimistic,
+            final IoThrottle throttle) {
+        this.compareContents = compareContents;
+        this.optimistic = optimistic;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Tells whether files are copied so that the server may go on saving
+     * the world while they are, in which case each file is consistent in
+     * itself but the files of a world need not be from the same moment.
+     */
+    boolean isOptimistic() {
+        return optimistic;
+    }
+
+    /** Returns the number of files that were copied. */
+    int synchronize(final FileObject source, final FileObject mirror)
+            throws IOException {
+        return synchronize(source, mirror, null);
+    }
+
+    /**
+     * Leaves alone the staged region files that are not among the dirty
+     * regions, without so much as looking at their size, unless there are
+     * no dirty regions to go by.
+     */
+    int synchronize(final FileObject source, final FileObject mirror,
+            final DirtyRegions dirty) throws IOException {
+        final File localSource = LocalFiles.toFile(source);
+        final File localMirror = LocalFiles.toFile(mirror);
+        if (localSource != null && localMirror != null) {
+            final int copied = synchronize(localSource, localMirror, dirty);
+            mirror.refresh();
+            return copied;
+        }
+        return synchronizeFolder(source, mirror, dirty);
+    }
+
+    private int synchronize(final File source, final File mirror,
+            final DirtyRegions dirty) throws IOException {
+        LocalFiles.createFolder(mirror);
+        int copied = 0;
+        final Set<String> names = Sets.newHashSet();
+        for (final File file : LocalFiles.listFiles(source)) {
+            names.add(file.getName());
+            copied += synchronizeChild(file, new File(mirror, file.getName()),
+                    dirty);
+        }
+        for (final File copy : LocalFiles.listFiles(mirror)) {
+            if (!names.contains(copy.getName())) {
+                LocalFiles.delete(copy);
+            }
+        }
+        return copied;
+    }
+
+    private int synchronizeChild(final File file, final File copy,
+            final DirtyRegions dirty) throws IOException {
+        if (isClean(file.getName(), dirty) && copy.isFile()) {
+            return 0;
+        }
+        final boolean isFolder = file.isDirectory();
+        if (copy.exists() && isFolder != copy.isDirectory()) {
+            LocalFiles.delete(copy);
+        }
+        if (isFolder) {
+            return synchronize(file, copy, dirty);
+        }
+        return copyIfChanged(file, copy) ? 1 : 0;
+    }
+
+    /**
+     * Brings the staged copy of a single file up to date, creating the
+     * folders it is in. Returns whether the file had to be copied.
+     */
+    boolean synchronizeFile(final File file, final File copy)
+            throws IOException {
+        LocalFiles.createFolder(copy.getParentFile());
+        if (copy.isDirectory()) {
+            LocalFiles.delete(copy);
+        }
+        return copyIfChanged(file, copy);
+    }
+
+    private boolean copyIfChanged(final File file, final File copy)
+            throws IOException {
+        if (isCurrent(file, copy)) {
+            return false;
+        }
+        final long started = System.currentTimeMillis();
+        if (optimistic) {
+            OptimisticCopy.copy(file, copy, throttle);
+        } else {
+            LocalFiles.copy(file, copy, throttle);
+        }
+        final long lastModified = copy.lastModified();
+        final long settled = settledTime(lastModified, started);
+        if (settled != lastModified) {
+            copy.setLastModified(settled);
+        }
+        return true;
+    }
+
+    private static long settledTime(final long lastModified,
+            final long started) {
+        return lastModified / MILLISECONDS_PER_SECOND
+                >= started / MILLISECONDS_PER_SECOND
+                ? lastModified - 1 : lastModified;
+    }
+
+    private boolean isCurrent(final File file, final File copy)
+            throws IOException {
+        return copy.exists() && file.length() == copy.length()
+                && file.lastModified() == copy.lastModified()
+                && (!compareContents || Files.equal(file, copy));
+    }
+
+    private static boolean isClean(final String name,
+            final DirtyRegions dirty) {
+        return dirty != null && RegionFile.isRegionFile(name)
+                && !dirty.contains(name);
+    }
+
+    private int synchronizeFolder(final FileObject source,
+            final FileObject mirror, final DirtyRegions dirty)
+            throws IOException {
+        // The server changes the world behind the file system's back.
+        source.refresh();
+        mirror.createFolder();
+        int copied = 0;
+        final Set<String> names = Sets.newHashSet();
+        for (final FileObject file : source.getChildren()) {
+            final String name = file.getName().getBaseName();
+            names.add(name);
+            copied += synchronizeChild(file, mirror.resolveFile(name),
+                    dirty);
+        }
+        deleteRemovedFiles(mirror, names);
+        return copied;
+    }
+
+    private int synchronizeChild(final FileObject file, final FileObject copy,
+            final DirtyRegions dirty) throws IOException {
+        if (isClean(file.getName().getBaseName(), dirty) && copy.exists()) {
+            return 0;
+        }
+        final boolean isFolder = isFolder(file);
+        if (copy.exists() && isFolder != isFolder(copy)) {
+            copy.delete(Selectors.SELECT_ALL);
+        }
+        if (isFolder) {
+            return synchronizeFolder(file, copy, dirty);
+        }
+        if (isCurrent(file, copy)) {
+            return 0;
+        }
+        copy(file, copy);
+        return 1;
+    }
+
+    private boolean isCurrent(final FileObject file, final FileObject copy)
+            throws IOException {
+        if (!copy.exists()) {
+            return false;
+        }
+        final FileContent content = file.getContent();
+        final FileContent copyContent = copy.getContent();
+        return content.getSize() == copyContent.getSize()
+                && content.getLastModifiedTime()
+                        == copyContent.getLastModifiedTime()
+                && (!compareContents || sameContents(content, copyContent));
+    }
+
+    private static boolean sameContents(final FileContent content,
+            final FileContent copyContent) throws IOException {
+        return ByteStreams.equal(new FileContentSupplier(content),
+                new FileContentSupplier(copyContent));
+    }
+
+    private void copy(final FileObject file, final FileObject copy)
+            throws IOException {
+        if (!optimistic) {
+            copyOnce(file, copy);
+            return;
+        }
+        for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; ++attempt) {
+            final long size = file.getContent().getSize();
+            final long lastModified = file.getContent().getLastModifiedTime();
+            copyOnce(file, copy);
+            file.refresh();
+            if (file.getContent().getSize() == size
+                    && file.getContent().getLastModifiedTime()
+                            == lastModified) {
+                return;
+            }
+        }
+        throw new IOException(file + " kept changing while copied.");
+    }
+
+    private void copyOnce(final FileObject file, final FileObject copy)
+            throws IOException {
+        final long started = System.currentTimeMillis();
+        final FileContent content = file.getContent();
+        final OutputStream output = copy.getContent().getOutputStream();
+        boolean threw = true;
+        try {
+            ByteStreams.copy(throttle.throttle(
+                    new FileContentSupplier(content)), output);
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+        copy.getContent().setLastModifiedTime(
+                settledTime(content.getLastModifiedTime(), started));
+    }
+
+    private static void deleteRemovedFiles(final FileObject mirror,
+            final Set<String> names) throws FileSystemException {
+        for (final FileObject copy : mirror.getChildren()) {
+            if (!names.contains(copy.getName().getBaseName())) {
+                copy.delete(Selectors.SELECT_ALL);
+            }
+        }
+    }
+
+    private static boolean isFolder(final FileObject file)
+            throws FileSystemException {
+        return FileType.FOLDER.equals(file.getType());
+    }
+}
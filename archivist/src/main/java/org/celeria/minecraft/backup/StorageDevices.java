@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.base.*;
+import com.google.common.collect.*;
+import com.google.common.io.Files;
+import com.google.inject.*;
+
+/**
+ * Tells which storage device a file is on, so that backups reading from the
+ * same disk can be run one after another. Where the system lists its mounts
+ * in {@code /proc/mounts} the device is the mounted block device; elsewhere
+ * it is approximated by the file system root.
+ */
+@Immutable @Singleton
+class StorageDevices {
+    private static final File MOUNTS = new File("/proc/mounts");
+    private static final Pattern ESCAPE = Pattern.compile("\\\\([0-7]{3})");
+    private final ImmutableSortedMap<String, String> devicesByMountPoint;
+
+    @Inject
+    StorageDevices() {
+        this(readMounts(MOUNTS));
+    }
+
+    StorageDevices(final Map<String, String> devicesByMountPoint) {
+        this.devicesByMountPoint = ImmutableSortedMap.copyOf(
+                devicesByMountPoint, Ordering.natural().reverse());
+    }
+
+    private static Map<String, String> readMounts(final File mounts) {
+        final Map<String, String> devices = Maps.newHashMap();
+        try {
+            for (final String line : Files.readLines(mounts, Charsets.UTF_8)) {
+                final String[] fields = line.split(" ");
+                if (fields.length >= 2) {
+                    devices.put(unescape(fields[1]), unescape(fields[0]));
+                }
+            }
+        } catch (final IOException e) {
+            // Not a system that lists its mounts; fall back to roots.
+        }
+        return devices;
+    }
+
+    private static String unescape(final String field) {
+        final Matcher matcher = ESCAPE.matcher(field);
+        final StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            final char c = (char) Integer.parseInt(matcher.group(1), 8);
+            matcher.appendReplacement(result,
+                    Matcher.quoteReplacement(String.valueOf(c)));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Mount points are searched in reverse order, so the most specific
+     * mount containing the file is found first.
+     */
+    String deviceOf(final File file) {
+        final String path = pathOf(file);
+        for (final Map.Entry<String, String> mount
+                : devicesByMountPoint.entrySet()) {
+            if (isWithin(path, mount.getKey())) {
+                return deviceFor(mount);
+            }
+        }
+        return rootOf(new File(path)).getPath();
+    }
+
+    private static String pathOf(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (final IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static boolean isWithin(final String path,
+            final String mountPoint) {
+        if (mountPoint.endsWith(File.separator)) {
+            return path.startsWith(mountPoint);
+        }
+        return path.equals(mountPoint)
+                || path.startsWith(mountPoint + File.separator);
+    }
+
+    /** Only block devices are shared between mount points. */
+    private static String deviceFor(final Map.Entry<String, String> mount) {
+        final String device = mount.getValue();
+        return device.startsWith("/dev/") ? device : mount.getKey();
+    }
+
+    private static File rootOf(final File file) {
+        File root = file;
+        while (root.getParentFile() != null) {
+            root = root.getParentFile();
+        }
+        return root;
+    }
+}
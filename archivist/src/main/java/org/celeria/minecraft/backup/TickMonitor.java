@@ -0,0 +1,45 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import com.google.inject.Inject;
+
+/**
+ * Runs on the main thread every tick and reports how long the tick took to
+ * the {@link IoThrottle}.
+ */
+@NotThreadSafe
+class TickMonitor implements Runnable {
+    private final IoThrottle throttle;
+    private long lastTick;
+
+    @Inject
+    TickMonitor(final IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void run() {
+        final long now = System.nanoTime();
+        if (lastTick != 0) {
+            throttle.tickTook(now - lastTick);
+        }
+        lastTick = now;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.IOException;
+import java.lang.annotation.*;
+import java.util.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.*;
+import com.google.inject.*;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.joda.time.*;
+
+/**
+ * Decides which backups to delete under a grandfather-father-son scheme:
+ * every backup is kept for a while, then the first of each hour, then the
+ * first of each day, then the first of each week, and after that none.
+ *
+ * <p>Keeping the first backup of a bucket rather than the last means that
+ * the backups that survive as hourly ones include the first of every day,
+ * and so on, and that a decision never has to be revisited once made. The
+ * kept backups are remembered between runs, along with how far each tier
+ * had advanced, so that a run only looks at backups that are new to the
+ * catalog or that have just aged from one tier into the next, or that
+ * were kept and have since been removed from the catalog by something
+ * else. A backup that the scheme would delete is held back for as long as
+ * a kept backup was made on top of it.
+ */
+@Singleton @ThreadSafe
+class TieredRetention {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface KeepAllFor {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface KeepHourlyFor {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface KeepDailyFor {}
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface KeepWeeklyFor {}
+
+    /** The buckets a tier keeps one backup of; the last tier keeps none. */
+    private enum Bucket {
+        HOUR {
+            @Override
+            long of(final long time) {
+                return new DateTime(time).hourOfDay().roundFloorCopy()
+                        .getMillis();
+            }
+        },
+        DAY {
+            @Override
+            long of(final long time) {
+                return new DateTime(time).dayOfMonth().roundFloorCopy()
+                        .getMillis();
+            }
+        },
+        WEEK {
+            @Override
+            long of(final long time) {
+                return new DateTime(time).weekOfWeekyear().roundFloorCopy()
+                        .getMillis();
+            }
+        };
+
+        abstract long of(long time);
+    }
+
+    private static final Bucket[] BUCKETS = Bucket.values();
+    private final List<Period> tiers;
+    @GuardedBy("this") private final Map<String, NavigableSet<Backup>> kept =
+            Maps.newHashMap();
+    @GuardedBy("this") private final Map<String, Backup> heldBack =
+            Maps.newHashMap();
+    @GuardedBy("this") private final Multiset<String> children =
+            HashMultiset.create();
+    @GuardedBy("this") private final long[] evaluatedUntil =
+            new long[BUCKETS.length + 1];
+    @GuardedBy("this") private Backup newest;
+    @GuardedBy("this") private int generation = -1;
+    @GuardedBy("this") private int removals;
+
+    @Inject
+    TieredRetention(@KeepAllFor final Period keepAllFor,
+            @KeepHourlyFor final Period keepHourlyFor,
+            @KeepDailyFor final Period keepDailyFor,
+            @KeepWeeklyFor final Period keepWeeklyFor) {
+        tiers = ImmutableList.of(keepAllFor, keepHourlyFor, keepDailyFor,
+                keepWeeklyFor);
+    }
+
+    /**
+     * Returns the backups in the catalog that should now be deleted, oldest
+     * first, and forgets them; the caller is trusted to delete them or to
+     * report what it would have deleted, and to {@linkplain #readmit
+     * readmit} any it could not delete.
+     */
+    synchronized List<Backup> expired(final BackupCatalog catalog,
+            final Instant now) throws IOException {
+        final List<Backup> expired = Lists.newArrayList();
+        if (catalog.generation() != generation) {
+            forget();
+            generation = catalog.generation();
+            removals = catalog.removals();
+        } else if (catalog.removals() != removals) {
+            removals = catalog.removals();
+            dropRemoved(catalog, expired);
+        }
+        for (final Backup backup : catalog.backupsAfter(newest)) {
+            admit(backup);
+        }
+        long boundary = Long.MAX_VALUE;
+        for (int tier = 0; tier < tiers.size(); ++tier) {
+            boundary = Math.min(boundary,
+                    new DateTime(now).minus(tiers.get(tier)).getMillis());
+            for (final NavigableSet<Backup> world : kept.values()) {
+                age(world, tier, boundary, expired);
+            }
+            evaluatedUntil[tier] = boundary;
+        }
+        return BackupCatalog.BY_TIME.sortedCopy(expired);
+    }
+
+    /**
+     * Takes back backups that were returned as expired but could not be
+     * deleted, so that the next run expires them again.
+     */
+    synchronized void readmit(final Collection<Backup> backups) {
+        for (final Backup backup : backups) {
+            keep(backup);
+        }
+        Arrays.fill(evaluatedUntil, Long.MIN_VALUE);
+    }
+
+    private void forget() {
+        kept.clear();
+        heldBack.clear();
+        children.clear();
+        newest = null;
+        Arrays.fill(evaluatedUntil, Long.MIN_VALUE);
+    }
+
+    /**
+     * Forgets the backups that were removed from the catalog, such as by
+     * the quota, so that a backup no longer stands for its hour or day and
+     * the next one in the bucket is kept in its place.
+     */
+    private void dropRemoved(final BackupCatalog catalog,
+            final List<Backup> expired) throws IOException {
+        final List<Backup> removed = Lists.newArrayList();
+        for (final NavigableSet<Backup> world : kept.values()) {
+            for (final Iterator<Backup> i = world.iterator(); i.hasNext();) {
+                final Backup backup = i.next();
+                if (catalog.backup(backup.name()) == null) {
+                    i.remove();
+                    removed.add(backup);
+                }
+            }
+        }
+        for (final Iterator<Backup> i = heldBack.values().iterator();
+                i.hasNext();) {
+            final Backup backup = i.next();
+            if (catalog.backup(backup.name()) == null) {
+                i.remove();
+            }
+        }
+        for (final Backup backup : removed) {
+            release(backup, expired);
+        }
+    }
+
+    /**
+     * A backup older than a tier's boundary would be missed by the next
+     * run, so the tiers are evaluated again from the start; doing so only
+     * repeats the decisions made before.
+     */
+    private void admit(final Backup backup) {
+        keep(backup);
+        newest = backup;
+        if (backup.time() < evaluatedUntil[0]) {
+            Arrays.fill(evaluatedUntil, Long.MIN_VALUE);
+        }
+    }
+
+    private void keep(final Backup backup) {
+        NavigableSet<Backup> world = kept.get(backup.world());
+        if (world == null) {
+            world = Sets.newTreeSet(BackupCatalog.BY_TIME);
+            kept.put(backup.world(), world);
+        }
+        world.add(backup);
+        children.add(backup.parent());
+    }
+
+    /** Looks at the backups that have aged out of the given tier. */
+    private void age(final NavigableSet<Backup> world, final int tier,
+            final long boundary, final List<Backup> expired) {
+        final long from = evaluatedUntil[tier];
+        if (from >= boundary) {
+            return;
+        }
+        final List<Backup> aged = ImmutableList.copyOf(
+                world.subSet(probe(from), true, probe(boundary), false));
+        for (final Backup backup : aged) {
+            if (tier == BUCKETS.length
+                    || sharesBucket(world.lower(backup), backup,
+                            BUCKETS[tier])) {
+                world.remove(backup);
+                expire(backup, expired);
+            }
+        }
+    }
+
+    private static boolean sharesBucket(final Backup earlier,
+            final Backup backup, final Bucket bucket) {
+        return earlier != null
+                && bucket.of(earlier.time()) == bucket.of(backup.time());
+    }
+
+    private void expire(final Backup backup, final List<Backup> expired) {
+        if (children.contains(backup.name())) {
+            heldBack.put(backup.name(), backup);
+            return;
+        }
+        expired.add(backup);
+        release(backup, expired);
+    }
+
+    /** Lets go of a backup's parent once no kept backup needs it. */
+    private void release(final Backup backup, final List<Backup> expired) {
+        children.remove(backup.parent());
+        final Backup parent = heldBack.get(backup.parent());
+        if (parent != null && !children.contains(parent.name())) {
+            heldBack.remove(parent.name());
+            expire(parent, expired);
+        }
+    }
+
+    private static Backup probe(final long time) {
+        return new Backup("", "", time, 0, 0, 0, "");
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import javax.annotation.concurrent.Immutable;
+import org.slf4j.cal10n.LocLogger;
+
+/** Stands in for the backup of a world that has not changed since. */
+@Immutable
+class UnchangedWorldTask implements WorldTask {
+    private final LocLogger log;
+    private final String world;
+    private final String lastBackup;
+    private final WorldStatistics statistics;
+
+    UnchangedWorldTask(final LocLogger log, final String world,
+            final String lastBackup, final WorldStatistics statistics) {
+        this.log = log;
+        this.world = world;
+        this.lastBackup = lastBackup;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void run() {
+        statistics.recordUnchanged();
+        log.info(LogMessage.WORLD_UNCHANGED, world, lastBackup);
+    }
+}
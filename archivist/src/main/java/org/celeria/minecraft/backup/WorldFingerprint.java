@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.security.*;
+import java.util.Arrays;
+import javax.annotation.concurrent.*;
+
+/**
+ * A cheap summary of a world's region files: their names, sizes and
+ * modification times, and the chunk timestamps in their headers. Only the
+ * 4 KiB timestamp table of each region is read, so a world of hundreds of
+ * regions is fingerprinted in milliseconds.
+ */
+@Immutable
+final class WorldFingerprint {
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private final String digest;
+
+    private WorldFingerprint(final String digest) {
+        this.digest = digest;
+    }
+
+    static WorldFingerprint valueOf(final String digest) {
+        return new WorldFingerprint(digest);
+    }
+
+    static WorldFingerprint of(final File worldFolder) throws IOException {
+        final Builder builder = new Builder();
+        add(builder, worldFolder, "");
+        return builder.build();
+    }
+
+    /** Fingerprints a folder as it is whenever the fingerprint is taken. */
+    static Source sourceOf(final File worldFolder) {
+        return new Source() {
+            @Override
+            public WorldFingerprint fingerprint() throws IOException {
+                return of(worldFolder);
+            }
+        };
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Lists the files of a folder in the order they are fingerprinted in,
+     * which is by name so that the digest is repeatable.
+     */
+    static File[] listFiles(final File folder) throws IOException {
+        final File[] files = LocalFiles.listFiles(folder);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void add(final Builder builder, final File folder,
+            final String path) throws IOException {
+        for (final File file : listFiles(folder)) {
+            final String name = path + file.getName();
+            if (file.isDirectory()) {
+                add(builder, file, name + "/");
+            } else if (RegionFile.isRegionFile(name)) {
+                builder.addRegion(name, file.length(), file.lastModified(),
+                        RegionFile.readTimestamps(file));
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        return object instanceof WorldFingerprint
+                && ((WorldFingerprint) object).digest.equals(digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return digest.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return digest;
+    }
+
+    /** Whatever a world's fingerprint is taken of. */
+    interface Source {
+        WorldFingerprint fingerprint() throws IOException;
+    }
+
+    /**
+     * Fingerprints the region files of a world added in the order they are
+     * listed in, giving the same fingerprint as the world's folder would if
+     * they are as they were there.
+     */
+    @NotThreadSafe
+    static final class Builder {
+        private final MessageDigest digest = newDigest();
+
+        void addRegion(final String name, final long length,
+                final long lastModified, final int[] timestamps)
+                throws IOException {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(buffer);
+            output.writeUTF(name);
+            output.writeLong(length);
+            output.writeLong(lastModified);
+            for (final int timestamp : timestamps) {
+                output.writeInt(timestamp);
+            }
+            digest.update(buffer.toByteArray());
+        }
+
+        WorldFingerprint build() {
+            return new WorldFingerprint(String.format("%032x",
+                    new BigInteger(1, digest.digest())));
+        }
+    }
+}
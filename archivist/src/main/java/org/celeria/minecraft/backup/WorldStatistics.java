@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import javax.annotation.concurrent.*;
+import org.celeria.minecraft.backup.BackupRun.Phase;
+
+@ThreadSafe
+class WorldStatistics implements WorldStatisticsMBean {
+    private static final double MILLIS_PER_SECOND = 1000;
+    private final RollingHistogram saveMillis = new RollingHistogram();
+    private final RollingHistogram stageMillis = new RollingHistogram();
+    private final RollingHistogram archiveMillis = new RollingHistogram();
+    private final RollingHistogram totalMillis = new RollingHistogram();
+    private final RollingHistogram bytesWritten = new RollingHistogram();
+    @GuardedBy("this") private long runs;
+    @GuardedBy("this") private long failures;
+    @GuardedBy("this") private long unchangedRuns;
+    @GuardedBy("this") private BackupRun lastRun = new BackupRun();
+
+    synchronized void record(final BackupRun run, final boolean succeeded) {
+        ++runs;
+        if (!succeeded) {
+            ++failures;
+            return;
+        }
+        lastRun = run;
+        saveMillis.add(run.millisOf(Phase.SAVE));
+        stageMillis.add(run.millisOf(Phase.STAGE));
+        archiveMillis.add(run.millisOf(Phase.ARCHIVE)
+                + run.millisOf(Phase.FINISH));
+        totalMillis.add(run.totalMillis());
+        bytesWritten.add(run.bytesWritten());
+    }
+
+    synchronized void recordUnchanged() {
+        ++unchangedRuns;
+    }
+
+    private synchronized BackupRun lastRun() {
+        return lastRun;
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized long getUnchangedRuns() {
+        return unchangedRuns;
+    }
+
+    @Override
+    public long getLastRunTime() {
+        return lastRun().startTime();
+    }
+
+    @Override
+    public long getLastSaveMillis() {
+        return lastRun().millisOf(Phase.SAVE);
+    }
+
+    @Override
+    public long getLastStageMillis() {
+        return lastRun().millisOf(Phase.STAGE);
+    }
+
+    @Override
+    public long getLastArchiveMillis() {
+        return lastRun().millisOf(Phase.ARCHIVE);
+    }
+
+    @Override
+    public long getLastFinishMillis() {
+        return lastRun().millisOf(Phase.FINISH);
+    }
+
+    @Override
+    public long getLastTotalMillis() {
+        return lastRun().totalMillis();
+    }
+
+    @Override
+    public int getLastFilesStaged() {
+        return lastRun().filesStaged();
+    }
+
+    @Override
+    public int getLastFilesArchived() {
+        return lastRun().filesArchived();
+    }
+
+    @Override
+    public long getLastBytesRead() {
+        return lastRun().bytesRead();
+    }
+
+    @Override
+    public long getLastBytesWritten() {
+        return lastRun().bytesWritten();
+    }
+
+    /** Returns written bytes over read bytes, or zero if nothing was read. */
+    @Override
+    public double getLastCompressionRatio() {
+        final BackupRun run = lastRun();
+        if (run.bytesRead() == 0) {
+            return 0;
+        }
+        return (double) run.bytesWritten() / run.bytesRead();
+    }
+
+    @Override
+    public double getLastBytesReadPerSecond() {
+        final BackupRun run = lastRun();
+        final long millis = run.millisOf(Phase.ARCHIVE)
+                + run.millisOf(Phase.FINISH);
+        if (millis == 0) {
+            return 0;
+        }
+        return run.bytesRead() * MILLIS_PER_SECOND / millis;
+    }
+
+    @Override
+    public long getSaveMillisMedian() {
+        return saveMillis.median();
+    }
+
+    @Override
+    public long getSaveMillis95thPercentile() {
+        return saveMillis.ninetyFifthPercentile();
+    }
+
+    @Override
+    public long getStageMillisMedian() {
+        return stageMillis.median();
+    }
+
+    @Override
+    public long getStageMillis95thPercentile() {
+        return stageMillis.ninetyFifthPercentile();
+    }
+
+    @Override
+    public long getArchiveMillisMedian() {
+        return archiveMillis.median();
+    }
+
+    @Override
+    public long getArchiveMillis95thPercentile() {
+        return archiveMillis.ninetyFifthPercentile();
+    }
+
+    @Override
+    public long getTotalMillisMedian() {
+        return totalMillis.median();
+    }
+
+    @Override
+    public long getTotalMillis95thPercentile() {
+        return totalMillis.ninetyFifthPercentile();
+    }
+
+    @Override
+    public long getTotalMillisMaximum() {
+        return totalMillis.maximum();
+    }
+
+    @Override
+    public long getBytesWrittenMedian() {
+        return bytesWritten.median();
+    }
+
+    @Override
+    public long getBytesWrittenMaximum() {
+        return bytesWritten.maximum();
+    }
+}
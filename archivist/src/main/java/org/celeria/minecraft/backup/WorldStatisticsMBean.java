@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+/**
+ * What the last backup of a world measured, and how long its recent backups
+ * took. Times are in milliseconds.
+ */
+public interface WorldStatisticsMBean {
+    long getRuns();
+    long getFailures();
+    long getUnchangedRuns();
+    long getLastRunTime();
+    long getLastSaveMillis();
+    long getLastStageMillis();
+    long getLastArchiveMillis();
+    long getLastFinishMillis();
+    long getLastTotalMillis();
+    int getLastFilesStaged();
+    int getLastFilesArchived();
+    long getLastBytesRead();
+    long getLastBytesWritten();
+    double getLastCompressionRatio();
+    double getLastBytesReadPerSecond();
+    long getSaveMillisMedian();
+    long getSaveMillis95thPercentile();
+    long getStageMillisMedian();
+    long getStageMillis95thPercentile();
+    long getArchiveMillisMedian();
+    long getArchiveMillis95thPercentile();
+    long getTotalMillisMedian();
+    long getTotalMillis95thPercentile();
+    long getTotalMillisMaximum();
+    long getBytesWrittenMedian();
+    long getBytesWrittenMaximum();
+}
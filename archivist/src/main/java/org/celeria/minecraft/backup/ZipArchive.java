@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import java.io.*;
+import java.util.zip.*;
+import javax.annotation.concurrent.Immutable;
+import com.google.common.io.*;
+import com.google.inject.Inject;
+import org.apache.commons.vfs2.*;
+
+/**
+ * Writes entries through a {@link ZipOutputStream}, which needs the CRC of
+ * an entry before its data to store it, so entries that are not worth
+ * compressing are deflated without compression instead.
+ */
+@Immutable
+class ZipArchive implements Archive {
+    private final ZipOutputStream output;
+    private final CompressionPolicy policy;
+    private final BufferPool buffers;
+
+    @Inject
+    ZipArchive(final ZipOutputStream output, final CompressionPolicy policy,
+            final BufferPool buffers) {
+        this.output = output;
+        this.policy = policy;
+        this.buffers = buffers;
+    }
+
+    @Override
+    public void close() throws ArchiveException {
+        try {
+            output.close();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not close archive.", e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final FileContent content)
+            throws ArchiveException {
+        try {
+            write(name, content.getLastModifiedTime(),
+                    new FileContentSupplier(content));
+        } catch (final FileSystemException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void write(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws ArchiveException {
+        try {
+            writeEntry(name, time, input);
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not write file to archive.", e);
+        }
+    }
+
+    @Override
+    public void finish() throws ArchiveException {
+        try {
+            output.finish();
+        } catch (final IOException e) {
+            throw new ArchiveException("Could not finish archive.", e);
+        }
+    }
+
+    private void writeEntry(final String name, final long time,
+            final InputSupplier<? extends InputStream> input)
+            throws IOException {
+        final InputStream stream = input.getInput();
+        boolean threw = true;
+        try {
+            writeEntry(name, time, stream);
+            threw = false;
+        } finally {
+            Closeables.close(stream, threw);
+        }
+    }
+
+    private void writeEntry(final String name, final long time,
+            final InputStream stream) throws IOException {
+        final byte[] buffer = buffers.acquire();
+        try {
+            int length = ByteStreams.read(stream, buffer, 0, buffer.length);
+            output.setLevel(policy.levelFor(name, buffer, length).asInteger());
+            output.putNextEntry(entryFor(name, time));
+            while (length > 0) {
+                output.write(buffer, 0, length);
+                length = stream.read(buffer);
+            }
+            output.closeEntry();
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    private ZipEntry entryFor(final String name, final long time) {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        return entry;
+    }
+}
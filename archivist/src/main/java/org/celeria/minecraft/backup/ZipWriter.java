@@ -0,0 +1,312 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static com.google.common.base.Preconditions.checkState;
+import java.io.*;
+import java.nio.*;
+import java.util.List;
+import javax.annotation.concurrent.*;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.*;
+import org.joda.time.DateTime;
+
+/**
+ * Writes entries that have already been compressed to a ZIP archive. Each
+ * entry must be smaller than 4 GiB, but the archive itself may grow past
+ * that, in which case ZIP64 end records are written. An entry may also be
+ * streamed in pieces, in which case its CRC and sizes follow its data.
+ */
+@NotThreadSafe
+class ZipWriter implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int ZIP64_EXTRA_SIZE = 12;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int END_SIZE = 22;
+    private static final int DATA_DESCRIPTOR_SIZE = 16;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int DOS_EPOCH = (1 << 21) | (1 << 16);
+    private static final int DOS_EPOCH_YEAR = 1980;
+    private static final int MAXIMUM_SHORT = 0xFFFF;
+    private static final long MAXIMUM_INT = 0xFFFFFFFFL;
+
+    private final CountingOutputStream output;
+    private final List<Record> records = Lists.newArrayList();
+    private Record streamedEntry;
+    private boolean finished;
+
+    ZipWriter(final OutputStream output) {
+        this.output = new CountingOutputStream(output);
+    }
+
+    @Immutable
+    static final class Entry {
+        private final String name;
+        private final long time;
+        private final int method;
+        private final long crc;
+        private final long size;
+
+        Entry(final String name, final long time, final int method,
+                final long crc, final long size) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    @Immutable
+    private static final class Record {
+        private final Entry entry;
+        private final byte[] name;
+        private final long compressedSize;
+        private final long offset;
+        private final int flags;
+
+        Record(final Entry entry, final byte[] name,
+                final long compressedSize, final long offset,
+                final int flags) {
+            this.entry = entry;
+            this.name = name;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+            this.flags = flags;
+        }
+
+        boolean needsZip64() {
+            return offset >= MAXIMUM_INT;
+        }
+    }
+
+    public void write(final Entry entry, final byte[] data)
+            throws IOException {
+        checkState(!finished && streamedEntry == null);
+        checkEntrySize(entry.size);
+        final Record record = new Record(entry,
+                entry.name.getBytes(Charsets.UTF_8), data.length,
+                output.getCount(), UTF8_FLAG);
+        records.add(record);
+        writeLocalHeader(record);
+        output.write(data);
+    }
+
+    /** Begins an entry whose data will be written in pieces. */
+    public void beginEntry(final String name, final long time,
+            final int method) throws IOException {
+        checkState(!finished && streamedEntry == null);
+        streamedEntry = new Record(new Entry(name, time, method, 0, 0),
+                name.getBytes(Charsets.UTF_8), 0, output.getCount(),
+                UTF8_FLAG | DATA_DESCRIPTOR_FLAG);
+        writeLocalHeader(streamedEntry);
+    }
+
+    public void writeEntryData(final byte[] data, final int offset,
+            final int length) throws IOException {
+        checkState(streamedEntry != null);
+        output.write(data, offset, length);
+    }
+
+    public void endEntry(final long crc, final long size) throws IOException {
+        checkState(streamedEntry != null);
+        final Entry begun = streamedEntry.entry;
+        final Entry entry = new Entry(begun.name, begun.time, begun.method,
+                crc, size);
+        final long compressedSize = output.getCount() - streamedEntry.offset
+                - LOCAL_HEADER_SIZE - streamedEntry.name.length;
+        checkEntrySize(size);
+        checkEntrySize(compressedSize);
+        final Record record = new Record(entry, streamedEntry.name,
+                compressedSize, streamedEntry.offset, streamedEntry.flags);
+        streamedEntry = null;
+        records.add(record);
+        writeDataDescriptor(record);
+    }
+
+    /**
+     * Refuses entries whose sizes do not fit the 32-bit fields they are
+     * written to; the largest of those values marks a ZIP64 entry instead.
+     */
+    private static void checkEntrySize(final long size)
+            throws ArchiveException {
+        if (size < 0 || size >= MAXIMUM_INT) {
+            throw new ArchiveException("Entry must be smaller than 4 GiB.");
+        }
+    }
+
+    private void writeDataDescriptor(final Record record) throws IOException {
+        final ByteBuffer descriptor = headerBuffer(DATA_DESCRIPTOR_SIZE);
+        descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        descriptor.putInt((int) record.entry.crc);
+        descriptor.putInt((int) record.compressedSize);
+        descriptor.putInt((int) record.entry.size);
+        output.write(descriptor.array());
+    }
+
+    private void writeLocalHeader(final Record record) throws IOException {
+        final ByteBuffer header = headerBuffer(
+                LOCAL_HEADER_SIZE + record.name.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION);
+        putEntryFields(header, record);
+        header.putShort((short) 0);
+        header.put(record.name);
+        output.write(header.array());
+    }
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        writeCentralDirectory();
+        output.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean threw = true;
+        try {
+            finish();
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long offset = output.getCount();
+        for (final Record record : records) {
+            writeCentralHeader(record);
+        }
+        final long size = output.getCount() - offset;
+        if (needsZip64(offset, size)) {
+            writeZip64End(offset, size);
+        }
+        writeEnd(offset, size);
+    }
+
+    private void writeCentralHeader(final Record record) throws IOException {
+        final boolean zip64 = record.needsZip64();
+        final int extraSize = zip64 ? ZIP64_EXTRA_SIZE : 0;
+        final ByteBuffer header = headerBuffer(
+                CENTRAL_HEADER_SIZE + record.name.length + extraSize);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        final int version = zip64 ? ZIP64_VERSION : VERSION;
+        header.putShort((short) version);
+        header.putShort((short) version);
+        putEntryFields(header, record);
+        header.putShort((short) extraSize);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(record.offset, MAXIMUM_INT));
+        header.put(record.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) (ZIP64_EXTRA_SIZE - 4));
+            header.putLong(record.offset);
+        }
+        output.write(header.array());
+    }
+
+    private static void putEntryFields(final ByteBuffer header,
+            final Record record) {
+        final Entry entry = record.entry;
+        header.putShort((short) record.flags);
+        header.putShort((short) entry.method);
+        header.putInt(dosTimeOf(entry.time));
+        header.putInt((int) entry.crc);
+        header.putInt((int) record.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) record.name.length);
+    }
+
+    private boolean needsZip64(final long offset, final long size) {
+        return records.size() >= MAXIMUM_SHORT || offset >= MAXIMUM_INT
+                || size >= MAXIMUM_INT;
+    }
+
+    private void writeZip64End(final long offset, final long size)
+            throws IOException {
+        final long endOffset = output.getCount();
+        final ByteBuffer end = headerBuffer(ZIP64_END_SIZE
+                + ZIP64_LOCATOR_SIZE);
+        end.putInt(ZIP64_END_SIGNATURE);
+        end.putLong(ZIP64_END_SIZE - 12);
+        end.putShort((short) ZIP64_VERSION);
+        end.putShort((short) ZIP64_VERSION);
+        end.putInt(0);
+        end.putInt(0);
+        end.putLong(records.size());
+        end.putLong(records.size());
+        end.putLong(size);
+        end.putLong(offset);
+        end.putInt(ZIP64_LOCATOR_SIGNATURE);
+        end.putInt(0);
+        end.putLong(endOffset);
+        end.putInt(1);
+        output.write(end.array());
+    }
+
+    private void writeEnd(final long offset, final long size)
+            throws IOException {
+        final short count = (short) Math.min(records.size(), MAXIMUM_SHORT);
+        final ByteBuffer end = headerBuffer(END_SIZE);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort(count);
+        end.putShort(count);
+        end.putInt((int) Math.min(size, MAXIMUM_INT));
+        end.putInt((int) Math.min(offset, MAXIMUM_INT));
+        end.putShort((short) 0);
+        output.write(end.array());
+    }
+
+    private static ByteBuffer headerBuffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int dosTimeOf(final long time) {
+        final DateTime dateTime = new DateTime(time);
+        if (dateTime.getYear() < DOS_EPOCH_YEAR) {
+            return DOS_EPOCH;
+        }
+        return (dateTime.getYear() - DOS_EPOCH_YEAR) << 25
+                | dateTime.getMonthOfYear() << 21
+                | dateTime.getDayOfMonth() << 16
+                | dateTime.getHourOfDay() << 11
+                | dateTime.getMinuteOfHour() << 5
+                | dateTime.getSecondOfMinute() >> 1;
+    }
+}
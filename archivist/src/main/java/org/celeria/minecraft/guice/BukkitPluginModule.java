@@ -59,8 +59,12 @@ final class BukkitPluginModule extends AbstractModule {
     }
 
     @Provides @Singleton
-    public LocLogger provideLogger() {
-        final IMessageConveyor messageConveyor = new MessageConveyor(Locale.US);
+    public IMessageConveyor provideMessageConveyor() {
+        return new MessageConveyor(Locale.US);
+    }
+
+    @Provides @Singleton
+    public LocLogger provideLogger(final IMessageConveyor messageConveyor) {
         final LocLoggerFactory factory = new LocLoggerFactory(messageConveyor);
         return factory.getLocLogger(BUKKIT_LOGGER_NAME);
     }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.guice;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.lang.annotation.*;
+import com.google.inject.*;
+
+/**
+ * Runs background tasks a few at a time. Tasks that share a group, such as
+ * tasks reading from the same disk, never run at the same time, and waiting
+ * tasks of a higher priority are started first.
+ */
+@ImplementedBy(TaskQueueImpl.class)
+public interface TaskQueue {
+    @BindingAnnotation @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    public @interface ConcurrentTasks {}
+
+    enum Priority {
+        HIGH,
+        NORMAL
+    }
+
+    void submit(Runnable task, Object group, Priority priority);
+    int queuedTasks();
+    int runningTasks();
+
+    /**
+     * Drops the tasks that have yet to start without running them, so a
+     * task must not hold anything open until it runs.
+     */
+    void cancelQueuedTasks();
+}
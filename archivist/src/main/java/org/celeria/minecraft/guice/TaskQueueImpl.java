@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.guice;
+
+import static com.google.common.base.Preconditions.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.annotation.concurrent.*;
+import com.google.common.collect.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.*;
+
+@Singleton @ThreadSafe
+class TaskQueueImpl implements TaskQueue {
+    private static final String THREAD_NAME = "Background task %d";
+    private final int concurrentTasks;
+    private final ExecutorService executor;
+    @GuardedBy("this") private final SortedSet<QueuedTask> queue =
+            Sets.newTreeSet();
+    @GuardedBy("this") private final Set<Object> busyGroups =
+            Sets.newHashSet();
+    @GuardedBy("this") private long sequence;
+
+    @Inject
+    TaskQueueImpl(@ConcurrentTasks final int concurrentTasks) {
+        this(concurrentTasks, Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat(THREAD_NAME).build()));
+    }
+
+    TaskQueueImpl(final int concurrentTasks, final ExecutorService executor) {
+        checkArgument(concurrentTasks > 0);
+        this.concurrentTasks = concurrentTasks;
+        this.executor = executor;
+    }
+
+    @Immutable
+    private static final class QueuedTask implements Comparable<QueuedTask> {
+        private final Runnable task;
+        private final Object group;
+        private final Priority priority;
+        private final long sequence;
+
+        QueuedTask(final Runnable task, final Object group,
+                final Priority priority, final long sequence) {
+            this.task = task;
+            this.group = group;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final QueuedTask other) {
+            final int order = priority.compareTo(other.priority);
+            if (order != 0) {
+                return order;
+            }
+            return sequence < other.sequence ? -1
+                    : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    @Override
+    public synchronized void submit(final Runnable task, final Object group,
+            final Priority priority) {
+        queue.add(new QueuedTask(checkNotNull(task), checkNotNull(group),
+                checkNotNull(priority), sequence++));
+        startTasks();
+    }
+
+    @Override
+    public synchronized int queuedTasks() {
+        return queue.size();
+    }
+
+    @Override
+    public synchronized int runningTasks() {
+        return busyGroups.size();
+    }
+
+    @Override
+    public synchronized void cancelQueuedTasks() {
+        queue.clear();
+    }
+
+    @GuardedBy("this")
+    private void startTasks() {
+        final Iterator<QueuedTask> tasks = queue.iterator();
+        while (busyGroups.size() < concurrentTasks && tasks.hasNext()) {
+            final QueuedTask task = tasks.next();
+            if (busyGroups.add(task.group)) {
+                tasks.remove();
+                start(task);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void start(final QueuedTask task) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.task.run();
+                    } finally {
+                        finished(task);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            busyGroups.remove(task.group);
+            throw e;
+        }
+    }
+
+    private synchronized void finished(final QueuedTask task) {
+        busyGroups.remove(task.group);
+        startTasks();
+    }
+}
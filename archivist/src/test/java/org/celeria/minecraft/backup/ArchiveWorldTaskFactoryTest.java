@@ -20,6 +20,17 @@ import static org.mockito.Mockito.*;
 import com.google.inject.Inject;
 import org.apache.commons.vfs2.*;
 import org.bukkit.World;
+import org.celeria.minecraft.backup.ArchiveWorldTask.ArchiveDirectly;
+import org.celeria.minecraft.backup.BackupQuota.*;
+import org.celeria.minecraft.backup.ChangeDetector.SkipUnchangedWorlds;
+import org.celeria.minecraft.backup.CompressionPolicy.AdaptiveCompression;
+import org.celeria.minecraft.backup.IncrementalArchive.IncrementalBackups;
+import org.celeria.minecraft.backup.ManifestArchive.VerifyBackups;
+import org.celeria.minecraft.backup.MemoryStaging.StagingMemory;
+import org.celeria.minecraft.backup.IoThrottle.*;
+import org.celeria.minecraft.backup.ParallelZipArchive.CompressionThreads;
+import org.celeria.minecraft.backup.PipelinedZipArchive.PipelineMemory;
+import org.celeria.minecraft.backup.StagingMirror.CompareContents;
 import org.jukito.*;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -32,6 +43,20 @@ public class ArchiveWorldTaskFactoryTest {
         protected void configureTest() {
             bind(CompressionLevel.class).toInstance(
                     CompressionLevel.DEFAULT);
+            bindConstant().annotatedWith(CompressionThreads.class).to(1);
+            bindConstant().annotatedWith(AdaptiveCompression.class).to(true);
+            bindConstant().annotatedWith(PipelineMemory.class).to(0L);
+            bindConstant().annotatedWith(VerifyBackups.class).to(false);
+            bindConstant().annotatedWith(IncrementalBackups.class).to(0);
+            bind(Storage.class).toInstance(Storage.ZIP);
+            bindConstant().annotatedWith(QuotaBytes.class).to(0L);
+            bind(Eviction.class).toInstance(Eviction.OLDEST);
+            bindConstant().annotatedWith(SkipUnchangedWorlds.class).to(false);
+            bindConstant().annotatedWith(ArchiveDirectly.class).to(false);
+            bindConstant().annotatedWith(StagingMemory.class).to(0L);
+            bindConstant().annotatedWith(CompareContents.class).to(false);
+            bindConstant().annotatedWith(TickBudget.class).to(50L);
+            bindConstant().annotatedWith(MaximumBytesPerSecond.class).to(0L);
         }
     }
 
@@ -51,7 +76,26 @@ public class ArchiveWorldTaskFactoryTest {
 
     @Test
     public void testCreate(final World world) throws Exception {
+        when(world.getName()).thenReturn("world");
         factory.create(world);
         // TODO: verify something!
     }
+
+    @Test
+    public void shouldOpenNothingUntilTaskRuns(final World world)
+            throws Exception {
+        when(world.getName()).thenReturn("world");
+        factory.create(world);
+        verify(fileSystemManager, never()).resolveFile(
+                Matchers.<FileObject>any(), anyString());
+        verifyZeroInteractions(fileContent);
+    }
+
+    @Test
+    public void shouldNotLookAtWorldUntilTaskRuns(final World world)
+            throws Exception {
+        when(world.getName()).thenReturn("world");
+        factory.create(world);
+        verifyZeroInteractions(fileSystemManagerProvider, fileSystemManager);
+    }
 }
@@ -16,38 +16,74 @@
 
 package org.celeria.minecraft.backup;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
-import com.google.inject.Inject;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.google.inject.*;
 import com.google.inject.name.Named;
 import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
 import org.bukkit.World;
 import org.celeria.minecraft.backup.ArchiveWorldTask.*;
+import org.celeria.minecraft.backup.CompressionPolicy.AdaptiveCompression;
+import org.celeria.minecraft.backup.IoThrottle.*;
+import org.celeria.minecraft.backup.MemoryStaging.StagedWorld;
+import org.celeria.minecraft.guice.TaskScheduler;
 import org.jukito.*;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.cal10n.LocLogger;
 
 @RunWith(JukitoRunner.class)
 public class ArchiveWorldTaskTest {
     public static class Module extends JukitoModule {
         @Override
         protected void configureTest() {
-            bind(World.class).toInstance(mock(World.class));
+            forceMock(World.class);
+            bind(Archive.class).to(ZipArchive.class);
+            bind(CompressionLevel.class).toInstance(CompressionLevel.DEFAULT);
+            bindConstant().annotatedWith(AdaptiveCompression.class).to(true);
+            forceMock(StagingMirror.class);
+            forceMock(DirtyRegionTracker.class);
+            bindConstant().annotatedWith(ArchiveDirectly.class).to(false);
+            bind(new TypeLiteral<Optional<StagedWorld>>() {}).toInstance(
+                    Optional.<StagedWorld>absent());
+            bindConstant().annotatedWith(TickBudget.class).to(50L);
+            bindConstant().annotatedWith(MaximumBytesPerSecond.class).to(0L);
         }
     }
 
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
     @Inject private ArchiveWorldTask task;
     @Inject @WorldFolder private FileObject worldFolder;
-    @Inject @TemporaryWorldFolder private FileObject temporaryWorldFolder;
+    @Inject @StagingWorldFolder private FileObject stagingWorldFolder;
+    @Inject private StagingMirror mirror;
     @Inject private ZipOutputStream archive;
     @Inject @Named("file") private FileObject file;
     @Inject @Named("folder") private FileObject folder;
     @Inject @Named("file") private FileName fileName;
 
+    @Before
+    public void setUpScheduler(final TaskScheduler scheduler) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(scheduler).runSynchronousTask(Matchers.<Runnable>any());
+    }
+
     @Before
     public void setUpFile() throws Exception {
         when(file.getType()).thenReturn(FileType.FILE);
@@ -60,6 +96,8 @@ public class ArchiveWorldTaskTest {
         when(file.getContent()).thenReturn(fileContent);
         when(fileContent.getInputStream()).thenReturn(inputStream);
         when(inputStream.read(Matchers.<byte[]>any())).thenReturn(-1);
+        when(inputStream.read(Matchers.<byte[]>any(), Matchers.anyInt(),
+                Matchers.anyInt())).thenReturn(-1);
     }
 
     @Before
@@ -70,24 +108,24 @@ public class ArchiveWorldTaskTest {
     }
 
     @Before
-    public void setUpTemporaryWorldFolder(
-            @TemporaryWorldFolder final FileName temporaryWorldFolderName)
+    public void setUpStagingWorldFolder(
+            @StagingWorldFolder final FileName stagingWorldFolderName)
             throws Exception {
-        when(temporaryWorldFolder.getChildren())
+        when(stagingWorldFolder.getChildren())
                 .thenReturn(new FileObject[] {folder, file});
-        when(temporaryWorldFolder.getName())
-                .thenReturn(temporaryWorldFolderName);
-        when(temporaryWorldFolderName.getRelativeName(fileName))
+        when(stagingWorldFolder.getName())
+                .thenReturn(stagingWorldFolderName);
+        when(stagingWorldFolderName.getRelativeName(fileName))
                 .thenReturn("foobar");
     }
 
     @Before
-    public void setTemporaryWorldFolderProvider(
-            @TemporaryWorldFolder
-            final FileProvider<FileObject> temporaryWorldFolderProvider)
+    public void setStagingWorldFolderProvider(
+            @StagingWorldFolder
+            final FileProvider<FileObject> stagingWorldFolderProvider)
             throws Exception {
-        when(temporaryWorldFolderProvider.get())
-                .thenReturn(temporaryWorldFolder);
+        when(stagingWorldFolderProvider.get())
+                .thenReturn(stagingWorldFolder);
     }
 
     @Before
@@ -104,15 +142,75 @@ public class ArchiveWorldTaskTest {
         when(archiveProvider.get()).thenReturn(archive);
     }
 
-    // TODO: figure out what's up with Jukito so I can split this into
-    // multiple tests!
     @Test
     public void testRun(final World world) throws Exception {
         task.run();
         shouldSaveWorld(world);
-        shouldCopyWorld();
+        shouldSynchronizeWorld();
+        shouldArchiveFile();
+    }
+
+    @Test
+    public void shouldResumeAutoSaveWhenSaveFails(final World world)
+            throws Exception {
+        doThrow(new IllegalStateException()).when(world).save();
+        task.run();
+        verify(world).setAutoSave(false);
+        verify(world).setAutoSave(true);
+        verify(mirror, never()).synchronize(Matchers.<FileObject>any(),
+                Matchers.<FileObject>any(), Matchers.<DirtyRegions>any());
+    }
+
+    @Test
+    public void shouldLeaveAutoSaveAloneWhenOptimistic(final World world)
+            throws Exception {
+        when(mirror.isOptimistic()).thenReturn(true);
+        task.run();
+        verify(world).save();
+        verify(world, never()).setAutoSave(Matchers.anyBoolean());
         shouldArchiveFile();
-        shouldDeleteTemporaryFolder();
+    }
+
+    @Test
+    public void shouldLeaveAutoSaveAloneWhenArchivingDirectly(
+            final LocLogger log, final TaskScheduler scheduler,
+            final DirtyRegionTracker tracker, final Archive archiver,
+            final IoThrottle throttle, final World world) throws Exception {
+        new ArchiveWorldTask(log, scheduler, worldFolder, stagingWorldFolder,
+                mirror, tracker, archiver, throttle, new BackupRun(),
+                new WorldStatistics(), true,
+                Optional.<StagedWorld>absent(), world).run();
+        verify(world).save();
+        verify(world, never()).setAutoSave(Matchers.anyBoolean());
+        verify(mirror, never()).synchronize(Matchers.<FileObject>any(),
+                Matchers.<FileObject>any(), Matchers.<DirtyRegions>any());
+    }
+
+    @Test
+    public void shouldGiveBackMemoryWhenStagingInMemoryFails(
+            final LocLogger log, final TaskScheduler scheduler,
+            final DirtyRegionTracker tracker, final Archive archiver,
+            final IoThrottle throttle, final World world) throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        final File localWorld = temporaryFolder.newFolder("world");
+        Files.write(new byte[] {1}, new File(localWorld, "a.dat"));
+        Files.write(new byte[] {1, 2, 3}, new File(localWorld, "level.dat"));
+        final MemoryStaging memory = new MemoryStaging(2, mirror, throttle);
+        doThrow(new IOException()).when(mirror).synchronizeFile(
+                Matchers.<File>any(), Matchers.<File>any());
+        final StagedWorld staged = memory.newStagedWorld();
+        new ArchiveWorldTask(log, scheduler,
+                fileSystem.toFileObject(localWorld),
+                fileSystem.toFileObject(temporaryFolder.newFolder("staged")),
+                mirror, tracker, archiver, throttle, new BackupRun(),
+                new WorldStatistics(), false, Optional.of(staged),
+                world).run();
+        assertEquals(0, memory.reservedBytes());
+        verify(world).setAutoSave(false);
+        verify(world).setAutoSave(true);
+        verify(tracker, never()).drain(world);
     }
 
     private void shouldSaveWorld(final World world) {
@@ -121,18 +219,12 @@ public class ArchiveWorldTaskTest {
         verify(world).setAutoSave(true);
     }
 
-    private void shouldCopyWorld() throws Exception {
-        verify(temporaryWorldFolder)
-                .copyFrom(worldFolder, Selectors.SELECT_ALL);
+    private void shouldSynchronizeWorld() throws Exception {
+        verify(mirror).synchronize(worldFolder, stagingWorldFolder, null);
     }
 
     private void shouldArchiveFile() throws IOException {
         verify(archive).putNextEntry(Matchers.<ZipEntry>any());
         verify(archive).close();
     }
-
-    private void shouldDeleteTemporaryFolder() throws Exception {
-        verify(temporaryWorldFolder).delete(Selectors.SELECT_ALL);
-        verify(temporaryWorldFolder).delete();
-    }
 }
@@ -21,7 +21,8 @@ import static org.mockito.Mockito.*;
 import com.google.inject.Inject;
 import org.bukkit.command.*;
 import org.bukkit.plugin.Plugin;
-import org.celeria.minecraft.guice.TaskScheduler;
+import org.celeria.minecraft.backup.DeleteOldBackupsTask.RetentionDryRun;
+import org.celeria.minecraft.guice.*;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 import org.jukito.*;
@@ -36,6 +37,11 @@ public class ArchivistTest {
         @Override
         protected void configureTest() {
             bindMock(Plugin.class);
+            bindMock(ScrubBackupsTask.class).in(TestSingleton.class);
+            bindMock(TieredRetention.class).in(TestSingleton.class);
+            bind(RetentionScheme.class).toInstance(RetentionScheme.AGE);
+            bind(Boolean.class).annotatedWith(RetentionDryRun.class)
+                    .toInstance(false);
             bind(Duration.class).toInstance(DURATION);
             try {
                 bind(PluginCommand.class).toConstructor(
@@ -49,9 +55,11 @@ public class ArchivistTest {
 
     @Inject private Archivist mineBackUp;
     @Inject private TaskScheduler scheduler;
+    @Inject private TaskQueue queue;
     @Inject private PluginCommand pluginCommand;
     @Inject private CommandExecutor manualBackUpExecutor;
     @Inject private DeleteOldBackupsTask deleteOldBackupsTask;
+    @Inject private ScrubBackupsTask scrubBackupsTask;
     @Inject private BackUpWorldsTask backUpTask;
     @Inject private Period backUpPeriod;
 
@@ -66,6 +74,8 @@ public class ArchivistTest {
         verify(scheduler).cancelTasks();
         verify(scheduler).repeatAsynchronousTask(deleteOldBackupsTask,
                 2 * backUpPeriod.getMillis());
+        verify(scheduler).repeatAsynchronousTask(same(scrubBackupsTask),
+                anyLong());
         verify(scheduler).repeatSynchronousTask(backUpTask,
                 backUpPeriod.getMillis(), backUpPeriod.getMillis());
     }
@@ -78,5 +88,6 @@ public class ArchivistTest {
     public void testStop() {
         mineBackUp.stop();
         verify(scheduler).cancelTasks();
+        verify(queue).cancelQueuedTasks();
     }
 }
@@ -20,7 +20,8 @@ import static org.mockito.Mockito.*;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import org.bukkit.*;
-import org.celeria.minecraft.guice.TaskScheduler;
+import org.celeria.minecraft.guice.TaskQueue;
+import org.celeria.minecraft.guice.TaskQueue.Priority;
 import org.jukito.JukitoRunner;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -30,7 +31,7 @@ import org.mockito.Matchers;
 public class BackUpWorldsTaskTest {
     @Inject private BackUpWorldsTask task;
     @Inject private Server server;
-    @Inject private TaskScheduler scheduler;
+    @Inject private TaskQueue queue;
     @Inject private Iterable<World> worlds;
     @Inject private World world;
     @Inject private WorldTaskFactory worldTaskFactory;
@@ -40,6 +41,7 @@ public class BackUpWorldsTaskTest {
     public void setUp() throws Exception {
         when(worldTaskFactory.create(Matchers.<World>any())).thenReturn(
                 worldTask);
+        when(world.getName()).thenReturn("world");
         when(worlds.iterator()).thenReturn(
                 ImmutableList.<World>of(world).iterator());
     }
@@ -48,6 +50,14 @@ public class BackUpWorldsTaskTest {
     public void testRun() {
         task.run();
         verify(server).savePlayers();
-        verify(scheduler).runAsynchronousTask(worldTask);
+        verify(queue).submit(Matchers.eq(worldTask), Matchers.any(),
+                Matchers.eq(Priority.NORMAL));
+    }
+
+    @Test
+    public void shouldQueueManualBackUpsFirst() {
+        task.withPriority(Priority.HIGH).run();
+        verify(queue).submit(Matchers.eq(worldTask), Matchers.any(),
+                Matchers.eq(Priority.HIGH));
     }
 }
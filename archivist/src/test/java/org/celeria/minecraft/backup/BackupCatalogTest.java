@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.util.List;
+import com.google.common.collect.*;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.cal10n.LocLogger;
+
+public class BackupCatalogTest {
+    private static final long TIME = 1318000000000L;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private FileObject backupFolder;
+    private FileObject stateFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        backupFolder = fileSystem.toFileObject(
+                temporaryFolder.newFolder("backups"));
+        stateFolder = fileSystem.toFileObject(
+                temporaryFolder.newFolder("state"));
+    }
+
+    @Test
+    public void shouldRememberBackupsAcrossInstances() throws Exception {
+        final BackupCatalog catalog = newCatalog();
+        catalog.add(new Backup("world_2.zip", "world", TIME + 1, 20, 2, 0xab,
+                "world_1.zip"));
+        catalog.add(new Backup("world_1.zip", "world", TIME, 10, 1, 0xcd,
+                ""));
+        catalog.add(new Backup("nether_1.zip", "nether", TIME, 5, 1, 0, ""));
+        final BackupCatalog reloaded = newCatalog();
+        final List<Backup> backups = reloaded.backupsOf("world");
+        assertEquals(ImmutableList.of("world_1.zip", "world_2.zip"),
+                namesOf(backups));
+        final Backup backup = reloaded.backup("world_2.zip");
+        assertEquals(20, backup.size());
+        assertEquals(0xab, backup.checksum());
+        assertEquals("world_1.zip", backup.parent());
+    }
+
+    @Test
+    public void shouldForgetRemovedBackups() throws Exception {
+        final BackupCatalog catalog = newCatalog();
+        catalog.add(new Backup("world_1.zip", "world", TIME, 10, 1, 0, ""));
+        catalog.add(new Backup("world_2.zip", "world", TIME, 10, 1, 0, ""));
+        catalog.remove("world_1.zip");
+        assertEquals(ImmutableList.of("world_2.zip"),
+                namesOf(newCatalog().backups()));
+    }
+
+    @Test
+    public void shouldRebuildFromBackupFolder() throws Exception {
+        final FileObject archive = backupFolder.resolveFile("my_world_1.zip");
+        Files.write(new byte[100], LocalFiles.toFile(archive));
+        new IntegrityManifest(ImmutableMap.of("level.dat",
+                new IntegrityManifest.Entry(1, TIME, 2)), 100, 0xef)
+                .writeTo(IntegrityManifest.fileFor(archive));
+        final Backup backup = newCatalog().backup("my_world_1.zip");
+        assertEquals("my_world", backup.world());
+        assertEquals(100, backup.size());
+        assertEquals(1, backup.entries());
+        assertEquals(0xef, backup.checksum());
+    }
+
+    @Test
+    public void shouldRebuildUnreadableCatalog() throws Exception {
+        Files.write(new byte[] {'?', '\n'}, LocalFiles.toFile(
+                stateFolder.resolveFile(BackupCatalog.FILE_NAME)));
+        Files.write(new byte[10], LocalFiles.toFile(
+                backupFolder.resolveFile("world_1.zip")));
+        assertEquals(ImmutableList.of("world_1.zip"),
+                namesOf(newCatalog().backups()));
+    }
+
+    private BackupCatalog newCatalog() {
+        return new BackupCatalog(mock(LocLogger.class),
+                providerOf(backupFolder), providerOf(stateFolder));
+    }
+
+    private static List<String> namesOf(final List<Backup> backups) {
+        final List<String> names = Lists.newArrayList();
+        for (final Backup backup : backups) {
+            names.add(backup.name());
+        }
+        return names;
+    }
+
+    private static FileProvider<FileObject> providerOf(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.Map;
+import java.util.zip.*;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.celeria.minecraft.backup.ArchiveDirectoryCache.ArchiveDirectory;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class BackupFileProviderTest {
+    private static final byte[] LEVEL_DATA = {1, 2, 3};
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private FileSystemManager fileSystem;
+    private File backupFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        backupFolder = temporaryFolder.newFolder("backups");
+        writeBackup("world_1.zip", ImmutableMap.of("level.dat", LEVEL_DATA,
+                "region/r.0.0.mca", new byte[] {4}));
+    }
+
+    @Test
+    public void shouldShowArchiveAsFolder() throws Exception {
+        final FileObject archive = resolve("world_1.zip");
+        assertEquals(FileType.FOLDER, archive.getType());
+        assertEquals(2, archive.getChildren().length);
+        assertEquals("level.dat", archive.getChildren()[0].getName()
+                .getBaseName());
+    }
+
+    @Test
+    public void shouldShowFoldersWithoutEntriesOfTheirOwn()
+            throws Exception {
+        final FileObject region = resolve("world_1.zip/region");
+        assertEquals(FileType.FOLDER, region.getType());
+        assertEquals(FileType.FILE,
+                region.getChildren()[0].getType());
+    }
+
+    @Test
+    public void shouldReadSingleEntry() throws Exception {
+        final FileContent content = resolve("world_1.zip/level.dat")
+                .getContent();
+        assertEquals(LEVEL_DATA.length, content.getSize());
+        final InputStream input = content.getInputStream();
+        try {
+            assertArrayEquals(LEVEL_DATA, ByteStreams.toByteArray(input));
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void shouldNotFindMissingEntry() throws Exception {
+        assertFalse(resolve("world_1.zip/session.lock").exists());
+    }
+
+    @Test
+    public void shouldBeReadOnly() throws Exception {
+        assertFalse(resolve("world_1.zip/level.dat").isWriteable());
+    }
+
+    @Test
+    public void shouldBoundNumberOfOpenArchives() throws Exception {
+        final ArchiveDirectoryCache cache = new ArchiveDirectoryCache(1);
+        writeBackup("world_2.zip", ImmutableMap.of("level.dat", LEVEL_DATA));
+        final ArchiveDirectory directory =
+                cache.directoryOf(new File(backupFolder, "world_1.zip"));
+        final InputStream input = directory.open(directory.entry("level.dat"));
+        cache.directoryOf(new File(backupFolder, "world_2.zip"));
+        assertEquals(1, cache.size());
+        try {
+            assertArrayEquals(LEVEL_DATA, ByteStreams.toByteArray(input));
+        } finally {
+            input.close();
+        }
+    }
+
+    private FileObject resolve(final String path) throws FileSystemException {
+        return fileSystem.resolveFile(BackupFileProvider.SCHEME + "://"
+                + backupFolder.getAbsolutePath() + "/" + path);
+    }
+
+    private void writeBackup(final String name,
+            final Map<String, byte[]> entries) throws IOException {
+        final ZipOutputStream output = new ZipOutputStream(
+                new FileOutputStream(new File(backupFolder, name)));
+        try {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                output.putNextEntry(new ZipEntry(entry.getKey()));
+                output.write(entry.getValue());
+                output.closeEntry();
+            }
+        } finally {
+            output.close();
+        }
+    }
+}
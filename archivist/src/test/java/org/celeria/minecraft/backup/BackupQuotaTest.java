@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.util.List;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.util.Providers;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.celeria.minecraft.backup.BackupQuota.Eviction;
+import org.joda.time.Instant;
+import org.junit.*;
+import org.slf4j.cal10n.LocLogger;
+
+public class BackupQuotaTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final Instant NOW = new Instant(100 * HOUR);
+    private static final long QUOTA = 900;
+    private static final Backup OLDEST = backup("a.zip", 10 * HOUR, 200, "");
+    private static final Backup SPARSE = backup("b.zip", 96 * HOUR, 200, "");
+    private static final Backup CROWDED = backup("c.zip", 97 * HOUR, 200, "");
+    private static final Backup NEWEST = backup("d.zip", 98 * HOUR, 200, "");
+    private BackupCatalog catalog;
+    private BackupDeleter deleter;
+
+    @Before
+    public void setUp() throws Exception {
+        catalog = mock(BackupCatalog.class);
+        deleter = mock(BackupDeleter.class);
+        catalogHas(OLDEST, SPARSE, CROWDED, NEWEST);
+    }
+
+    @Test
+    public void shouldForecastLargestSizeGrownByLargestGrowth() {
+        assertEquals(200, BackupQuota.forecastFor(ImmutableList.of(
+                backup("a", 0, 100, ""), backup("b", 1, 150, ""),
+                backup("c", 2, 120, ""))));
+    }
+
+    @Test
+    public void shouldNotEvictWhenForecastFits() throws Exception {
+        quota(Eviction.OLDEST, 10 * QUOTA).reserveFor("world");
+        verifyZeroInteractions(deleter);
+    }
+
+    @Test
+    public void shouldEvictOldestBackupFirst() throws Exception {
+        quota(Eviction.OLDEST, QUOTA).reserveFor("world");
+        verify(deleter).delete(OLDEST);
+        verify(deleter, never()).delete(NEWEST);
+    }
+
+    @Test
+    public void shouldEvictLeastValuableBackupFirst() throws Exception {
+        quota(Eviction.LEAST_VALUABLE, QUOTA).reserveFor("world");
+        verify(deleter).delete(CROWDED);
+        verify(deleter, never()).delete(OLDEST);
+    }
+
+    @Test
+    public void shouldNotEvictBackupAnotherDependsOn() throws Exception {
+        final Backup child = backup("b.zip", 96 * HOUR, 200, "a.zip");
+        catalogHas(OLDEST, child, CROWDED, NEWEST);
+        quota(Eviction.OLDEST, QUOTA).reserveFor("world");
+        verify(deleter, never()).delete(OLDEST);
+        verify(deleter).delete(child);
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldRefuseWhenNothingCanBeEvicted() throws Exception {
+        catalogHas(NEWEST);
+        quota(Eviction.OLDEST, 100).reserveFor("world");
+    }
+
+    @Test
+    public void shouldCountReservedRoomUntilReleased() throws Exception {
+        catalogHas(NEWEST);
+        final BackupQuota quota = quota(Eviction.OLDEST, 500);
+        quota.reserveFor("world");
+        try {
+            quota.reserveFor("world");
+            fail();
+        } catch (final ArchiveException e) {
+            // Expected.
+        }
+        quota.release("world");
+        quota.reserveFor("world");
+    }
+
+    private BackupQuota quota(final Eviction eviction, final long bytes) {
+        return new BackupQuota(mock(LocLogger.class), catalog, deleter,
+                Providers.of(NOW), bytes, eviction);
+    }
+
+    private void catalogHas(final Backup... backups) throws Exception {
+        final List<Backup> list = ImmutableList.copyOf(backups);
+        long total = 0;
+        for (final Backup backup : backups) {
+            total += backup.size();
+        }
+        when(catalog.backups()).thenReturn(list);
+        when(catalog.backupsOf("world")).thenReturn(list);
+        when(catalog.totalSize()).thenReturn(total);
+    }
+
+    private static Backup backup(final String name, final long time,
+            final long size, final String parent) {
+        return new Backup(name, "world", time, size, 1, 0, parent);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import com.google.common.collect.*;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.cal10n.LocLogger;
+
+public class BackupRestorerTest {
+    private static final String LEVEL = "level.dat";
+    private static final String REGION = "region/r.0.0.mca";
+    private static final String OTHER_REGION = "region/r.1.0.mca";
+    private static final byte[] LEVEL_DATA = {1, 2, 3};
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File backupFolder;
+    private File target;
+    private BackupCatalog catalog;
+    private ExecutorService executor;
+    private BackupRestorer restorer;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        backupFolder = temporaryFolder.newFolder("backups");
+        target = temporaryFolder.newFolder("target");
+        final FileProvider<FileObject> backupFolderProvider =
+                providerOf(fileSystem.toFileObject(backupFolder));
+        catalog = new BackupCatalog(mock(LocLogger.class),
+                backupFolderProvider, providerOf(fileSystem.toFileObject(
+                        temporaryFolder.newFolder("state"))));
+        executor = Executors.newFixedThreadPool(2);
+        restorer = new BackupRestorer(backupFolderProvider, catalog,
+                executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldRestoreEveryFile() throws Exception {
+        final byte[] region = regionOf(1, 1);
+        writeBackup("world_1.zip", ImmutableMap.of(LEVEL, LEVEL_DATA,
+                REGION, region));
+        assertEquals(2, restorer.restore("world_1.zip", target,
+                ChunkSelection.everything()));
+        assertArrayEquals(LEVEL_DATA, restored(LEVEL));
+        assertArrayEquals(region, restored(REGION));
+    }
+
+    @Test
+    public void shouldRestoreOnlySelectedRegions() throws Exception {
+        writeBackup("world_1.zip", ImmutableMap.of(LEVEL, LEVEL_DATA,
+                REGION, regionOf(1, 1), OTHER_REGION, regionOf(2, 2)));
+        restorer.restore("world_1.zip", target,
+                ChunkSelection.ofRegions(ImmutableList.of("r.1.0.mca")));
+        assertTrue(new File(target, OTHER_REGION).exists());
+        assertFalse(new File(target, REGION).exists());
+        assertFalse(new File(target, LEVEL).exists());
+    }
+
+    @Test
+    public void shouldApplyChangedChunksOfChain() throws Exception {
+        writeBackup("world_1.zip", ImmutableMap.of(REGION, regionOf(1, 1)));
+        writeBackup("world_2.zip", ImmutableMap.of(
+                REGION + IncrementalArchive.CHUNKS_SUFFIX, changedChunk(1, 2),
+                IncrementalArchive.MANIFEST_NAME,
+                "parent=world_1.zip\n".getBytes("ISO-8859-1")));
+        restorer.restore("world_2.zip", target, ChunkSelection.everything());
+        final RegionFile region = RegionFile.of(restored(REGION));
+        assertArrayEquals(record(1), region.readChunk(0));
+        assertArrayEquals(record(2), region.readChunk(1));
+        assertEquals(2, region.getTimestamps()[1]);
+    }
+
+    @Test
+    public void shouldNotRebuildRemovedRegionFromOlderBackups()
+            throws Exception {
+        writeBackup("world_1.zip", ImmutableMap.of(REGION, regionOf(1, 1)));
+        writeBackup("world_2.zip", ImmutableMap.of(
+                IncrementalArchive.MANIFEST_NAME,
+                ("parent=world_1.zip\nremoved=" + REGION + "\n")
+                        .getBytes("ISO-8859-1")));
+        writeBackup("world_3.zip", ImmutableMap.of(
+                REGION + IncrementalArchive.CHUNKS_SUFFIX, changedChunk(1, 2),
+                IncrementalArchive.MANIFEST_NAME,
+                "parent=world_2.zip\n".getBytes("ISO-8859-1")));
+        restorer.restore("world_3.zip", target, ChunkSelection.everything());
+        final RegionFile region = RegionFile.of(restored(REGION));
+        assertEquals(0, region.readChunk(0).length);
+        assertArrayEquals(record(2), region.readChunk(1));
+    }
+
+    @Test
+    public void shouldMergeSelectedChunksIntoExistingRegion()
+            throws Exception {
+        writeBackup("world_1.zip", ImmutableMap.of(REGION, regionOf(1, 1)));
+        new File(target, "region").mkdirs();
+        Files.write(regionOf(9, 9), new File(target, REGION));
+        restorer.restore("world_1.zip", target,
+                ChunkSelection.ofChunks(0, 0, 0, 0));
+        final RegionFile region = RegionFile.of(restored(REGION));
+        assertArrayEquals(record(1), region.readChunk(0));
+        assertArrayEquals(record(9), region.readChunk(1));
+    }
+
+    @Test
+    public void shouldRefuseEntryOutsideTarget() throws Exception {
+        writeBackup("world_1.zip", ImmutableMap.of("../escaped.dat",
+                LEVEL_DATA));
+        try {
+            restorer.restore("world_1.zip", target,
+                    ChunkSelection.everything());
+            fail();
+        } catch (final ArchiveException e) {
+            // Expected.
+        }
+        assertFalse(new File(target.getParentFile(), "escaped.dat")
+                .exists());
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldRefuseUnknownBackup() throws Exception {
+        restorer.restore("world_1.zip", target, ChunkSelection.everything());
+    }
+
+    private void writeBackup(final String name,
+            final Map<String, byte[]> entries) throws IOException {
+        final ZipOutputStream output = new ZipOutputStream(
+                new FileOutputStream(new File(backupFolder, name)));
+        try {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                output.putNextEntry(new ZipEntry(entry.getKey()));
+                output.write(entry.getValue());
+                output.closeEntry();
+            }
+        } finally {
+            output.close();
+        }
+        catalog.add(new Backup(name, "world", 0, 0, entries.size(), 0, ""));
+    }
+
+    private byte[] restored(final String name) throws IOException {
+        return Files.toByteArray(new File(target, name));
+    }
+
+    /** Returns a region whose first two chunks hold the given bytes. */
+    private static byte[] regionOf(final int first, final int second)
+            throws IOException {
+        final byte[][] records = new byte[RegionFile.CHUNKS][];
+        records[0] = record(first);
+        records[1] = record(second);
+        return RegionFile.assemble(new int[RegionFile.CHUNKS], records);
+    }
+
+    private static byte[] changedChunk(final int index, final int data)
+            throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(1);
+        output.writeShort(index);
+        output.writeInt(data);
+        output.writeInt(record(data).length);
+        output.write(record(data));
+        output.flush();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] record(final int data) {
+        return new byte[] {2, (byte) data};
+    }
+
+    private static FileProvider<FileObject> providerOf(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+}
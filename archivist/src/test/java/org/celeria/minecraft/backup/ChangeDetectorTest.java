@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.cal10n.LocLogger;
+
+public class ChangeDetectorTest {
+    private static final String WORLD = "world";
+    private static final String BACKUP = "world_1.zip";
+    private static final String REGION = "region/r.0.0.mca";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File worldFolder;
+    private File stagedFolder;
+    private BackupCatalog catalog;
+    private ChangeDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        final FileProvider<FileObject> stateFolderProvider = providerOf(
+                fileSystem.toFileObject(temporaryFolder.newFolder("state")));
+        catalog = new BackupCatalog(mock(LocLogger.class),
+                providerOf(fileSystem.toFileObject(
+                        temporaryFolder.newFolder("backups"))),
+                stateFolderProvider);
+        detector = new ChangeDetector(stateFolderProvider, catalog);
+        worldFolder = temporaryFolder.newFolder(WORLD);
+        stagedFolder = temporaryFolder.newFolder("staged");
+        writeRegion(worldFolder, 1);
+        writeRegion(stagedFolder, 1);
+        catalog.add(new Backup(BACKUP, WORLD, 0, 0, 1, 0, ""));
+    }
+
+    @Test
+    public void shouldFindWorldUnchangedSinceItsBackup() throws Exception {
+        detector.record(WORLD, WorldFingerprint.of(stagedFolder));
+        assertEquals(BACKUP, detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    @Test
+    public void shouldNoticeChangedChunkTimestamp() throws Exception {
+        detector.record(WORLD, WorldFingerprint.of(stagedFolder));
+        writeRegion(worldFolder, 2);
+        assertNull(detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    @Test
+    public void shouldNoticeNewRegion() throws Exception {
+        detector.record(WORLD, WorldFingerprint.of(stagedFolder));
+        Files.copy(new File(worldFolder, REGION),
+                new File(worldFolder, "region/r.1.0.mca"));
+        assertNull(detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    @Test
+    public void shouldIgnoreFilesOtherThanRegions() throws Exception {
+        detector.record(WORLD, WorldFingerprint.of(stagedFolder));
+        Files.write(new byte[] {1}, new File(worldFolder, "level.dat"));
+        assertEquals(BACKUP, detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    @Test
+    public void shouldBackUpAgainOnceLastBackupIsGone() throws Exception {
+        detector.record(WORLD, WorldFingerprint.of(stagedFolder));
+        catalog.remove(BACKUP);
+        assertNull(detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    @Test
+    public void shouldBackUpWorldNeverFingerprinted() throws Exception {
+        assertNull(detector.unchangedSince(WORLD, worldFolder));
+    }
+
+    /**
+     * Writes a region whose only chunk has the given timestamp, keeping the
+     * size and modification time the same whatever the timestamp.
+     */
+    private static void writeRegion(final File folder, final int timestamp)
+            throws IOException {
+        final int[] timestamps = new int[RegionFile.CHUNKS];
+        timestamps[0] = timestamp;
+        final byte[][] records = new byte[RegionFile.CHUNKS][];
+        records[0] = new byte[] {2, 0};
+        final File region = new File(folder, REGION);
+        region.getParentFile().mkdirs();
+        Files.write(RegionFile.assemble(timestamps, records), region);
+        region.setLastModified(1000000000000L);
+    }
+
+    private static FileProvider<FileObject> providerOf(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import org.junit.Test;
+
+public class CompressionPolicyTest {
+    private static final int SAMPLE_SIZE = 4096;
+
+    @Test
+    public void shouldCompressCompressibleEntries() {
+        final CompressionPolicy policy =
+                policy(CompressionLevel.BEST, true);
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        Arrays.fill(sample, (byte) 'a');
+        assertEquals(CompressionLevel.BEST,
+                policy.levelFor("level.dat", sample, sample.length));
+    }
+
+    @Test
+    public void shouldStoreIncompressibleEntries() {
+        final CompressionPolicy policy =
+                policy(CompressionLevel.BEST, true);
+        assertEquals(CompressionLevel.NONE, policy.levelFor("r.0.0.mca",
+                randomSample(0), SAMPLE_SIZE));
+    }
+
+    @Test
+    public void shouldNotSampleWhenNotAdaptive() {
+        final CompressionPolicy policy =
+                policy(CompressionLevel.FASTEST, false);
+        assertEquals(CompressionLevel.FASTEST, policy.levelFor("r.0.0.mca",
+                randomSample(0), SAMPLE_SIZE));
+    }
+
+    @Test
+    public void shouldLearnVerdictOfExtension() {
+        final CompressionPolicy policy =
+                policy(CompressionLevel.DEFAULT, true);
+        for (int i = 0; i < 16; ++i) {
+            policy.levelFor("r." + i + ".0.mca", randomSample(i),
+                    SAMPLE_SIZE);
+        }
+        final byte[] compressible = new byte[SAMPLE_SIZE];
+        assertEquals(CompressionLevel.NONE, policy.levelFor("r.16.0.mca",
+                compressible, compressible.length));
+    }
+
+    private static CompressionPolicy policy(final CompressionLevel level,
+            final boolean adaptive) {
+        return new CompressionPolicy(level, adaptive, new DeflaterPool(),
+                new BufferPool(0));
+    }
+
+    private static byte[] randomSample(final long seed) {
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        new Random(seed).nextBytes(sample);
+        return sample;
+    }
+}
@@ -14,17 +14,22 @@
  * limitations under the License.
  */
 
+
 package org.celeria.minecraft.backup;
 
 import static org.mockito.Mockito.*;
-import com.google.inject.Inject;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.*;
 import com.google.inject.name.Named;
 import org.apache.commons.vfs2.*;
 import org.celeria.minecraft.backup.BackUpWorldsTask.BackupFolder;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.celeria.minecraft.backup.DeleteOldBackupsTask.RetentionDryRun;
 import org.joda.time.*;
 import org.jukito.*;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.slf4j.cal10n.LocLogger;
 
 @RunWith(JukitoRunner.class)
 public class DeleteOldBackupsTaskTest {
@@ -32,46 +37,53 @@ public class DeleteOldBackupsTaskTest {
     private static final long NEW_TIME = CURRENT_TIME.getMillis() * 2;
     private static final long OLD_TIME = 0;
     private static final Duration DURATION = Duration.parse("PT20S");
+    private static final Backup OLD_BACKUP =
+            new Backup("old.zip", "world", OLD_TIME, 1, 1, 0, "");
+    private static final Backup NEW_BACKUP =
+            new Backup("new.zip", "world", NEW_TIME, 1, 1, 0, "");
 
     public static class Module extends JukitoModule {
         @Override
         protected void configureTest() {
             bind(Instant.class).toInstance(CURRENT_TIME);
             bind(Duration.class).toInstance(DURATION);
+            bindMock(BackupCatalog.class).in(TestSingleton.class);
+            bindMock(TieredRetention.class).in(TestSingleton.class);
+            bind(RetentionScheme.class).toInstance(RetentionScheme.AGE);
+            bind(Boolean.class).annotatedWith(RetentionDryRun.class)
+                    .toInstance(false);
         }
     }
 
     @Inject private DeleteOldBackupsTask task;
+    @Inject private BackupCatalog catalog;
+    @Inject private TieredRetention tieredRetention;
+    @Inject private BlockRepository repository;
+    @Inject private BackupStatistics statistics;
+    @Inject private LocLogger log;
+    @Inject private Provider<Instant> currentTime;
+    @Inject private BackupDeleter deleter;
     @Inject @Named("old") private FileObject oldBackUp;
     @Inject @Named("new") private FileObject newBackUp;
 
     @Before
     public void setUpFolder(
             @BackupFolder final FileProvider<FileObject> backupFolderProvider,
-            @BackupFolder final FileObject backupFolder) throws Exception {
-        when(backupFolder.getChildren())
-                .thenReturn(new FileObject[] {oldBackUp, newBackUp});
+            @BackupFolder final FileObject backupFolder,
+            @Named("manifest") final FileObject manifest) throws Exception {
+        when(backupFolder.resolveFile(anyString())).thenReturn(manifest);
+        when(backupFolder.resolveFile("old.zip")).thenReturn(oldBackUp);
+        when(backupFolder.resolveFile("new.zip")).thenReturn(newBackUp);
         when(backupFolderProvider.get()).thenReturn(backupFolder);
-    }
-
-    @Before
-    public void setUpOldBackUp(
-            @Named("old") final FileContent oldBackUpContent) throws Exception {
-        when(oldBackUp.getContent()).thenReturn(oldBackUpContent);
-        when(oldBackUpContent.getLastModifiedTime()).thenReturn(OLD_TIME);
-    }
-
-    @Before
-    public void setUpNewBackUp(
-            @Named("new") final FileContent newBackUpContent) throws Exception {
-        when(newBackUp.getContent()).thenReturn(newBackUpContent);
-        when(newBackUpContent.getLastModifiedTime()).thenReturn(NEW_TIME);
+        when(catalog.backups()).thenReturn(
+                ImmutableList.of(OLD_BACKUP, NEW_BACKUP));
     }
 
     @Test
     public void shouldDeleteOldBackUp() throws Exception {
         task.run();
         verify(oldBackUp).delete();
+        verify(catalog).remove("old.zip");
     }
 
     @Test
@@ -79,4 +91,50 @@ public class DeleteOldBackupsTaskTest {
         task.run();
         verify(newBackUp, never()).delete();
     }
+
+    @Test
+    public void shouldKeepOldBackUpThatNewBackUpNeeds() throws Exception {
+        when(catalog.backups()).thenReturn(ImmutableList.of(OLD_BACKUP,
+                new Backup("new.zip", "world", NEW_TIME, 1, 1, 0, "old.zip")));
+        task.run();
+        verify(oldBackUp, never()).delete();
+        verify(catalog, never()).remove(anyString());
+    }
+
+    @Test
+    public void shouldDeleteWhatTieredRetentionExpires() throws Exception {
+        when(tieredRetention.expired(catalog, CURRENT_TIME)).thenReturn(
+                ImmutableList.of(NEW_BACKUP));
+        taskWith(RetentionScheme.TIERED, false).run();
+        verify(newBackUp).delete();
+        verify(oldBackUp, never()).delete();
+    }
+
+    @Test
+    public void shouldReadmitBackupsThatCouldNotBeDeleted()
+            throws Exception {
+        when(tieredRetention.expired(catalog, CURRENT_TIME)).thenReturn(
+                ImmutableList.of(OLD_BACKUP, NEW_BACKUP));
+        when(oldBackUp.delete()).thenThrow(
+                new FileSystemException("vfs.provider/delete.error"));
+        taskWith(RetentionScheme.TIERED, false).run();
+        verify(newBackUp).delete();
+        verify(catalog).remove("new.zip");
+        verify(tieredRetention).readmit(ImmutableList.of(OLD_BACKUP));
+    }
+
+    @Test
+    public void shouldOnlyLogInDryRun() throws Exception {
+        taskWith(RetentionScheme.AGE, true).run();
+        verify(oldBackUp, never()).delete();
+        verify(catalog, never()).remove(anyString());
+        verify(repository, never()).collectGarbage();
+    }
+
+    private DeleteOldBackupsTask taskWith(final RetentionScheme retention,
+            final boolean dryRun) {
+        return new DeleteOldBackupsTask(log, catalog, deleter, repository,
+                DURATION, currentTime, statistics, retention, tieredRetention,
+                dryRun);
+    }
 }
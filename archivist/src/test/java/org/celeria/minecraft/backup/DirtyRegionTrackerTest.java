@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.bukkit.*;
+import org.junit.*;
+
+public class DirtyRegionTrackerTest {
+    private DirtyRegionTracker tracker;
+    private World world;
+
+    @Before
+    public void setUp() {
+        tracker = new DirtyRegionTracker();
+        world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+        when(world.getLoadedChunks()).thenReturn(new Chunk[0]);
+    }
+
+    @Test
+    public void shouldNotKnowRegionsBeforeFirstDrain() {
+        tracker.markBlock(world, 0, 0);
+        assertNull(tracker.drain(world));
+    }
+
+    @Test
+    public void shouldCollectRegionsMarkedSinceLastDrain() {
+        tracker.drain(world);
+        tracker.markBlock(world, 0, 0);
+        tracker.markBlock(world, -1, 511);
+        tracker.markChunk(world, 32, 0);
+        final DirtyRegions dirty = tracker.drain(world);
+        assertEquals(3, dirty.size());
+        assertTrue(dirty.contains("r.0.0.mca"));
+        assertTrue(dirty.contains("r.-1.0.mcr"));
+        assertTrue(dirty.contains("r.1.0.mca"));
+        assertFalse(dirty.contains("r.0.1.mca"));
+        assertEquals(0, tracker.drain(world).size());
+    }
+
+    @Test
+    public void shouldCountLoadedChunksAsDirty() {
+        final Chunk chunk = mock(Chunk.class);
+        when(chunk.getX()).thenReturn(-33);
+        when(chunk.getZ()).thenReturn(64);
+        tracker.drain(world);
+        when(world.getLoadedChunks()).thenReturn(new Chunk[] {chunk});
+        assertTrue(tracker.drain(world).contains(-2, 2));
+    }
+
+    @Test
+    public void shouldKeepRegionsFarApartInSeparateTiles() {
+        final DirtyRegions dirty = new DirtyRegions();
+        dirty.mark(100000, -100000);
+        dirty.mark(-100000, 100000);
+        assertEquals(2, dirty.size());
+        assertTrue(dirty.contains(100000, -100000));
+        assertFalse(dirty.contains(100000, 100000));
+    }
+
+    @Test
+    public void shouldStartOverOnceForgotten() {
+        tracker.drain(world);
+        tracker.forget("world");
+        assertNull(tracker.drain(world));
+    }
+}
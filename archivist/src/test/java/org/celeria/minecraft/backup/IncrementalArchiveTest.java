@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.*;
+import com.google.common.collect.*;
+import com.google.common.io.*;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.*;
+
+public class IncrementalArchiveTest {
+    private static final String REGION = "region/r.0.0.mca";
+    private static final int SECTOR_SIZE = 4096;
+    private static final byte[] RECORD = {2, 1, 2, 3, 4};
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private FileObject folder;
+    private Archive delegate;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        folder = fileSystem.toFileObject(temporaryFolder.getRoot());
+        delegate = mock(Archive.class);
+    }
+
+    @Test
+    public void shouldWriteOnlyChangedChunks() throws Exception {
+        final IncrementalState state = IncrementalState.empty().next(
+                "base.zip", true, timestampsOf(50, 60),
+                ImmutableSet.<String>of());
+        final IncrementalArchive archive = new IncrementalArchive(delegate,
+                "incremental.zip", state, false, stateFile());
+        archive.write(REGION, regionFile(100, 60).getContent());
+        final DataInputStream chunks = new DataInputStream(
+                writtenEntry(REGION + IncrementalArchive.CHUNKS_SUFFIX));
+        assertEquals(1, chunks.readInt());
+        assertEquals(0, chunks.readShort());
+        assertEquals(100, chunks.readInt());
+        assertEquals(RECORD.length, chunks.readInt());
+        final byte[] record = new byte[RECORD.length];
+        chunks.readFully(record);
+        assertArrayEquals(RECORD, record);
+    }
+
+    @Test
+    public void shouldWriteWholeRegionInFullBackup() throws Exception {
+        final IncrementalArchive archive = new IncrementalArchive(delegate,
+                "base.zip", IncrementalState.empty(), true, stateFile());
+        final FileObject region = regionFile(100, 60);
+        archive.write(REGION, region.getContent());
+        assertArrayEquals(FileUtil.getContent(region),
+                ByteStreams.toByteArray(writtenEntry(REGION)));
+    }
+
+    @Test
+    public void shouldRecordChainOnlyWhenFinished() throws Exception {
+        final IncrementalState state = IncrementalState.empty().next(
+                "base.zip", true, timestampsOf(50, 60),
+                ImmutableSet.<String>of());
+        final IncrementalArchive archive = new IncrementalArchive(delegate,
+                "incremental.zip", state, false, stateFile());
+        archive.write(REGION, regionFile(100, 60).getContent());
+        archive.close();
+        assertFalse(stateFile().exists());
+        final IncrementalArchive finished = new IncrementalArchive(delegate,
+                "incremental.zip", state, false, stateFile());
+        finished.finish();
+        finished.close();
+        assertEquals(ImmutableList.of("base.zip", "incremental.zip"),
+                IncrementalState.readFrom(stateFile()).chain());
+    }
+
+    @Test
+    public void shouldRecordRemovedRegions() throws Exception {
+        final IncrementalState state = IncrementalState.empty().next(
+                "base.zip", true, timestampsOf(50, 60),
+                ImmutableSet.<String>of());
+        final IncrementalArchive archive = new IncrementalArchive(delegate,
+                "incremental.zip", state, false, stateFile());
+        archive.finish();
+        archive.close();
+        final Properties manifest = new Properties();
+        manifest.load(writtenEntry(IncrementalArchive.MANIFEST_NAME));
+        assertEquals(REGION, manifest.getProperty("removed"));
+        assertNull(IncrementalState.readFrom(stateFile())
+                .timestampsOf(REGION));
+    }
+
+    private InputStream writtenEntry(final String name) throws Exception {
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<InputSupplier<InputStream>> input =
+                ArgumentCaptor.forClass((Class) InputSupplier.class);
+        verify(delegate).write(Matchers.eq(name), Matchers.anyLong(),
+                input.capture());
+        return input.getValue().getInput();
+    }
+
+    private FileObject stateFile() throws Exception {
+        return folder.resolveFile("world.incremental");
+    }
+
+    private static Map<String, int[]> timestampsOf(final int first,
+            final int second) {
+        final int[] timestamps = new int[RegionFile.CHUNKS];
+        timestamps[0] = first;
+        timestamps[1] = second;
+        return ImmutableMap.of(REGION, timestamps);
+    }
+
+    private FileObject regionFile(final int first, final int second)
+            throws Exception {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(2 << 8 | 1);
+        output.writeInt(3 << 8 | 1);
+        output.write(new byte[SECTOR_SIZE - 8]);
+        output.writeInt(first);
+        output.writeInt(second);
+        output.write(new byte[SECTOR_SIZE - 8]);
+        for (int i = 0; i < 2; ++i) {
+            output.writeInt(RECORD.length);
+            output.write(RECORD);
+            output.write(new byte[SECTOR_SIZE - 4 - RECORD.length]);
+        }
+        final File file = new File(temporaryFolder.getRoot(), "r.0.0.mca");
+        Files.write(buffer.toByteArray(), file);
+        return folder.resolveFile(file.getName());
+    }
+}
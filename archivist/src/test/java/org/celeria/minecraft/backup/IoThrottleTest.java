@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class IoThrottleTest {
+    private static final long BUDGET = 55;
+    private static final long MAXIMUM_RATE = 8 << 20;
+    private static final long SLOW_TICK = TimeUnit.MILLISECONDS.toNanos(80);
+    private static final long FAST_TICK = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    public void shouldStartAtMaximumRate() {
+        final IoThrottle throttle = new IoThrottle(BUDGET, MAXIMUM_RATE);
+        assertEquals(MAXIMUM_RATE, throttle.bytesPerSecond(), 0);
+    }
+
+    @Test
+    public void shouldSlowDownWhenTicksAreSlow() {
+        final IoThrottle throttle = new IoThrottle(BUDGET, MAXIMUM_RATE);
+        throttle.tickTook(SLOW_TICK);
+        assertTrue(throttle.bytesPerSecond() < MAXIMUM_RATE);
+    }
+
+    @Test
+    public void shouldRecoverWhenTicksAreFast() {
+        final IoThrottle throttle = new IoThrottle(BUDGET, MAXIMUM_RATE);
+        for (int i = 0; i < 20; ++i) {
+            throttle.tickTook(SLOW_TICK);
+        }
+        for (int i = 0; i < 200; ++i) {
+            throttle.tickTook(FAST_TICK);
+        }
+        assertEquals(MAXIMUM_RATE, throttle.bytesPerSecond(), 0);
+    }
+
+    @Test
+    public void shouldLimitUnlimitedRateOnSlowTick() {
+        final IoThrottle throttle = new IoThrottle(BUDGET, 0);
+        assertTrue(Double.isInfinite(throttle.bytesPerSecond()));
+        throttle.tickTook(SLOW_TICK);
+        assertFalse(Double.isInfinite(throttle.bytesPerSecond()));
+    }
+
+    @Test
+    public void shouldKeepFixedRateBelowAdaptiveMinimum() throws Exception {
+        final IoThrottle throttle = IoThrottle.fixedRate(16 << 10);
+        throttle.tickTook(SLOW_TICK);
+        throttle.tickTook(FAST_TICK);
+        assertEquals(16 << 10, throttle.bytesPerSecond(), 0);
+        final long start = System.nanoTime();
+        throttle.acquire(4 << 10);
+        assertTrue(System.nanoTime() - start
+                >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void shouldDelayReadsBeyondRate() throws Exception {
+        final IoThrottle throttle = new IoThrottle(BUDGET, 256 << 10);
+        final long start = System.nanoTime();
+        throttle.acquire(64 << 10);
+        assertTrue(System.nanoTime() - start
+                >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.Random;
+import java.util.zip.*;
+import com.google.common.io.*;
+import com.google.inject.Provider;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.*;
+import org.slf4j.cal10n.LocLogger;
+
+public class ManifestArchiveTest {
+    private static final long TIME = 1318000000000L;
+    private static final String NAME = "region/r.0.0.mca";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private LocLogger log;
+    private BufferPool buffers;
+    private BackupCatalog catalog;
+    private ArchiveVerifier verifier;
+    private FileObject archiveFile;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        archiveFile = fileSystem.toFileObject(temporaryFolder.getRoot())
+                .resolveFile("world.zip");
+        log = mock(LocLogger.class);
+        buffers = new BufferPool(0);
+        catalog = mock(BackupCatalog.class);
+        verifier = new ArchiveVerifier(new Provider<Checksum>() {
+            @Override
+            public Checksum get() {
+                return new Adler32();
+            }
+        }, buffers);
+        data = new byte[3 * BufferPool.BLOCK_SIZE];
+        new Random(0).nextBytes(data);
+    }
+
+    @Test
+    public void shouldRecordEveryEntry() throws Exception {
+        writeArchive(true);
+        final IntegrityManifest manifest = readManifest();
+        assertEquals(2, manifest.entries().size());
+        final IntegrityManifest.Entry entry = manifest.entryFor(NAME);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(crc.getValue(), entry.crc());
+        assertEquals(data.length, entry.size());
+        assertEquals(TIME, entry.time());
+        assertEquals(archiveFile.getContent().getSize(),
+                manifest.archiveSize());
+    }
+
+    @Test
+    public void shouldAddFinishedBackupToCatalog() throws Exception {
+        writeArchive(true);
+        verify(catalog).add(Matchers.argThat(
+                new ArgumentMatcher<BackupCatalog.Backup>() {
+                    @Override
+                    public boolean matches(final Object backup) {
+                        return ((BackupCatalog.Backup) backup).name()
+                                .equals("world.zip");
+                    }
+                }));
+    }
+
+    @Test
+    public void shouldNotWriteManifestForUnfinishedArchive() throws Exception {
+        writeArchive(false);
+        assertFalse(IntegrityManifest.fileFor(archiveFile).exists());
+        verifyZeroInteractions(catalog);
+    }
+
+    @Test
+    public void shouldDeleteUnfinishedArchive() throws Exception {
+        writeArchive(false);
+        assertFalse(new File(temporaryFolder.getRoot(), "world.zip")
+                .exists());
+    }
+
+    @Test
+    public void shouldVerifyIntactArchive() throws Exception {
+        writeArchive(true);
+        verifier.verify(archiveFile, readManifest());
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldDetectCorruptArchive() throws Exception {
+        writeArchive(true);
+        final File file = new File(temporaryFolder.getRoot(), "world.zip");
+        final byte[] contents = Files.toByteArray(file);
+        contents[contents.length / 2] ^= 1;
+        Files.write(contents, file);
+        verifier.verify(archiveFile, readManifest());
+    }
+
+    private void writeArchive(final boolean finish) throws Exception {
+        final Checksum checksum = new Adler32();
+        final OutputStream output = new CheckedOutputStream(
+                archiveFile.getContent().getOutputStream(), checksum);
+        final DeflaterPool deflaters = new DeflaterPool();
+        final ZipArchive zip = new ZipArchive(new ZipOutputStream(output),
+                new CompressionPolicy(CompressionLevel.DEFAULT, true,
+                        deflaters, buffers), buffers);
+        final ManifestArchive archive = new ManifestArchive(log, zip,
+                archiveFile, checksum, verifier, false, catalog, "world", "");
+        archive.write(NAME, TIME, ByteStreams.newInputStreamSupplier(data));
+        archive.write("level.dat", TIME,
+                ByteStreams.newInputStreamSupplier(new byte[10]));
+        if (finish) {
+            archive.finish();
+        }
+        archive.close();
+    }
+
+    private IntegrityManifest readManifest() throws IOException {
+        return IntegrityManifest.readFrom(
+                IntegrityManifest.fileFor(archiveFile));
+    }
+}
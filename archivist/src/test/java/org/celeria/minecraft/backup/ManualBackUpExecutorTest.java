@@ -18,18 +18,41 @@ package org.celeria.minecraft.backup;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
+import ch.qos.cal10n.IMessageConveyor;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
+import org.bukkit.*;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.entity.Player;
+import org.celeria.minecraft.guice.TaskQueue.Priority;
 import org.celeria.minecraft.guice.TaskScheduler;
 import org.jukito.*;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.mockito.*;
 
 @RunWith(JukitoRunner.class)
 public class ManualBackUpExecutorTest {
+    public static class Module extends JukitoModule {
+        @Override
+        protected void configureTest() {
+            bindMock(ScrubBackupsTask.class).in(TestSingleton.class);
+        }
+    }
+
     @Inject private ManualBackUpExecutor executor;
     @Inject private TaskScheduler scheduler;
+    @Inject private ScrubBackupsTask scrubber;
+    @Inject private IMessageConveyor messages;
+
+    private static BackUpWorldsTask manualTask() {
+        return Matchers.argThat(new ArgumentMatcher<BackUpWorldsTask>() {
+            @Override
+            public boolean matches(final Object task) {
+                return ((BackUpWorldsTask) task).priority() == Priority.HIGH;
+            }
+        });
+    }
 
     @Test
     public void shouldDoNothingWhenSenderIsNoOne() {
@@ -46,19 +69,67 @@ public class ManualBackUpExecutorTest {
 
     @Test
     public void shouldScheduleBackUpTaskWhenSenderIsServer(
-            final ConsoleCommandSender sender,
-            final BackUpWorldsTask task) {
+            final ConsoleCommandSender sender) {
         assertTrue(executor.onCommand(sender, null, null, null));
-        verify(scheduler).runSynchronousTask(task);
+        verify(scheduler).runSynchronousTask(manualTask());
         verifyNoMoreInteractions(scheduler);
     }
 
     @Test
-    public void shouldScheduleBackUpTask(final Player sender,
-            final BackUpWorldsTask task) {
+    public void shouldReportScrubStatus(final Player sender) {
+        when(sender.isOp()).thenReturn(true);
+        when(scrubber.scrubbed()).thenReturn(3);
+        when(messages.getMessage(LogMessage.SCRUB_STATUS, 3, 0, null))
+                .thenReturn("status");
+        assertTrue(executor.onCommand(sender, null, null,
+                new String[] {"status"}));
+        verify(sender).sendMessage("status");
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldRestoreInBackground(final Player sender) {
+        when(sender.isOp()).thenReturn(true);
+        assertTrue(executor.onCommand(sender, null, null,
+                new String[] {"restore", "world_1.zip", "restored"}));
+        verify(scheduler).runAsynchronousTask(any(RestoreBackupTask.class));
+    }
+
+    @Test
+    public void shouldNotRestoreIntoLoadedWorld(final Player sender,
+            final Server server, final World world) {
+        when(sender.isOp()).thenReturn(true);
+        when(world.getName()).thenReturn("world");
+        when(server.getWorlds()).thenReturn(ImmutableList.of(world));
+        assertTrue(executor.onCommand(sender, null, null,
+                new String[] {"restore", "world_1.zip", "world"}));
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldNotRestoreInsideLoadedWorld(final Player sender,
+            final Server server, final World world) {
+        when(sender.isOp()).thenReturn(true);
+        when(world.getName()).thenReturn("world");
+        when(server.getWorlds()).thenReturn(ImmutableList.of(world));
+        assertTrue(executor.onCommand(sender, null, null,
+                new String[] {"restore", "world_1.zip", "world/region"}));
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldRejectUnknownArguments(final Player sender) {
+        when(sender.isOp()).thenReturn(true);
+        assertFalse(executor.onCommand(sender, null, null,
+                new String[] {"everything"}));
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void shouldScheduleBackUpTask(final Player sender) {
         when(sender.isOp()).thenReturn(true);
         assertTrue(executor.onCommand(sender, null, null, null));
-        verify(scheduler).runSynchronousTask(task);
+        verify(scheduler).runSynchronousTask(manualTask());
         verifyNoMoreInteractions(scheduler);
     }
 }
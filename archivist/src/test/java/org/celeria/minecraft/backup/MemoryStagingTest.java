@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import com.google.common.io.*;
+import org.celeria.minecraft.backup.MemoryStaging.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryStagingTest {
+    private static final long TIME = 1000000000000L;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private final IoThrottle throttle = new IoThrottle(50, 0);
+    private File worldFolder;
+    private File spillFolder;
+    private File region;
+    private File level;
+
+    @Before
+    public void setUp() throws Exception {
+        worldFolder = temporaryFolder.newFolder("world");
+        spillFolder = new File(temporaryFolder.getRoot(), "staging");
+        final File regionFolder = new File(worldFolder, "region");
+        regionFolder.mkdir();
+        region = new File(regionFolder, "r.0.0.mca");
+        final int[] timestamps = new int[RegionFile.CHUNKS];
+        timestamps[0] = 1000;
+        final byte[][] records = new byte[RegionFile.CHUNKS][];
+        records[0] = new byte[] {2, 0};
+        Files.write(RegionFile.assemble(timestamps, records), region);
+        region.setLastModified(TIME);
+        level = new File(worldFolder, "level.dat");
+        Files.write(new byte[] {1, 2, 3}, level);
+    }
+
+    @Test
+    public void shouldStageWorldInMemory() throws Exception {
+        final MemoryStaging staging = stagingOf(1 << 20);
+        final StagedWorld staged = staging.newStagedWorld();
+        staged.capture(worldFolder, spillFolder);
+        assertEquals(2, staged.filesInMemory());
+        assertEquals(0, staged.filesSpilled());
+        assertFalse(spillFolder.exists());
+        assertContents(staged, "level.dat", level);
+        assertContents(staged, "region/r.0.0.mca", region);
+        assertEquals(level.length() + region.length(),
+                staging.reservedBytes());
+        staged.close();
+        assertEquals(0, staging.reservedBytes());
+    }
+
+    @Test
+    public void shouldSpillFilesThatDoNotFit() throws Exception {
+        final MemoryStaging staging = stagingOf(level.length());
+        final StagedWorld staged = staging.newStagedWorld();
+        staged.capture(worldFolder, spillFolder);
+        assertEquals(1, staged.filesInMemory());
+        assertEquals(1, staged.filesSpilled());
+        assertTrue(new File(spillFolder, "region/r.0.0.mca").isFile());
+        assertContents(staged, "region/r.0.0.mca", region);
+        staged.close();
+    }
+
+    @Test
+    public void shouldShareMemoryBetweenWorlds() throws Exception {
+        final MemoryStaging staging = stagingOf(region.length());
+        final StagedWorld first = staging.newStagedWorld();
+        first.capture(region.getParentFile(), spillFolder);
+        final StagedWorld second = staging.newStagedWorld();
+        second.capture(region.getParentFile(), spillFolder);
+        assertEquals(1, first.filesInMemory());
+        assertEquals(1, second.filesSpilled());
+        first.close();
+        second.close();
+        final StagedWorld third = staging.newStagedWorld();
+        third.capture(region.getParentFile(), spillFolder);
+        assertEquals(1, third.filesInMemory());
+        third.close();
+    }
+
+    @Test
+    public void shouldFingerprintWorldAsCaptured() throws Exception {
+        final StagedWorld inMemory = stagingOf(1 << 20).newStagedWorld();
+        inMemory.capture(worldFolder, spillFolder);
+        final StagedWorld spilled = stagingOf(1).newStagedWorld();
+        spilled.capture(worldFolder, spillFolder);
+        final WorldFingerprint fingerprint = WorldFingerprint.of(worldFolder);
+        assertEquals(fingerprint, inMemory.fingerprint());
+        assertEquals(fingerprint, spilled.fingerprint());
+    }
+
+    private MemoryStaging stagingOf(final long capacity) {
+        return new MemoryStaging(capacity,
+                new StagingMirror(false, false, throttle), throttle);
+    }
+
+    private static void assertContents(final StagedWorld staged,
+            final String name, final File file) throws IOException {
+        for (final StagedFile stagedFile : staged.files()) {
+            if (stagedFile.name().equals(name)) {
+                assertArrayEquals(Files.toByteArray(file), ByteStreams
+                        .toByteArray(stagedFile.newInputStreamSupplier()));
+                assertEquals(file.length(), stagedFile.length());
+                assertEquals(file.lastModified(), stagedFile.lastModified());
+                return;
+            }
+        }
+        fail(name + " was not staged.");
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import com.google.common.io.Files;
+import org.celeria.minecraft.backup.OptimisticCopy.Capture;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class OptimisticCopyTest {
+    private static final long TIME = 1000000000000L;
+    private static final int OLD_TIMESTAMP = 1000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File source;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        source = new File(temporaryFolder.getRoot(), "r.0.0.mca");
+        target = new File(temporaryFolder.getRoot(), "copy.mca");
+    }
+
+    @Test
+    public void shouldCopyRegionLeftAlone() throws Exception {
+        writeRegion(1);
+        OptimisticCopy.copy(source, target, new IoThrottle(50, 0));
+        assertArrayEquals(Files.toByteArray(source),
+                Files.toByteArray(target));
+        assertEquals(TIME, target.lastModified());
+    }
+
+    @Test
+    public void shouldRereadOnlyChunkSavedWhileCopying() throws Exception {
+        writeRegion(1);
+        final ChangingThrottle throttle = new ChangingThrottle() {
+            @Override
+            void change() throws IOException {
+                writeRegion(2);
+                source.setLastModified(TIME + 1000);
+            }
+        };
+        OptimisticCopy.copy(source, target, throttle);
+        assertArrayEquals(Files.toByteArray(source),
+                Files.toByteArray(target));
+        assertEquals(source.length() + RegionFile.SECTOR_SIZE,
+                throttle.bytes);
+    }
+
+    @Test
+    public void shouldReadRegionSavedWhileReading() throws Exception {
+        writeRegion(1);
+        final Capture capture = OptimisticCopy.read(source,
+                new ChangingThrottle() {
+            @Override
+            void change() throws IOException {
+                writeRegion(2);
+                source.setLastModified(TIME + 1000);
+            }
+        });
+        final ByteBuffer contents = capture.contents();
+        final byte[] bytes = new byte[contents.remaining()];
+        contents.get(bytes);
+        assertArrayEquals(Files.toByteArray(source), bytes);
+        assertEquals(TIME + 1000, capture.lastModified());
+    }
+
+    @Test
+    public void shouldRereadChunkSavedWithinSameSecond() throws Exception {
+        final long now = System.currentTimeMillis() / 1000 * 1000;
+        writeRegion(1, OLD_TIMESTAMP + 1, now);
+        final ChangingThrottle throttle = new ChangingThrottle() {
+            @Override
+            void change() throws IOException {
+                // Same length, and a modification time that cannot tell.
+                writeRegion(2, (int) (now / 1000), now);
+            }
+        };
+        OptimisticCopy.copy(source, target, throttle);
+        assertArrayEquals(Files.toByteArray(source),
+                Files.toByteArray(target));
+    }
+
+    @Test
+    public void shouldRecopyFileSavedWhileCopying() throws Exception {
+        source = new File(temporaryFolder.getRoot(), "level.dat");
+        Files.write(new byte[] {1, 2, 3}, source);
+        final ChangingThrottle throttle = new ChangingThrottle() {
+            @Override
+            void change() throws IOException {
+                Files.write(new byte[] {4, 5}, source);
+                source.setLastModified(TIME);
+            }
+        };
+        OptimisticCopy.copy(source, target, throttle);
+        assertArrayEquals(new byte[] {4, 5}, Files.toByteArray(target));
+    }
+
+    /**
+     * Writes a region with two chunks where only the second one's contents
+     * and timestamp depend on the version.
+     */
+    private void writeRegion(final int version) throws IOException {
+        writeRegion(version, OLD_TIMESTAMP + version, TIME);
+    }
+
+    private void writeRegion(final int version, final int timestamp,
+            final long lastModified) throws IOException {
+        final int[] timestamps = new int[RegionFile.CHUNKS];
+        timestamps[0] = OLD_TIMESTAMP;
+        timestamps[1] = timestamp;
+        final byte[][] records = new byte[RegionFile.CHUNKS][];
+        records[0] = new byte[] {2, 0};
+        records[1] = new byte[] {2, (byte) version};
+        Files.write(RegionFile.assemble(timestamps, records), source);
+        source.setLastModified(lastModified);
+    }
+
+    /** Changes the source once, as the copy first reads from it. */
+    private abstract static class ChangingThrottle extends IoThrottle {
+        private long bytes;
+
+        ChangingThrottle() {
+            super(50, 0);
+        }
+
+        abstract void change() throws IOException;
+
+        @Override
+        void acquire(final long acquired) throws InterruptedIOException {
+            if (bytes == 0) {
+                try {
+                    change();
+                } catch (final IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            bytes += acquired;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.joda.time.Instant;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class PackFileRepositoryTest {
+    private static final byte[] LIVE = {1, 2, 3, 4};
+    private static final byte[] DEAD = {5, 6, 7, 8};
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private FileObject folder;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        folder = fileSystem.toFileObject(temporaryFolder.getRoot());
+    }
+
+    @Test
+    public void shouldStoreIdenticalBlocksOnce() throws Exception {
+        final PackFileRepository repository = newRepository();
+        repository.beginSession();
+        final BlockId first = repository.store(LIVE, 0, LIVE.length);
+        repository.endSession();
+        final long size = packSize();
+        repository.beginSession();
+        final BlockId second = repository.store(LIVE, 0, LIVE.length);
+        repository.endSession();
+        assertEquals(first, second);
+        assertEquals(size, packSize());
+    }
+
+    @Test
+    public void shouldFetchStoredBlockAfterReopening() throws Exception {
+        final PackFileRepository repository = newRepository();
+        repository.beginSession();
+        final BlockId id = repository.store(LIVE, 0, LIVE.length);
+        repository.endSession();
+        assertArrayEquals(LIVE, newRepository().fetch(id));
+    }
+
+    @Test
+    public void shouldCollectBlocksOfDeletedSnapshots() throws Exception {
+        final PackFileRepository repository = newRepository();
+        repository.beginSession();
+        final BlockId live = repository.store(LIVE, 0, LIVE.length);
+        final BlockId dead = repository.store(DEAD, 0, DEAD.length);
+        repository.writeSnapshot("new", snapshotOf(live));
+        repository.writeSnapshot("old", snapshotOf(dead));
+        repository.endSession();
+        folder.resolveFile("repository/snapshots/old.snapshot").getContent()
+                .setLastModifiedTime(0);
+        assertEquals(Arrays.asList("old.snapshot"),
+                repository.deleteSnapshotsOlderThan(new Instant(1000)));
+        repository.collectGarbage();
+        final PackFileRepository reopened = newRepository();
+        assertArrayEquals(LIVE, reopened.fetch(live));
+        try {
+            reopened.fetch(dead);
+            fail();
+        } catch (final FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    private PackFileRepository newRepository() {
+        return new PackFileRepository(new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return folder;
+            }
+        }, CompressionLevel.DEFAULT);
+    }
+
+    private static Snapshot snapshotOf(final BlockId id) {
+        return new Snapshot(ImmutableList.of(new Snapshot.Entry("file", 0,
+                4, ImmutableList.of(id))));
+    }
+
+    private long packSize() throws Exception {
+        long size = 0;
+        for (final FileObject pack
+                : folder.resolveFile("repository/packs").getChildren()) {
+            size += pack.getContent().getSize();
+        }
+        return size;
+    }
+}
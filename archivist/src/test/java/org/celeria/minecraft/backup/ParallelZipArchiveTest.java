@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.vfs2.*;
+import org.junit.*;
+
+public class ParallelZipArchiveTest {
+    private static final int THREADS = 2;
+    private static final int ENTRIES = 20;
+    private static final long TIME = 1318000000000L;
+
+    private ExecutorService executor;
+    private ByteArrayOutputStream output;
+    private ParallelZipArchive archive;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+        output = new ByteArrayOutputStream();
+        final DeflaterPool deflaters = new DeflaterPool();
+        final BufferPool buffers = new BufferPool(0);
+        archive = new ParallelZipArchive(executor, new ZipWriter(output),
+                new CompressionPolicy(CompressionLevel.DEFAULT, true,
+                        deflaters, buffers),
+                deflaters, buffers, THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldWriteReadableArchiveInOrder() throws Exception {
+        for (int i = 0; i < ENTRIES; ++i) {
+            archive.write("region/r." + i + ".mca", contentOf(dataFor(i)));
+        }
+        archive.finish();
+        archive.close();
+        final ZipInputStream input = new ZipInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        for (int i = 0; i < ENTRIES; ++i) {
+            final ZipEntry entry = input.getNextEntry();
+            assertEquals("region/r." + i + ".mca", entry.getName());
+            assertArrayEquals(dataFor(i), ByteStreams.toByteArray(input));
+        }
+        assertNull(input.getNextEntry());
+    }
+
+    @Test
+    public void shouldStoreIncompressibleEntries() throws Exception {
+        final byte[] data = new byte[1 << 16];
+        new Random(0).nextBytes(data);
+        archive.write("region/r.0.0.mca", contentOf(data));
+        archive.write("level.dat", contentOf(dataFor(ENTRIES)));
+        archive.finish();
+        archive.close();
+        final ZipInputStream input = new ZipInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(ZipEntry.STORED, input.getNextEntry().getMethod());
+        assertArrayEquals(data, ByteStreams.toByteArray(input));
+        assertEquals(ZipEntry.DEFLATED, input.getNextEntry().getMethod());
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldReportFailedCompression() throws Exception {
+        final FileContent content = mock(FileContent.class);
+        when(content.getInputStream()).thenThrow(new FileSystemException("vfs.provider/read.error"));
+        archive.write("level.dat", content);
+        archive.finish();
+    }
+
+    private static byte[] dataFor(final int index) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < index * 1000; ++i) {
+            builder.append(i % (index + 1));
+        }
+        return builder.toString().getBytes(Charsets.US_ASCII);
+    }
+
+    private static FileContent contentOf(final byte[] data) throws Exception {
+        final FileContent content = mock(FileContent.class);
+        when(content.getLastModifiedTime()).thenReturn(TIME);
+        when(content.getInputStream()).thenReturn(
+                new ByteArrayInputStream(data));
+        return content;
+    }
+}
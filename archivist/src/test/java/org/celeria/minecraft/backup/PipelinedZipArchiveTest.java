@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import com.google.common.base.Charsets;
+import com.google.common.io.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.vfs2.*;
+import org.junit.*;
+import org.mockito.Matchers;
+
+public class PipelinedZipArchiveTest {
+    private static final int ENTRIES = 20;
+    private static final long TIME = 1318000000000L;
+    private static final long MEMORY = 4 * PipelinedZipArchive.BLOCK_SIZE;
+
+    private ByteArrayOutputStream output;
+    private PipelinedZipArchive archive;
+
+    @Before
+    public void setUp() {
+        output = new ByteArrayOutputStream();
+        archive = archiveWritingTo(output);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        archive.close();
+    }
+
+    @Test
+    public void shouldWriteReadableArchiveInOrder() throws Exception {
+        for (int i = 0; i < ENTRIES; ++i) {
+            archive.write("region/r." + i + ".mca", TIME,
+                    ByteStreams.newInputStreamSupplier(dataFor(i)));
+        }
+        archive.finish();
+        archive.close();
+        final ZipInputStream input = new ZipInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        for (int i = 0; i < ENTRIES; ++i) {
+            final ZipEntry entry = input.getNextEntry();
+            assertEquals("region/r." + i + ".mca", entry.getName());
+            assertArrayEquals(dataFor(i), ByteStreams.toByteArray(input));
+        }
+        assertNull(input.getNextEntry());
+    }
+
+    @Test
+    public void shouldWriteCentralDirectory() throws Exception {
+        final byte[] data = dataFor(ENTRIES);
+        archive.write("level.dat", TIME,
+                ByteStreams.newInputStreamSupplier(data));
+        archive.finish();
+        archive.close();
+        final File file = File.createTempFile("archive", ".zip");
+        try {
+            Files.write(output.toByteArray(), file);
+            final ZipFile zip = new ZipFile(file);
+            try {
+                final ZipEntry entry = zip.getEntry("level.dat");
+                assertEquals(data.length, entry.getSize());
+                assertArrayEquals(data, ByteStreams.toByteArray(
+                        zip.getInputStream(entry)));
+            } finally {
+                zip.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldHandleEntriesLargerThanMemory() throws Exception {
+        final byte[] data = new byte[(int) MEMORY * 3];
+        new Random(0).nextBytes(data);
+        archive.write("region/r.0.0.mca", TIME,
+                ByteStreams.newInputStreamSupplier(data));
+        archive.write("empty", TIME,
+                ByteStreams.newInputStreamSupplier(new byte[0]));
+        archive.finish();
+        archive.close();
+        final ZipInputStream input = new ZipInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        input.getNextEntry();
+        assertArrayEquals(data, ByteStreams.toByteArray(input));
+        assertEquals("empty", input.getNextEntry().getName());
+        assertEquals(0, ByteStreams.toByteArray(input).length);
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldReportFailedWrite() throws Exception {
+        final OutputStream failing = mock(OutputStream.class);
+        doThrow(new IOException()).when(failing).write(
+                Matchers.<byte[]>any(), anyInt(), anyInt());
+        doThrow(new IOException()).when(failing).write(
+                Matchers.<byte[]>any());
+        final Archive failingArchive = archiveWritingTo(failing);
+        try {
+            for (int i = 0; i < ENTRIES; ++i) {
+                failingArchive.write("region/r." + i + ".mca", TIME,
+                        ByteStreams.newInputStreamSupplier(dataFor(i)));
+            }
+            failingArchive.finish();
+        } finally {
+            Closeables.closeQuietly(failingArchive);
+        }
+    }
+
+    @Test(timeout = 10000, expected = ArchiveException.class)
+    public void shouldReportCompressorFailingOnLastEntry() throws Exception {
+        final DeflaterPool deflaters = new DeflaterPool();
+        final BufferPool buffers = new BufferPool(MEMORY);
+        final CompressionPolicy policy = spy(new CompressionPolicy(
+                CompressionLevel.DEFAULT, true, deflaters, buffers));
+        doThrow(new IllegalStateException()).when(policy).levelFor(
+                Matchers.eq("last"), Matchers.<byte[]>any(), anyInt());
+        final Archive failingArchive = new PipelinedZipArchive(
+                new ThreadFactoryBuilder().setDaemon(true).build(),
+                new ZipWriter(new ByteArrayOutputStream()), policy,
+                deflaters, buffers, MEMORY);
+        try {
+            failingArchive.write("level.dat", TIME,
+                    ByteStreams.newInputStreamSupplier(dataFor(1)));
+            failingArchive.write("last", TIME,
+                    ByteStreams.newInputStreamSupplier(dataFor(2)));
+            failingArchive.finish();
+        } finally {
+            Closeables.closeQuietly(failingArchive);
+        }
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldReportFailedRead() throws Exception {
+        final FileContent content = mock(FileContent.class);
+        when(content.getInputStream()).thenThrow(
+                new FileSystemException("vfs.provider/read.error"));
+        archive.write("level.dat", content);
+    }
+
+    private static PipelinedZipArchive archiveWritingTo(
+            final OutputStream stream) {
+        final DeflaterPool deflaters = new DeflaterPool();
+        final BufferPool buffers = new BufferPool(MEMORY);
+        return new PipelinedZipArchive(
+                new ThreadFactoryBuilder().setDaemon(true).build(),
+                new ZipWriter(stream),
+                new CompressionPolicy(CompressionLevel.DEFAULT, true,
+                        deflaters, buffers),
+                deflaters, buffers, MEMORY);
+    }
+
+    private static byte[] dataFor(final int index) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < index * 10000; ++i) {
+            builder.append(i % (index + 1));
+        }
+        return builder.toString().getBytes(Charsets.US_ASCII);
+    }
+}
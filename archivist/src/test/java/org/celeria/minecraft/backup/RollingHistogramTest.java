@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RollingHistogramTest {
+    @Test
+    public void shouldBeZeroWhenEmpty() {
+        final RollingHistogram histogram = new RollingHistogram();
+        assertEquals(0, histogram.median());
+        assertEquals(0, histogram.maximum());
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        final RollingHistogram histogram = new RollingHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.add(i);
+        }
+        assertEquals(50, histogram.median());
+        assertEquals(95, histogram.ninetyFifthPercentile());
+        assertEquals(100, histogram.maximum());
+    }
+
+    @Test
+    public void shouldForgetOldestSamples() {
+        final RollingHistogram histogram = new RollingHistogram();
+        histogram.add(1000);
+        for (int i = 0; i < 100; ++i) {
+            histogram.add(1);
+        }
+        assertEquals(1, histogram.maximum());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.io.*;
+import java.util.zip.*;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.inject.Provider;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.joda.time.Instant;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.cal10n.LocLogger;
+
+public class ScrubBackupsTaskTest {
+    private static final long OLD_TIME = 1318000000000L;
+    private static final Instant CURRENT_TIME = new Instant(OLD_TIME * 2);
+    private static final String ENTRY = "level.dat";
+    private static final int DATA_OFFSET = 30 + ENTRY.length() + 1;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File backupFolder;
+    private File stateFolder;
+    private ScrubBackupsTask task;
+
+    @Before
+    public void setUp() throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        backupFolder = temporaryFolder.newFolder("backups");
+        stateFolder = temporaryFolder.newFolder("state");
+        final ArchiveVerifier verifier = new ArchiveVerifier(
+                new Provider<Checksum>() {
+                    @Override
+                    public Checksum get() {
+                        return new Adler32();
+                    }
+                }, new BufferPool(0));
+        final LocLogger log = mock(LocLogger.class);
+        final FileProvider<FileObject> backupFolderProvider =
+                providerOf(fileSystem.toFileObject(backupFolder));
+        final FileProvider<FileObject> stateFolderProvider =
+                providerOf(fileSystem.toFileObject(stateFolder));
+        task = new ScrubBackupsTask(log, backupFolderProvider,
+                stateFolderProvider, new BackupCatalog(log,
+                        backupFolderProvider, stateFolderProvider), verifier,
+                new Provider<Instant>() {
+                    @Override
+                    public Instant get() {
+                        return CURRENT_TIME;
+                    }
+                }, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldScrubOneArchivePerRun() throws Exception {
+        writeArchive("a.zip", false);
+        writeArchive("b.zip", true);
+        task.run();
+        assertEquals(1, task.scrubbed());
+        assertEquals(0, task.corrupt());
+        assertEquals("a.zip", cursor());
+        task.run();
+        assertEquals(2, task.scrubbed());
+        assertEquals(1, task.corrupt());
+        assertEquals("b.zip", cursor());
+    }
+
+    @Test
+    public void shouldResumeAfterCursorAndWrapAround() throws Exception {
+        writeArchive("a.zip", false);
+        writeArchive("b.zip", false);
+        Files.write("a.zip", new File(stateFolder, "scrub.cursor"),
+                Charsets.UTF_8);
+        task.run();
+        assertEquals("b.zip", cursor());
+        task.run();
+        assertEquals("a.zip", cursor());
+    }
+
+    @Test
+    public void shouldSkipRecentlyModifiedArchives() throws Exception {
+        writeArchive("a.zip", false);
+        new File(backupFolder, "a.zip").setLastModified(
+                CURRENT_TIME.getMillis());
+        task.run();
+        assertEquals(0, task.scrubbed());
+    }
+
+    private void writeArchive(final String name, final boolean corrupt)
+            throws IOException {
+        final File file = new File(backupFolder, name);
+        final ZipOutputStream output = new ZipOutputStream(
+                new FileOutputStream(file));
+        output.putNextEntry(new ZipEntry(ENTRY));
+        output.write(new byte[1000]);
+        output.close();
+        if (corrupt) {
+            final byte[] contents = Files.toByteArray(file);
+            contents[DATA_OFFSET] ^= 1;
+            Files.write(contents, file);
+        }
+        file.setLastModified(OLD_TIME);
+    }
+
+    private String cursor() throws IOException {
+        return Files.toString(new File(stateFolder, "scrub.cursor"),
+                Charsets.UTF_8);
+    }
+
+    private static FileProvider<FileObject> providerOf(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class StagingMirrorTest {
+    private static final long TIME = 1000000000000L;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private FileSystemManager fileSystem;
+    private File world;
+    private File staging;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        world = temporaryFolder.newFolder("world");
+        staging = new File(temporaryFolder.getRoot(), "staging");
+    }
+
+    @Test
+    public void shouldCopyNewFiles() throws Exception {
+        writeFile("region/r.0.0.mca", "region");
+        assertEquals(1, synchronize(false));
+        assertEquals("region", readFile("region/r.0.0.mca"));
+    }
+
+    @Test
+    public void shouldSkipUnchangedFiles() throws Exception {
+        writeFile("level.dat", "level");
+        synchronize(false);
+        assertEquals(0, synchronize(false));
+    }
+
+    @Test
+    public void shouldCopyChangedFiles() throws Exception {
+        writeFile("level.dat", "level");
+        synchronize(false);
+        writeFile("level.dat", "changed");
+        assertEquals(1, synchronize(false));
+        assertEquals("changed", readFile("level.dat"));
+    }
+
+    @Test
+    public void shouldCopyAgainFileSavedWithinSameSecond() throws Exception {
+        // A second ahead, so that it is not over while the file is copied.
+        final long time = (System.currentTimeMillis() / 1000 + 1) * 1000;
+        writeFile("level.dat", "level", time);
+        synchronize(false);
+        writeFile("level.dat", "LEVEL", time);
+        assertEquals(1, synchronize(false));
+        assertEquals("LEVEL", readFile("level.dat"));
+    }
+
+    @Test
+    public void shouldCompareContentsWhenAsked() throws Exception {
+        writeFile("level.dat", "level");
+        synchronize(false);
+        writeFile("level.dat", "LEVEL");
+        assertEquals(0, synchronize(false));
+        assertEquals(1, synchronize(true));
+        assertEquals("LEVEL", readFile("level.dat"));
+    }
+
+    @Test
+    public void shouldDeleteRemovedFiles() throws Exception {
+        writeFile("region/r.0.0.mca", "region");
+        synchronize(false);
+        new File(world, "region/r.0.0.mca").delete();
+        synchronize(false);
+        assertFalse(new File(staging, "region/r.0.0.mca").exists());
+    }
+
+    @Test
+    public void shouldOnlyCopyDirtyRegions() throws Exception {
+        writeFile("region/r.0.0.mca", "region");
+        writeFile("region/r.-1.0.mca", "region");
+        synchronize(false);
+        writeFile("region/r.0.0.mca", "changed");
+        writeFile("region/r.-1.0.mca", "changed");
+        writeFile("level.dat", "level");
+        final DirtyRegions dirty = new DirtyRegions();
+        dirty.mark(-1, 0);
+        assertEquals(2, new StagingMirror(false, false, new IoThrottle(50, 0))
+                .synchronize(fileSystem.toFileObject(world),
+                        fileSystem.toFileObject(staging), dirty));
+        assertEquals("region", readFile("region/r.0.0.mca"));
+        assertEquals("changed", readFile("region/r.-1.0.mca"));
+    }
+
+    private int synchronize(final boolean compareContents) throws IOException {
+        return new StagingMirror(compareContents, false, new IoThrottle(50, 0))
+                .synchronize(
+                fileSystem.toFileObject(world),
+                fileSystem.toFileObject(staging));
+    }
+
+    /** Files are always written with the same time and size. */
+    private void writeFile(final String name, final String contents)
+            throws IOException {
+        writeFile(name, contents, TIME);
+    }
+
+    private void writeFile(final String name, final String contents,
+            final long time) throws IOException {
+        final File file = new File(world, name);
+        Files.createParentDirs(file);
+        Files.write(contents, file, Charsets.UTF_8);
+        file.setLastModified(time);
+    }
+
+    private String readFile(final String name) throws IOException {
+        return Files.toString(new File(staging, name), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import java.util.*;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.util.Providers;
+import org.apache.commons.vfs2.*;
+import org.apache.commons.vfs2.cache.DefaultFilesCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.celeria.minecraft.backup.BackupCatalog.Backup;
+import org.celeria.minecraft.backup.BackupQuota.Eviction;
+import org.joda.time.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.cal10n.LocLogger;
+
+public class TieredRetentionTest {
+    private static final DateTime NOW = new DateTime(2011, 6, 15, 12, 0, 0, 0);
+    private static final Backup FIRST_OF_HOUR = backupAt("a.zip",
+            NOW.withTime(2, 0, 0, 0), "");
+    private static final Backup LATER_IN_HOUR = backupAt("b.zip",
+            NOW.withTime(2, 20, 0, 0), "");
+    private static final Backup NEXT_HOUR = backupAt("c.zip",
+            NOW.withTime(3, 0, 0, 0), "");
+    private static final Backup RECENT = backupAt("d.zip",
+            NOW.withTime(8, 0, 0, 0), "");
+    private static final Backup LATER_RECENT = backupAt("e.zip",
+            NOW.withTime(8, 30, 0, 0), "");
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private BackupCatalog catalog;
+    private TieredRetention retention;
+
+    @Before
+    public void setUp() throws Exception {
+        catalog = mock(BackupCatalog.class);
+        retention = new TieredRetention(Period.hours(6), Period.days(1),
+                Period.days(7), Period.weeks(4));
+    }
+
+    @Test
+    public void shouldKeepEveryRecentBackup() throws Exception {
+        catalogHas(RECENT, LATER_RECENT);
+        assertTrue(retention.expired(catalog, NOW.toInstant()).isEmpty());
+    }
+
+    @Test
+    public void shouldKeepFirstBackupOfEachHour() throws Exception {
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR, NEXT_HOUR, RECENT);
+        assertEquals(ImmutableList.of(LATER_IN_HOUR),
+                retention.expired(catalog, NOW.toInstant()));
+    }
+
+    @Test
+    public void shouldKeepFirstBackupOfEachDayAndNoneOlder()
+            throws Exception {
+        final Backup tooOld = backupAt("old.zip", NOW.minusWeeks(5), "");
+        final Backup firstOfDay = backupAt("f.zip",
+                NOW.minusDays(3).withTime(10, 0, 0, 0), "");
+        final Backup laterInDay = backupAt("g.zip",
+                NOW.minusDays(3).withTime(15, 0, 0, 0), "");
+        catalogHas(tooOld, firstOfDay, laterInDay, RECENT);
+        assertEquals(ImmutableList.of(tooOld, laterInDay),
+                retention.expired(catalog, NOW.toInstant()));
+    }
+
+    @Test
+    public void shouldHoldBackBackupThatKeptBackupNeeds() throws Exception {
+        final Backup child = backupAt("c.zip", NOW.withTime(3, 0, 0, 0),
+                LATER_IN_HOUR.name());
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR, child);
+        assertTrue(retention.expired(catalog, NOW.toInstant()).isEmpty());
+    }
+
+    @Test
+    public void shouldReleaseHeldBackBackupWithItsLastChild()
+            throws Exception {
+        final Backup child = backupAt("c.zip", NOW.withTime(2, 40, 0, 0),
+                LATER_IN_HOUR.name());
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR, child);
+        assertEquals(ImmutableList.of(LATER_IN_HOUR, child),
+                retention.expired(catalog, NOW.toInstant()));
+    }
+
+    @Test
+    public void shouldOnlyAskCatalogForNewBackupsLater() throws Exception {
+        catalogHas(RECENT, LATER_RECENT);
+        retention.expired(catalog, NOW.toInstant());
+        when(catalog.backupsAfter(LATER_RECENT))
+                .thenReturn(ImmutableList.<Backup>of());
+        assertEquals(ImmutableList.of(LATER_RECENT),
+                retention.expired(catalog, NOW.plusHours(3).toInstant()));
+        verify(catalog).backupsAfter(LATER_RECENT);
+    }
+
+    @Test
+    public void shouldExpireReadmittedBackupAgain() throws Exception {
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR, NEXT_HOUR, RECENT);
+        retention.expired(catalog, NOW.toInstant());
+        retention.readmit(ImmutableList.of(LATER_IN_HOUR));
+        assertEquals(ImmutableList.of(LATER_IN_HOUR),
+                retention.expired(catalog, NOW.toInstant()));
+        assertTrue(retention.expired(catalog, NOW.toInstant()).isEmpty());
+    }
+
+    @Test
+    public void shouldStartAgainWhenCatalogIsRebuilt() throws Exception {
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR);
+        retention.expired(catalog, NOW.toInstant());
+        when(catalog.generation()).thenReturn(1);
+        catalogHas(FIRST_OF_HOUR, LATER_IN_HOUR, NEXT_HOUR);
+        assertEquals(ImmutableList.of(LATER_IN_HOUR),
+                retention.expired(catalog, NOW.toInstant()));
+    }
+
+    @Test
+    public void shouldKeepNextBackupOfHourWhenQuotaEvictsFirst()
+            throws Exception {
+        final FileSystemManager fileSystem = new FileSystemManagerProvider(
+                new DefaultFileSystemManager(), new DefaultLocalFileProvider(),
+                new DefaultFilesCache()).get();
+        final FileProvider<FileObject> backupFolder = providerOf(
+                fileSystem.toFileObject(temporaryFolder.newFolder("backups")));
+        final LocLogger log = mock(LocLogger.class);
+        final BackupCatalog realCatalog = new BackupCatalog(log,
+                backupFolder, providerOf(fileSystem.toFileObject(
+                        temporaryFolder.newFolder("state"))));
+        for (final Backup backup : ImmutableList.of(FIRST_OF_HOUR,
+                LATER_IN_HOUR, NEXT_HOUR, RECENT)) {
+            realCatalog.add(backup);
+        }
+        assertTrue(retention.expired(realCatalog,
+                NOW.minusHours(8).toInstant()).isEmpty());
+        new BackupQuota(log, realCatalog,
+                new BackupDeleter(log, backupFolder, realCatalog),
+                Providers.of(NOW.toInstant()), 4, Eviction.OLDEST)
+                .reserveFor("world");
+        assertNull(realCatalog.backup(FIRST_OF_HOUR.name()));
+        assertTrue(retention.expired(realCatalog, NOW.toInstant()).isEmpty());
+    }
+
+    private static FileProvider<FileObject> providerOf(final FileObject file) {
+        return new FileProvider<FileObject>() {
+            @Override
+            public FileObject get() {
+                return file;
+            }
+        };
+    }
+
+    private void catalogHas(final Backup... backups) throws Exception {
+        when(catalog.backupsAfter(null)).thenReturn(Arrays.asList(backups));
+    }
+
+    private static Backup backupAt(final String name, final DateTime time,
+            final String parent) {
+        return new Backup(name, "world", time.getMillis(), 1, 1, 0, parent);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.celeria.minecraft.backup;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.zip.*;
+import com.google.common.io.ByteStreams;
+import org.junit.*;
+
+public class ZipWriterTest {
+    private static final long TIME = 1318000000000L;
+    private static final long TOO_LARGE = 0x100000000L;
+
+    private ByteArrayOutputStream output;
+    private ZipWriter writer;
+
+    @Before
+    public void setUp() {
+        output = new ByteArrayOutputStream();
+        writer = new ZipWriter(output);
+    }
+
+    @Test
+    public void shouldWriteReadableEntry() throws Exception {
+        final byte[] data = {1, 2, 3};
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        writer.write(new ZipWriter.Entry("level.dat", TIME, ZipEntry.STORED,
+                crc.getValue(), data.length), data);
+        writer.close();
+        final ZipInputStream input = new ZipInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        assertEquals("level.dat", input.getNextEntry().getName());
+        assertArrayEquals(data, ByteStreams.toByteArray(input));
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldRefuseEntryOf4GiB() throws Exception {
+        writer.write(new ZipWriter.Entry("region/r.0.0.mca", TIME,
+                ZipEntry.DEFLATED, 0, TOO_LARGE), new byte[1]);
+    }
+
+    @Test(expected = ArchiveException.class)
+    public void shouldRefuseStreamedEntryOf4GiB() throws Exception {
+        writer.beginEntry("region/r.0.0.mca", TIME, ZipEntry.DEFLATED);
+        writer.writeEntryData(new byte[1], 0, 1);
+        writer.endEntry(0, TOO_LARGE);
+    }
+}
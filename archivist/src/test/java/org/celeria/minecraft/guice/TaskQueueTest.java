@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 Ian D. Bollinger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.celeria.minecraft.guice;
+
+import static org.junit.Assert.*;
+import java.util.List;
+import java.util.concurrent.*;
+import com.google.common.collect.Lists;
+import org.celeria.minecraft.guice.TaskQueue.Priority;
+import org.junit.*;
+
+public class TaskQueueTest {
+    private final List<Runnable> started = Lists.newArrayList();
+    private TaskQueueImpl queue;
+
+    /** Tasks are only recorded, so the test decides when each one ends. */
+    @Before
+    public void setUp() {
+        queue = new TaskQueueImpl(2, new AbstractExecutorService() {
+            @Override
+            public void execute(final Runnable command) {
+                started.add(command);
+            }
+
+            @Override
+            public void shutdown() {}
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return Lists.newArrayList();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(final long timeout,
+                    final TimeUnit unit) {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void shouldLimitConcurrentTasks() {
+        queue.submit(new Task(), "a", Priority.NORMAL);
+        queue.submit(new Task(), "b", Priority.NORMAL);
+        queue.submit(new Task(), "c", Priority.NORMAL);
+        assertEquals(2, queue.runningTasks());
+        assertEquals(1, queue.queuedTasks());
+        started.get(0).run();
+        assertEquals(2, queue.runningTasks());
+        assertEquals(0, queue.queuedTasks());
+    }
+
+    @Test
+    public void shouldRunTasksOfAGroupOneAtATime() {
+        final Task first = new Task();
+        final Task second = new Task();
+        queue.submit(first, "disk", Priority.NORMAL);
+        queue.submit(second, "disk", Priority.NORMAL);
+        assertEquals(1, started.size());
+        started.get(0).run();
+        assertEquals(2, started.size());
+        started.get(1).run();
+        assertTrue(first.ran && second.ran);
+    }
+
+    @Test
+    public void shouldStartHigherPriorityTasksFirst() {
+        queue.submit(new Task(), "disk", Priority.NORMAL);
+        final Task normal = new Task();
+        final Task high = new Task();
+        queue.submit(normal, "disk", Priority.NORMAL);
+        queue.submit(high, "disk", Priority.HIGH);
+        started.get(0).run();
+        started.get(1).run();
+        assertTrue(high.ran);
+        assertFalse(normal.ran);
+    }
+
+    @Test
+    public void shouldCancelQueuedTasks() {
+        queue.submit(new Task(), "disk", Priority.NORMAL);
+        queue.submit(new Task(), "disk", Priority.NORMAL);
+        queue.cancelQueuedTasks();
+        started.get(0).run();
+        assertEquals(1, started.size());
+        assertEquals(0, queue.runningTasks());
+    }
+
+    private static final class Task implements Runnable {
+        private boolean ran;
+
+        @Override
+        public void run() {
+            ran = true;
+        }
+    }
+}